@@ -9,6 +9,7 @@ export type FlashSaleTicketStatusResponse = {
     productId: number | null;
     status: "QUEUED" | "PROCESSING" | "SUCCESS" | "SOLD_OUT" | "EXPIRED";
     position: number | null;
+    etaSeconds: number | null;
     orderId: number | null;
 };
 
@@ -20,4 +21,48 @@ export async function joinFlashSale(productId: number): Promise<JoinFlashSaleRes
 export async function getFlashSaleTicketStatus(ticketId: string): Promise<FlashSaleTicketStatusResponse> {
     const response = await apiClient.get<FlashSaleTicketStatusResponse>(`/flashsale/tickets/${ticketId}`);
     return response.data;
-}
\ No newline at end of file
+}
+
+/**
+ * SSE 訂閱票券狀態（連線存在即視為心跳，取代輪詢）
+ * EventSource 無法帶 Authorization header，因此用 fetch 讀取串流並自行解析 event/data
+ * 串流結束（終態或逾時）即 resolve；呼叫端可用 signal 中止
+ */
+export async function streamFlashSaleTicketStatus(
+    ticketId: string,
+    onStatus: (status: FlashSaleTicketStatusResponse) => void,
+    signal: AbortSignal,
+): Promise<void> {
+    const headers: Record<string, string> = { Accept: "text/event-stream" };
+    const authorization = apiClient.defaults.headers.common.Authorization;
+    if (typeof authorization === "string") headers.Authorization = authorization;
+
+    const response = await fetch(`${apiClient.defaults.baseURL}/flashsale/tickets/${ticketId}/stream`, { headers, signal });
+    if (!response.ok || !response.body) {
+        throw new Error(`API 錯誤（HTTP ${response.status}）`);
+    }
+
+    const reader = response.body.getReader();
+    const decoder = new TextDecoder();
+    let buffer = "";
+
+    for (;;) {
+        const { value, done } = await reader.read();
+        if (done) return;
+        buffer += decoder.decode(value, { stream: true });
+
+        // 事件以空行分隔；只處理 data 行（comment ping 直接略過）
+        let boundary = buffer.indexOf("\n\n");
+        while (boundary >= 0) {
+            const data = buffer
+                .slice(0, boundary)
+                .split("\n")
+                .filter((line) => line.startsWith("data:"))
+                .map((line) => line.slice(5).trim())
+                .join("\n");
+            buffer = buffer.slice(boundary + 2);
+            if (data) onStatus(JSON.parse(data) as FlashSaleTicketStatusResponse);
+            boundary = buffer.indexOf("\n\n");
+        }
+    }
+}
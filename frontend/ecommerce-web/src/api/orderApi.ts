@@ -39,7 +39,18 @@ export async function createNormalOrder(request: CreateNormalOrderRequest): Prom
     return response.data;
 }
 
-export async function fetchMyOrders(): Promise<Order[]> {
-    const response = await apiClient.get<Order[]>("/orders");
-    return response.data;
+export type OrderPage = {
+    orders: Order[];
+    nextCursor: string | null;
+};
+
+// keyset 分頁：下一頁的 cursor 由 X-Next-Cursor header 回傳，沒有 header 代表已經是最後一頁
+export async function fetchMyOrders(cursor?: string | null, size = 20): Promise<OrderPage> {
+    const response = await apiClient.get<Order[]>("/orders", {
+        params: cursor ? { size, cursor } : { size },
+    });
+    return {
+        orders: response.data,
+        nextCursor: (response.headers["x-next-cursor"] as string | undefined) ?? null,
+    };
 }
\ No newline at end of file
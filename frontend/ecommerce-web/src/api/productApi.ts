@@ -10,13 +10,69 @@ export type Product = {
     productType: ProductType;
 };
 
-export async function fetchProductsByType(productType: ProductType): Promise<Product[]> {
-    const response = await apiClient.get<Product[]>("/products", {
+export type CatalogItem = Omit<Product, "stock">;
+
+export type StockLevel = {
+    productId: number;
+    stock: number;
+};
+
+// 後端 /products/stock 單次最多 500 個 id
+const STOCK_IDS_PER_REQUEST = 500;
+
+export async function fetchCatalogByType(productType: ProductType): Promise<CatalogItem[]> {
+    // 目錄不含庫存、可長時間快取（瀏覽器以 ETag 重新驗證，未變時 304）
+    const response = await apiClient.get<CatalogItem[]>("/products/catalog", {
         params: { type: productType },
     });
     return response.data;
 }
 
+export async function fetchStocks(productIds: number[]): Promise<Map<number, number>> {
+    const chunks: number[][] = [];
+    for (let i = 0; i < productIds.length; i += STOCK_IDS_PER_REQUEST) {
+        chunks.push(productIds.slice(i, i + STOCK_IDS_PER_REQUEST));
+    }
+    const responses = await Promise.all(
+        chunks.map((ids) => apiClient.get<StockLevel[]>("/products/stock", { params: { ids: ids.join(",") } }))
+    );
+    const stocks = new Map<number, number>();
+    responses.forEach((response) => response.data.forEach((s) => stocks.set(s.productId, s.stock)));
+    return stocks;
+}
+
+export async function fetchProductsByType(productType: ProductType): Promise<Product[]> {
+    // 目錄與即時庫存分開查，再組回 Product
+    const catalog = await fetchCatalogByType(productType);
+    if (catalog.length === 0) return [];
+    const stocks = await fetchStocks(catalog.map((p) => p.id));
+    return catalog.map((p) => ({ ...p, stock: stocks.get(p.id) ?? 0 }));
+}
+
+export type ProductSort = "id" | "price" | "name";
+
+export type ProductPage = {
+    products: Product[];
+    nextCursor: string | null;
+};
+
+// keyset 分頁（含庫存）：下一頁的 cursor 由 X-Next-Cursor header 回傳，沒有 header 代表已經是最後一頁；
+// cursor 綁定排序方式，換排序要從第一頁重新查
+export async function fetchProductsPage(
+    productType: ProductType,
+    sort: ProductSort = "id",
+    cursor?: string | null,
+    size = 24
+): Promise<ProductPage> {
+    const response = await apiClient.get<Product[]>("/products", {
+        params: cursor ? { type: productType, sort, size, cursor } : { type: productType, sort, size },
+    });
+    return {
+        products: response.data,
+        nextCursor: (response.headers["x-next-cursor"] as string | undefined) ?? null,
+    };
+}
+
 export async function fetchProductsAll(): Promise<Product[]> {
     // 一次拿全部商品資料，目前先用兩次查詢處理
     const [normal, flash] = await Promise.all([
@@ -1,5 +1,5 @@
 import { useEffect, useState } from "react";
-import { Alert, Card, Table, Typography } from "antd";
+import { Alert, Button, Card, Table, Typography } from "antd";
 import type { ColumnsType } from "antd/es/table";
 import { fetchMyOrders, type Order } from "../api/orderApi";
 import { toErrorMessage } from "../api/apiClient";
@@ -16,22 +16,26 @@ type OrderRow = {
 
 export function OrdersPage() {
     const [orders, setOrders] = useState<Order[]>([]);
+    const [nextCursor, setNextCursor] = useState<string | null>(null);
     const [error, setError] = useState<string | null>(null);
     const [isLoading, setIsLoading] = useState(true);
 
-    useEffect(() => {
-        async function load() {
-            setError(null);
-            setIsLoading(true);
-            try {
-                setOrders(await fetchMyOrders());
-            } catch (e) {
-                setError(toErrorMessage(e));
-            } finally {
-                setIsLoading(false);
-            }
+    async function load(cursor: string | null) {
+        setError(null);
+        setIsLoading(true);
+        try {
+            const page = await fetchMyOrders(cursor);
+            setOrders((prev) => (cursor ? [...prev, ...page.orders] : page.orders));
+            setNextCursor(page.nextCursor);
+        } catch (e) {
+            setError(toErrorMessage(e));
+        } finally {
+            setIsLoading(false);
         }
-        load();
+    }
+
+    useEffect(() => {
+        load(null);
     }, []);
 
     const rows: OrderRow[] = orders.map((o) => ({
@@ -54,14 +58,21 @@ export function OrdersPage() {
     return (
         <div>
             <Title level={3} style={{ marginTop: 0 }}>我的訂單</Title>
-            <Text type="secondary">展示：呼叫 /orders 查詢（需登入）</Text>
+            <Text type="secondary">展示：呼叫 /orders 查詢（需登入，每次載入 20 筆）</Text>
 
             <div style={{ height: 16 }} />
 
             {error && <Alert type="error" message={error} showIcon style={{ marginBottom: 12 }} />}
 
             <Card>
-                <Table columns={columns} dataSource={rows} loading={isLoading} />
+                <Table columns={columns} dataSource={rows} loading={isLoading} pagination={false} />
+                {nextCursor && (
+                    <div style={{ marginTop: 12, textAlign: "center" }}>
+                        <Button onClick={() => load(nextCursor)} loading={isLoading}>
+                            載入更多
+                        </Button>
+                    </div>
+                )}
             </Card>
         </div>
     );
@@ -1,8 +1,8 @@
 import { useEffect, useState } from "react";
-import { Alert, Button, Card, Col, Divider, Modal, Row, Skeleton, Statistic, Tag, Typography } from "antd";
+import { Alert, Button, Card, Col, Divider, Modal, Row, Select, Skeleton, Statistic, Tag, Typography } from "antd";
 import { ShoppingCartOutlined, ThunderboltOutlined } from "@ant-design/icons";
-import { fetchProductsByType, type Product } from "../api/productApi";
-import { joinFlashSale, getFlashSaleTicketStatus } from "../api/flashSaleApi";
+import { fetchProductsByType, fetchProductsPage, type Product, type ProductSort } from "../api/productApi";
+import { joinFlashSale, streamFlashSaleTicketStatus, type FlashSaleTicketStatusResponse } from "../api/flashSaleApi";
 import { toErrorMessage } from "../api/apiClient";
 import { useCart } from "../cart/CartContext";
 import { useAuth } from "../auth/AuthContext";
@@ -11,11 +11,14 @@ const { Title, Text } = Typography;
 
 /**
  * 商品頁：
- * - NORMAL：加入購物車 → 多品項結帳
- * - FLASH_SALE：join queue → polling status → success 顯示 orderId
+ * - NORMAL：加入購物車 → 多品項結帳（keyset 分頁，「載入更多」接續 cursor；可依價格 / 名稱排序）
+ * - FLASH_SALE：join queue → SSE 狀態推播 → success 顯示 orderId
  */
 export function ProductsPage() {
     const [normalProducts, setNormalProducts] = useState<Product[]>([]);
+    const [normalSort, setNormalSort] = useState<ProductSort>("id");
+    const [normalCursor, setNormalCursor] = useState<string | null>(null);
+    const [isLoadingMore, setIsLoadingMore] = useState(false);
     const [flashSaleProducts, setFlashSaleProducts] = useState<Product[]>([]);
     const [error, setError] = useState<string | null>(null);
     const [isLoading, setIsLoading] = useState(true);
@@ -37,10 +40,11 @@ export function ProductsPage() {
             setIsLoading(true);
             try {
                 const [normal, flash] = await Promise.all([
-                    fetchProductsByType("NORMAL"),
+                    fetchProductsPage("NORMAL", normalSort),
                     fetchProductsByType("FLASH_SALE"),
                 ]);
-                setNormalProducts(normal);
+                setNormalProducts(normal.products);
+                setNormalCursor(normal.nextCursor);
                 setFlashSaleProducts(flash);
             } catch (e) {
                 setError(toErrorMessage(e));
@@ -51,6 +55,37 @@ export function ProductsPage() {
         load();
     }, []);
 
+    // 換排序：cursor 綁定排序方式，從第一頁重新查
+    async function changeNormalSort(sort: ProductSort) {
+        setNormalSort(sort);
+        setError(null);
+        setIsLoadingMore(true);
+        try {
+            const page = await fetchProductsPage("NORMAL", sort);
+            setNormalProducts(page.products);
+            setNormalCursor(page.nextCursor);
+        } catch (e) {
+            setError(toErrorMessage(e));
+        } finally {
+            setIsLoadingMore(false);
+        }
+    }
+
+    async function loadMoreNormalProducts() {
+        if (!normalCursor) return;
+        setError(null);
+        setIsLoadingMore(true);
+        try {
+            const page = await fetchProductsPage("NORMAL", normalSort, normalCursor);
+            setNormalProducts((prev) => [...prev, ...page.products]);
+            setNormalCursor(page.nextCursor);
+        } catch (e) {
+            setError(toErrorMessage(e));
+        } finally {
+            setIsLoadingMore(false);
+        }
+    }
+
     async function reloadFlashSaleProducts() {
         try {
             const flash = await fetchProductsByType("FLASH_SALE");
@@ -66,43 +101,50 @@ export function ProductsPage() {
         }
     }
 
-    // polling：每 1 秒查一次狀態，視同心跳（刷新 TTL）
+    // SSE：伺服器推播狀態轉換，連線存在即視為心跳（刷新 TTL）；斷線後 1 秒重連
     useEffect(() => {
         if (!flashTicketId) return;
 
+        const controller = new AbortController();
         let timerId: number | null = null;
-        let stopped = false;
+        let finished = false;
+
+        function applyStatus(status: FlashSaleTicketStatusResponse) {
+            setFlashPosition(status.position);
+            setFlashOrderId(status.orderId);
+
+            if (status.status === "QUEUED") {
+                const eta = status.etaSeconds != null ? `，預估約 ${status.etaSeconds} 秒` : "";
+                setFlashStatusText(`排隊中... 目前順位：${status.position ?? "?"}${eta}`);
+            }
+            if (status.status === "PROCESSING") setFlashStatusText("處理中，請稍候...");
+            if (status.status === "SUCCESS") setFlashStatusText(`✅ 搶購成功！Order #${status.orderId}`);
+            if (status.status === "SOLD_OUT") setFlashStatusText("❌ 已售罄");
+            if (status.status === "EXPIRED") setFlashStatusText("⏳ 已離隊（可能離線太久），請重新加入");
 
-        async function poll() {
-            if (stopped) return;
+            // 成功/售完/過期就不再重連
+            if (status.status === "SUCCESS" || status.status === "SOLD_OUT" || status.status === "EXPIRED") {
+                finished = true;
+                reloadFlashSaleProducts(); // 刷新商品更新庫存
+            }
+        }
+
+        async function connect() {
+            if (controller.signal.aborted) return;
             try {
-                const status = await getFlashSaleTicketStatus(flashTicketId as string);
-                setFlashPosition(status.position);
-                setFlashOrderId(status.orderId);
-
-                if (status.status === "QUEUED") setFlashStatusText(`排隊中... 目前順位：${status.position ?? "?"}`);
-                if (status.status === "PROCESSING") setFlashStatusText("處理中，請稍候...");
-                if (status.status === "SUCCESS") setFlashStatusText(`✅ 搶購成功！Order #${status.orderId}`);
-                if (status.status === "SOLD_OUT") setFlashStatusText("❌ 已售罄");
-                if (status.status === "EXPIRED") setFlashStatusText("⏳ 已離隊（可能離線太久），請重新加入");
-
-                // 成功/售完/過期就停止輪詢
-                if (status.status === "SUCCESS" || status.status === "SOLD_OUT" || status.status === "EXPIRED") {
-                    await reloadFlashSaleProducts(); // 刷新商品更新庫存
-                    return;
-                }
-
-                timerId = window.setTimeout(poll, 1000);
+                await streamFlashSaleTicketStatus(flashTicketId as string, applyStatus, controller.signal);
+                if (!finished) timerId = window.setTimeout(connect, 1000);
             } catch (e) {
+                if (controller.signal.aborted) return;
                 setFlashStatusText(`查詢狀態失敗：${toErrorMessage(e)}`);
-                timerId = window.setTimeout(poll, 1500);
+                timerId = window.setTimeout(connect, 1500);
             }
         }
 
-        poll();
+        connect();
 
         return () => {
-            stopped = true;
+            controller.abort();
             if (timerId) window.clearTimeout(timerId);
         };
     }, [flashTicketId]);
@@ -128,7 +170,7 @@ export function ProductsPage() {
         <div>
             <Title level={3} style={{ marginTop: 0 }}>商品</Title>
             <Text type="secondary">
-                一般商品支援多品項結帳；搶購商品採 FIFO 排隊 + 斷線離隊（輪詢=心跳）。
+                一般商品支援多品項結帳；搶購商品採 FIFO 排隊 + 斷線離隊（SSE 連線=心跳）。
             </Text>
 
             <div style={{ height: 16 }} />
@@ -138,6 +180,20 @@ export function ProductsPage() {
             {!isLoading && (
                 <>
                     <SectionTitle icon={<ShoppingCartOutlined />} title="一般商品區" subtitle="可加入購物車，多品項結帳" />
+                    <div style={{ marginBottom: 12 }}>
+                        <Text type="secondary" style={{ marginRight: 8 }}>排序</Text>
+                        <Select<ProductSort>
+                            value={normalSort}
+                            onChange={changeNormalSort}
+                            disabled={isLoadingMore}
+                            style={{ width: 140 }}
+                            options={[
+                                { value: "id", label: "上架順序" },
+                                { value: "price", label: "價格（低→高）" },
+                                { value: "name", label: "名稱" },
+                            ]}
+                        />
+                    </div>
                     <Row gutter={[12, 12]}>
                         {normalProducts.map((p) => (
                             <Col key={p.id} xs={24} sm={12} md={8}>
@@ -163,6 +219,13 @@ export function ProductsPage() {
                             </Col>
                         ))}
                     </Row>
+                    {normalCursor && (
+                        <div style={{ marginTop: 12, textAlign: "center" }}>
+                            <Button onClick={loadMoreNormalProducts} loading={isLoadingMore}>
+                                載入更多
+                            </Button>
+                        </div>
+                    )}
 
                     <Divider style={{ margin: "24px 0" }} />
 
@@ -210,7 +273,7 @@ export function ProductsPage() {
                     {flashOrderId && <div><strong>OrderId：</strong>{flashOrderId}</div>}
 
                     <div style={{ color: "#888" }}>
-                        提示：保持此視窗開著會持續輪詢（視同心跳）。關閉或離線超過 TTL 會自動離隊。
+                        提示：保持此視窗開著會維持狀態推播連線（視同心跳）。關閉或離線超過 TTL 會自動離隊。
                     </div>
                 </div>
             </Modal>
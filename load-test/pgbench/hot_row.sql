@@ -0,0 +1,5 @@
+-- 未分片：所有買家搶同一列（與 ProductRepository.reserveFlashSaleReturning 的條件式 UPDATE 相同）
+UPDATE product
+SET stock = stock - 1
+WHERE id = :product_id
+  AND stock >= 1;
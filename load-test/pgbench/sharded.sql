@@ -0,0 +1,16 @@
+-- 已分片：隨機起點挑一個沒被鎖住的分片扣 1（與 ProductStockShardRepository.takeSkipLocked 相同）
+\set salt random(0, 999999)
+WITH pick AS (
+    SELECT id, LEAST(stock, 1) AS take
+    FROM product_stock_shard
+    WHERE product_id = :product_id
+      AND stock > 0
+    ORDER BY (shard_no + :salt) % shard_count
+    LIMIT 1
+    FOR UPDATE SKIP LOCKED
+)
+UPDATE product_stock_shard s
+SET stock = s.stock - p.take
+FROM pick p
+WHERE s.id = p.id
+RETURNING p.take;
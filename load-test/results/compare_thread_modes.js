@@ -0,0 +1,44 @@
+#!/usr/bin/env node
+/**
+ * compare_thread_modes.js
+ * 彙整 run_step4_thread_mode_benchmark.sh 產生的 {mode}_{users}.json，輸出 platform / virtual 對照表（Markdown）
+ *
+ * 用法：
+ *   node load-test/results/compare_thread_modes.js [load-test/results/thread_mode]
+ */
+
+import fs from "fs";
+import path from "path";
+import { fileURLToPath } from "url";
+
+const __dirname = path.dirname(fileURLToPath(import.meta.url));
+const dir = process.argv[2]
+    ? path.resolve(process.argv[2])
+    : path.join(__dirname, "thread_mode");
+
+const fmt = (v) => (v != null ? v.toFixed(2) : "N/A");
+
+const rows = fs.readdirSync(dir)
+    .map((f) => f.match(/^(\w+)_(\d+)\.json$/))
+    .filter(Boolean)
+    .map(([file, mode, users]) => {
+        const m = JSON.parse(fs.readFileSync(path.join(dir, file), "utf-8")).metrics ?? {};
+        const duration = m["http_req_duration{expected_response:true}"] ?? m["http_req_duration"] ?? {};
+        const join = m["flashsale_join_duration"] ?? {};
+        return {
+            mode,
+            users: Number(users),
+            p95: duration["p(95)"],
+            p99: duration["p(99)"],
+            joinP99: join["p(99)"],
+            failed: m.http_req_failed?.value,
+        };
+    })
+    .sort((a, b) => a.users - b.users || a.mode.localeCompare(b.mode));
+
+console.log("| 併發 | 模式 | http p95 (ms) | http p99 (ms) | join p99 (ms) | 失敗率 |");
+console.log("| ---- | ---- | ------------- | ------------- | ------------- | ------ |");
+for (const r of rows) {
+    const failed = r.failed != null ? `${(r.failed * 100).toFixed(2)}%` : "N/A";
+    console.log(`| ${r.users} | ${r.mode} | ${fmt(r.p95)} | ${fmt(r.p99)} | ${fmt(r.joinP99)} | ${failed} |`);
+}
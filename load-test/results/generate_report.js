@@ -59,6 +59,10 @@ const durationMetric =
 const p95Val = durationMetric?.["p(95)"];
 const p95Str = p95Val != null ? `${p95Val.toFixed(2)} ms` : "N/A";
 
+// join 專用延遲（step_3 自訂 Trend）
+const joinP95Val = m.flashsale_join_duration?.["p(95)"];
+const joinP95Str = joinP95Val != null ? `${joinP95Val.toFixed(2)} ms` : "N/A";
+
 // ── 描述欄位（可由環境變數覆寫） ──────────────────────────
 const vuCount = process.env.VU_COUNT
     ? Number(process.env.VU_COUNT)
@@ -89,6 +93,7 @@ const content = `## 壓測證據（k6 搶購 ${vuCount.toLocaleString()} 併發
 | 總請求數（http_reqs） | ${httpReqsCount} |
 | http_req_failed（網路/腳本失敗率） | ${failedRateStr} |
 | http_req_duration p95 | ${p95Str} |
+| join p95（flashsale_join_duration） | ${joinP95Str} |
 
 > 備註：FIFO 驗證需搭配後端票券欄位 enqueueSeq/successSeq 或日誌輸出佐證。
 `;
@@ -100,3 +105,4 @@ console.log(`  VUs           : ${vuCount}`);
 console.log(`  http_reqs     : ${httpReqsCount}`);
 console.log(`  failed rate   : ${failedRateStr}`);
 console.log(`  p95 duration  : ${p95Str}`);
+console.log(`  join p95      : ${joinP95Str}`);
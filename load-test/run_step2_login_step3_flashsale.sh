@@ -41,6 +41,7 @@ docker run --rm -i \
   -e USER_COUNT="$USER_COUNT" \
   -e POLL_MAX_SECONDS="${POLL_MAX_SECONDS:-20}" \
   -e POLL_INTERVAL_MS="${POLL_INTERVAL_MS:-500}" \
+  -e MAX_DURATION="${MAX_DURATION:-60s}" \
   grafana/k6:0.49.0 run /work/load-test/scripts/step_3_flashsale.js \
   --summary-export=/work/load-test/results/step3_summary.json
 
@@ -0,0 +1,49 @@
+#!/usr/bin/env bash
+# Step 4：platform thread vs virtual thread 延遲比較（100 / 1k / 10k 併發）
+#
+# 用法：bash load-test/run_step4_thread_mode_benchmark.sh
+#       MODES="virtual" USER_COUNTS="1000" bash load-test/run_step4_thread_mode_benchmark.sh
+#
+# 前置條件：
+#   - order-service / product-service / auth-service 以 JDK 21 映像檔執行（Dockerfile 預設；virtual 模式需要 JDK 21+）
+#   - 已以 run_step1_sign_up.sh 建立足夠帳號（USER_COUNTS 中的最大值）
+#   - 每一輪前需要重新 arm 搶購商品（ARM_URL 為空則跳過）
+set -euo pipefail
+
+NAMESPACE="${NAMESPACE:-ecommerce}"
+MODES="${MODES:-platform virtual}"
+USER_COUNTS="${USER_COUNTS:-100 1000 10000}"
+PRODUCT_ID="${PRODUCT_ID:-1}"
+ARM_URL="${ARM_URL:-http://localhost:8081/internal/flashsale/${PRODUCT_ID}/arm}"
+INTERNAL_TOKEN="${INTERNAL_TOKEN:-CHANGE_ME_INTERNAL_TOKEN}"
+OUT_DIR="load-test/results/thread_mode"
+
+mkdir -p "$OUT_DIR"
+
+for mode in $MODES; do
+  enabled=false
+  [ "$mode" = "virtual" ] && enabled=true
+
+  echo "==> [Step 4] Switching services to ${mode} threads ..."
+  for svc in order-service product-service auth-service; do
+    kubectl set env "deploy/${svc}" -n "$NAMESPACE" VIRTUAL_THREADS_ENABLED="$enabled"
+  done
+  for svc in order-service product-service auth-service; do
+    kubectl rollout status "deploy/${svc}" -n "$NAMESPACE" --timeout=180s
+  done
+
+  for count in $USER_COUNTS; do
+    if [ -n "$ARM_URL" ]; then
+      curl -fsS -X POST "$ARM_URL" -H "X-Internal-Token: ${INTERNAL_TOKEN}" > /dev/null
+    fi
+
+    echo "==> [Step 4] mode=${mode}, users=${count}"
+    USER_COUNT="$count" PRODUCT_ID="$PRODUCT_ID" \
+      POLL_MAX_SECONDS="${POLL_MAX_SECONDS:-120}" MAX_DURATION="${MAX_DURATION:-180s}" \
+      bash load-test/run_step2_login_step3_flashsale.sh
+    cp load-test/results/step3_summary.json "${OUT_DIR}/${mode}_${count}.json"
+  done
+done
+
+echo "==> [Step 4] Comparing summaries ..."
+node load-test/results/compare_thread_modes.js "$OUT_DIR" | tee "${OUT_DIR}/COMPARE.md"
@@ -0,0 +1,64 @@
+#!/usr/bin/env bash
+# Step 5：扣庫存列鎖競爭比較（未分片的熱門列 vs K 個庫存分片），直接對 PostgreSQL 跑 pgbench
+#
+# 用法：bash load-test/run_step5_stock_shard_benchmark.sh
+#       SHARD_COUNTS="0 16" CLIENTS=128 DURATION=60 bash load-test/run_step5_stock_shard_benchmark.sh
+#
+# 注意：會直接改寫 PRODUCT_ID 的庫存與分片（每輪重設為 STOCK），請在測試環境執行；
+#       跑完後可用 POST /admin/products/{id}/stock-shards 重新設定分片數與庫存
+set -euo pipefail
+
+NAMESPACE="${NAMESPACE:-ecommerce}"
+PRODUCT_ID="${PRODUCT_ID:-1}"
+SHARD_COUNTS="${SHARD_COUNTS:-0 4 16 64}"   # 0 = 未分片（熱門列）
+CLIENTS="${CLIENTS:-64}"
+DURATION="${DURATION:-30}"
+STOCK="${STOCK:-100000000}"                  # 夠大，壓測期間不會扣光
+OUT_DIR="load-test/results/stock_shards"
+
+PG_EXEC=(kubectl exec -i -n "$NAMESPACE" deploy/postgres --)
+PSQL=("${PG_EXEC[@]}" psql -v ON_ERROR_STOP=1 -q -U ecommerce_user -d ecommerce)
+
+mkdir -p "$OUT_DIR"
+
+for script in hot_row sharded; do
+  "${PG_EXEC[@]}" sh -c "cat > /tmp/${script}.sql" < "load-test/pgbench/${script}.sql"
+done
+
+for k in $SHARD_COUNTS; do
+  echo "==> [Step 5] Resetting product ${PRODUCT_ID}: shards=${k}, stock=${STOCK}"
+  if [ "$k" -eq 0 ]; then
+    "${PSQL[@]}" <<SQL
+DELETE FROM product_stock_shard WHERE product_id = ${PRODUCT_ID};
+UPDATE product SET stock = ${STOCK} WHERE id = ${PRODUCT_ID};
+SQL
+    script=hot_row
+  else
+    "${PSQL[@]}" <<SQL
+BEGIN;
+DELETE FROM product_stock_shard WHERE product_id = ${PRODUCT_ID};
+INSERT INTO product_stock_shard (product_id, shard_no, shard_count, stock)
+SELECT ${PRODUCT_ID}, n, ${k}, ${STOCK} / ${k} FROM generate_series(0, ${k} - 1) AS n;
+UPDATE product SET stock = 0 WHERE id = ${PRODUCT_ID};
+COMMIT;
+SQL
+    script=sharded
+  fi
+
+  echo "==> [Step 5] pgbench shards=${k}, clients=${CLIENTS}, duration=${DURATION}s"
+  "${PG_EXEC[@]}" pgbench -n -U ecommerce_user -d ecommerce \
+    -c "$CLIENTS" -j 4 -T "$DURATION" -D product_id="$PRODUCT_ID" \
+    -f "/tmp/${script}.sql" | tee "${OUT_DIR}/shards_${k}.txt"
+done
+
+echo "==> [Step 5] Summary"
+{
+  echo "| 分片數 | tps | 平均延遲 (ms) |"
+  echo "| ------ | --- | ------------- |"
+  for k in $SHARD_COUNTS; do
+    f="${OUT_DIR}/shards_${k}.txt"
+    tps=$(grep -m1 '^tps' "$f" | awk '{print $3}')
+    latency=$(grep -m1 '^latency average' "$f" | awk '{print $4}')
+    echo "| ${k} | ${tps} | ${latency} |"
+  done
+} | tee "${OUT_DIR}/COMPARE.md"
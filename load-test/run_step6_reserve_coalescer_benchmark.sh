@@ -0,0 +1,62 @@
+#!/usr/bin/env bash
+# Step 6：搶購單張扣庫存，每請求一個交易 vs 合併提交（reserve coalescer）的吞吐量與 p99
+#
+# 用法：bash load-test/run_step6_reserve_coalescer_benchmark.sh
+#       VUS=1000 DURATION=60s bash load-test/run_step6_reserve_coalescer_benchmark.sh
+#
+# 注意：會直接改寫 PRODUCT_ID 的庫存（每輪重設為 STOCK），請在測試環境執行
+set -euo pipefail
+
+NAMESPACE="${NAMESPACE:-ecommerce}"
+PRODUCT_ID="${PRODUCT_ID:-1}"
+VUS="${VUS:-500}"
+DURATION="${DURATION:-30s}"
+STOCK="${STOCK:-100000000}"
+LOCAL_PORT="${LOCAL_PORT:-8082}"
+OUT_DIR="load-test/results/reserve_coalescer"
+
+mkdir -p "$OUT_DIR"
+
+for mode in off on; do
+  enabled=false
+  [ "$mode" = "on" ] && enabled=true
+
+  echo "==> [Step 6] reserve coalescer ${mode}"
+  kubectl set env deploy/product-service -n "$NAMESPACE" RESERVE_COALESCER_ENABLED="$enabled"
+  kubectl rollout status deploy/product-service -n "$NAMESPACE" --timeout=180s
+
+  kubectl exec -i -n "$NAMESPACE" deploy/postgres -- psql -v ON_ERROR_STOP=1 -q -U ecommerce_user -d ecommerce <<SQL
+DELETE FROM product_stock_shard WHERE product_id = ${PRODUCT_ID};
+UPDATE product SET stock = ${STOCK} WHERE id = ${PRODUCT_ID};
+SQL
+
+  kubectl port-forward -n "$NAMESPACE" svc/product-service "${LOCAL_PORT}:8080" > /dev/null &
+  pf_pid=$!
+  sleep 2
+
+  docker run --rm -i \
+    --network host \
+    --user "$(id -u):$(id -g)" \
+    -v "$(pwd):/work" -w /work \
+    -e PRODUCT_URL="http://localhost:${LOCAL_PORT}" \
+    -e PRODUCT_ID="$PRODUCT_ID" \
+    -e VUS="$VUS" \
+    -e DURATION="$DURATION" \
+    grafana/k6:0.49.0 run /work/load-test/scripts/reserve_contention.js \
+    --summary-export="/work/${OUT_DIR}/${mode}.json" || true
+
+  kill "$pf_pid"
+done
+
+echo "==> [Step 6] Summary"
+node -e '
+const fs = require("fs");
+const dir = process.argv[1];
+console.log("| coalescer | req/s | p95 (ms) | p99 (ms) |");
+console.log("| --------- | ----- | -------- | -------- |");
+for (const mode of ["off", "on"]) {
+  const m = JSON.parse(fs.readFileSync(`${dir}/${mode}.json`, "utf-8")).metrics;
+  const d = m.http_req_duration;
+  console.log(`| ${mode} | ${m.http_reqs.rate.toFixed(1)} | ${d["p(95)"].toFixed(2)} | ${d["p(99)"].toFixed(2)} |`);
+}
+' "$OUT_DIR" | tee "${OUT_DIR}/COMPARE.md"
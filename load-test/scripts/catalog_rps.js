@@ -0,0 +1,57 @@
+import http from "k6/http";
+import { check } from "k6";
+import { Rate } from "k6/metrics";
+
+/**
+ * 公開商品列表吞吐量壓測（GET /products?type= 或 /products/catalog?type=）
+ *
+ * 執行方式（從 load-test/ 目錄）：
+ *   k6 run scripts/catalog_rps.js --summary-export results/catalog_summary.json
+ *
+ * 環境變數：
+ *   BASE_URL     - 預設 http://localhost
+ *   HOST_HEADER  - 預設 api.localtest.me
+ *   CATALOG_PATH - 預設 /products（含庫存）；/products/catalog 為不含庫存的目錄
+ *   PRODUCT_TYPE - 預設 NORMAL
+ *   VUS          - 併發數，預設 200
+ *   DURATION     - 預設 30s
+ *   CONDITIONAL  - true 時每個 VU 記下 ETag 並帶 If-None-Match（模擬瀏覽器重新驗證），預設 false
+ *
+ * 看 summary 的 http_reqs rate（req/s）與 http_req_duration p95 / p99；
+ * CONDITIONAL=true 時 catalog_not_modified 為 304 的比例
+ */
+
+const BASE_URL     = __ENV.BASE_URL     || "http://localhost";
+const HOST_HEADER  = __ENV.HOST_HEADER  || "api.localtest.me";
+const CATALOG_PATH = __ENV.CATALOG_PATH || "/products";
+const PRODUCT_TYPE = __ENV.PRODUCT_TYPE || "NORMAL";
+const CONDITIONAL  = (__ENV.CONDITIONAL || "false") === "true";
+
+const notModified = new Rate("catalog_not_modified");
+
+export const options = {
+    vus: Number(__ENV.VUS || "200"),
+    duration: __ENV.DURATION || "30s",
+    thresholds: {
+        http_req_failed: ["rate<0.01"],
+    },
+    summaryTrendStats: ["avg", "min", "med", "max", "p(90)", "p(95)", "p(99)"],
+};
+
+// 每個 VU 各自的 ETag（VU 之間不共用，與瀏覽器行為一致）
+let etag = null;
+
+export default function () {
+    const headers = { Host: HOST_HEADER };
+    if (CONDITIONAL && etag) headers["If-None-Match"] = etag;
+
+    const res = http.get(`${BASE_URL}${CATALOG_PATH}?type=${PRODUCT_TYPE}`, {
+        headers,
+        timeout: "10s",
+        responseCallback: http.expectedStatuses(200, 304),
+    });
+
+    check(res, { "status is 200 or 304": (r) => r.status === 200 || r.status === 304 });
+    notModified.add(res.status === 304);
+    if (res.headers["Etag"]) etag = res.headers["Etag"];
+}
@@ -0,0 +1,39 @@
+import http from "k6/http";
+import { check } from "k6";
+
+/**
+ * 搶購單張扣庫存的競爭壓測（直接打 product-service internal API，不經 gateway）
+ *
+ * 執行方式（從 load-test/ 目錄）：
+ *   kubectl port-forward -n ecommerce svc/product-service 8082:8080
+ *   k6 run scripts/reserve_contention.js --summary-export results/reserve_summary.json
+ *
+ * 環境變數：
+ *   PRODUCT_URL - 預設 http://localhost:8082
+ *   PRODUCT_ID  - 預設 1（須為 FLASH_SALE，庫存需大於壓測期間的請求數）
+ *   VUS         - 併發數，預設 500
+ *   DURATION    - 預設 30s
+ *
+ * 看 summary 的 http_reqs rate（req/s）與 http_req_duration p99
+ */
+
+const PRODUCT_URL = __ENV.PRODUCT_URL || "http://localhost:8082";
+const PRODUCT_ID  = Number(__ENV.PRODUCT_ID || "1");
+
+export const options = {
+    vus: Number(__ENV.VUS || "500"),
+    duration: __ENV.DURATION || "30s",
+    thresholds: {
+        http_req_failed: ["rate<0.01"],
+    },
+    summaryTrendStats: ["avg", "min", "med", "max", "p(90)", "p(95)", "p(99)"],
+};
+
+export default function () {
+    const res = http.post(
+        `${PRODUCT_URL}/internal/products/${PRODUCT_ID}/reserve-flash-sale`,
+        JSON.stringify({ amount: 1 }),
+        { headers: { "Content-Type": "application/json" }, timeout: "10s" }
+    );
+    check(res, { "reserve succeeded": (r) => r.status === 200 && r.json("success") === true });
+}
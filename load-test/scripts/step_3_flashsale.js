@@ -1,6 +1,7 @@
 import http from "k6/http";
 import { check, sleep } from "k6";
 import exec from "k6/execution";
+import { Trend } from "k6/metrics";
 
 /**
  * Step 3：搶購壓力測試（join queue + poll ticket）
@@ -16,6 +17,11 @@ import exec from "k6/execution";
  *   USER_COUNT       - 預設 100（須與 step_2 保持一致）
  *   POLL_MAX_SECONDS - 最長輪詢秒數，預設 20
  *   POLL_INTERVAL_MS - 輪詢間隔毫秒，預設 500
+ *   MAX_DURATION     - 情境最長執行時間，預設 60s（1k / 10k 得標者壓測時需調大）
+ *
+ * 自訂指標：
+ *   flashsale_join_duration - 只計 join 請求的延遲（開賣瞬間使用者實際感受到的等待），
+ *                             與整體 http_req_duration（含輪詢）分開看 p95
  *
  * 前置條件：
  *   必須先執行 step_2_log_in.js，確保 results/tokens.json 已產生。
@@ -34,19 +40,23 @@ const TOKEN_LIST = rawTokens.tokens || [];
 
 const USER_COUNT = Number(__ENV.USER_COUNT || TOKEN_LIST.length || "100");
 
+const joinDuration = new Trend("flashsale_join_duration", true);
+
 export const options = {
     scenarios: {
         flashsale: {
             executor: "per-vu-iterations",
             vus: USER_COUNT,
             iterations: 1,       // 每個 VU 只做一次 join + poll
-            maxDuration: "60s",
+            maxDuration: __ENV.MAX_DURATION || "60s",
             exec: "runFlow",
         },
     },
     thresholds: {
         http_req_failed: ["rate<0.01"],
     },
+    // 加上 p(99)：比較 platform / virtual thread 模式時看尾端延遲
+    summaryTrendStats: ["avg", "min", "med", "max", "p(90)", "p(95)", "p(99)"],
 };
 
 const BASE_URL         = __ENV.BASE_URL         || "http://localhost";
@@ -87,6 +97,8 @@ export function runFlow() {
         gwHeaders({ Authorization: `Bearer ${token}` })
     );
 
+    joinDuration.add(joinRes.timings.duration);
+
     const joinOk = check(joinRes, {
         "join status is 200": (r) => r.status === 200,
     });
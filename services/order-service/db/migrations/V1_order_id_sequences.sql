@@ -0,0 +1,9 @@
+-- 訂單主檔 / 明細改用 pooled sequence 產生 id（allocationSize = 50），讓 Hibernate 可以 JDBC 批次 INSERT
+-- 既有資料是 IDENTITY 產生的 id：sequence 起點需大於目前最大 id，避免撞號
+-- （Hibernate pooled optimizer 以 nextval 為區間上限，往回分配 50 個，因此 setval 到 max(id) + 50）
+
+CREATE SEQUENCE IF NOT EXISTS order_header_seq INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS order_item_seq INCREMENT BY 50;
+
+SELECT setval('order_header_seq', COALESCE((SELECT MAX(id) FROM order_header), 0) + 50);
+SELECT setval('order_item_seq', COALESCE((SELECT MAX(id) FROM order_item), 0) + 50);
@@ -0,0 +1,12 @@
+-- 我的訂單改為 keyset 分頁：WHERE user_id = ? AND (created_at, id) < cursor ORDER BY created_at DESC, id DESC
+-- 複合索引讓每一頁都是索引範圍掃描 + LIMIT，舊的單欄 user_id 索引被取代
+-- （ddl-auto: update 只會新增索引，不會刪除舊索引，因此既有資料庫執行這份腳本）
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_order_user_created_id
+    ON order_header (user_id, created_at DESC, id DESC);
+
+-- 一頁訂單的明細以 order_id IN (...) 一次查回
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_order_item_order_id
+    ON order_item (order_id);
+
+DROP INDEX CONCURRENTLY IF EXISTS idx_order_user_id;
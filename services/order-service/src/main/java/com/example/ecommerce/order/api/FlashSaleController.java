@@ -2,15 +2,19 @@ package com.example.ecommerce.order.api;
 
 import com.example.ecommerce.order.api.dto.FlashSaleDtos;
 import com.example.ecommerce.order.flashsale.FlashSaleService;
+import com.example.ecommerce.order.flashsale.FlashSaleTicketStreamService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 /**
  * 搶購排隊 API
  * - join：加入 queue，取得 ticketId
  * - status：輪詢 + 心跳（刷新 TTL）
+ * - stream：SSE 推播狀態轉換，連線存在即視為心跳（取代輪詢）
  */
 @RestController
 @RequestMapping("/flashsale")
@@ -19,9 +23,12 @@ public class FlashSaleController {
     private static final Logger log = LoggerFactory.getLogger(FlashSaleController.class);
 
     private final FlashSaleService flashSaleService;
+    private final FlashSaleTicketStreamService ticketStreamService;
 
-    public FlashSaleController(FlashSaleService flashSaleService) {
+    public FlashSaleController(FlashSaleService flashSaleService,
+                               FlashSaleTicketStreamService ticketStreamService) {
         this.flashSaleService = flashSaleService;
+        this.ticketStreamService = ticketStreamService;
     }
 
     @PostMapping("/products/{productId}/join")
@@ -35,9 +42,15 @@ public class FlashSaleController {
 
     @GetMapping("/tickets/{ticketId}")
     public FlashSaleDtos.TicketStatusResponse status(@PathVariable("ticketId") String ticketId) {
-        log.info("[flashsale.status] 查詢票券狀態 ticketId={}", ticketId);
+        // 輪詢量大，逐次 log 降為 debug
         FlashSaleDtos.TicketStatusResponse resp = flashSaleService.getTicketStatus(ticketId);
-        log.info("[flashsale.status] 票券狀態 ticketId={}, status={}", ticketId, resp.status());
+        log.debug("[flashsale.status] 票券狀態 ticketId={}, status={}", ticketId, resp.status());
         return resp;
     }
+
+    @GetMapping(value = "/tickets/{ticketId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@PathVariable("ticketId") String ticketId) {
+        log.info("[flashsale.stream] 訂閱票券狀態 ticketId={}", ticketId);
+        return ticketStreamService.subscribe(ticketId);
+    }
 }
\ No newline at end of file
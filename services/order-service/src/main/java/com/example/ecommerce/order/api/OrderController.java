@@ -5,17 +5,20 @@ import com.example.ecommerce.order.service.OrderService;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.List;
 
 /**
  * 訂單 API：
  * - POST /orders：建立訂單
- * - GET /orders：查詢我的訂單
+ * - GET /orders：查詢我的訂單（keyset 分頁：?size=&cursor=，下一頁 cursor 放在 X-Next-Cursor header）
+ *   回應帶 ETag；If-None-Match 相同時回 304（瀏覽器以 Cache-Control: no-cache 每次重新驗證）
  *
  * 使用者身份從 Gateway header 轉成 Authentication
  * - authentication.getName() 會是 userId（字串）
@@ -26,6 +29,9 @@ public class OrderController {
 
     private static final Logger log = LoggerFactory.getLogger(OrderController.class);
 
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final int MAX_PAGE_SIZE = 100;
+
     private final OrderService service;
 
     public OrderController(OrderService service) {
@@ -50,8 +56,34 @@ public class OrderController {
     }
 
     @GetMapping
-    public ResponseEntity<List<OrderDtos.OrderResponse>> myOrders(Authentication authentication) {
+    public ResponseEntity<List<OrderDtos.OrderResponse>> myOrders(Authentication authentication,
+                                                                  @RequestParam(name = "size", defaultValue = "20") int size,
+                                                                  @RequestParam(name = "cursor", required = false) String cursor,
+                                                                  WebRequest webRequest) {
         Long userId = Long.valueOf(authentication.getName());
-        return ResponseEntity.ok(service.listMyOrders(userId));
+        int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+
+        OrderDtos.OrderHistoryPage page;
+        try {
+            page = service.listMyOrders(userId, pageSize, cursor);
+        } catch (IllegalArgumentException e) {
+            log.warn("[orders.list] cursor 不合法 userId={}, cursor={}", userId, cursor);
+            return ResponseEntity.badRequest().build();
+        }
+
+        if (page.etag() != null && webRequest.checkNotModified(page.etag())) {
+            // 已寫入 304 與 ETag；內容未變，不回 body
+            return null;
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache().cachePrivate());
+        if (page.etag() != null) {
+            response.eTag(page.etag());
+        }
+        if (page.nextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.nextCursor());
+        }
+        return response.body(page.orders());
     }
 }
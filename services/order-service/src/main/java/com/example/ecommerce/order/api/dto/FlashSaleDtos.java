@@ -2,13 +2,28 @@ package com.example.ecommerce.order.api.dto;
 
 public class FlashSaleDtos {
 
-    public record JoinResponse(String ticketId, Long enqueueSeq) {}
+    public record JoinResponse(
+            String ticketId,
+            Long enqueueSeq,   // SOLD_OUT（庫存閘門已歸零）時為 null
+            String status      // QUEUED / SOLD_OUT
+    ) {}
+
+    /**
+     * 庫存閘門狀態（internal arm / disarm 回傳）
+     */
+    public record StockGateResponse(
+            Long productId,
+            boolean armed,
+            Long gateStock,    // Redis 閘門目前剩餘名額
+            Long productStock  // product-service 的 DB 庫存
+    ) {}
 
     public record TicketStatusResponse(
             String ticketId,
             Long productId,
             String status,     // QUEUED / PROCESSING / SUCCESS / SOLD_OUT / EXPIRED
-            Integer position,  // 排隊位置（QUEUED 才有）
+            Integer position,  // 排隊位置（QUEUED 才有）= enqueueSeq - 已出隊張數
+            Long etaSeconds,   // 預估等待秒數（QUEUED 且已有出隊速率時才有）
             Long orderId,       // SUCCESS 才有
             Long enqueueSeq,
             Long successSeq
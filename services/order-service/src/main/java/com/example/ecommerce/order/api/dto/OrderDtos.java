@@ -1,6 +1,7 @@
 package com.example.ecommerce.order.api.dto;
 
 import java.math.BigDecimal;
+import java.time.Instant;
 import java.util.List;
 
 /**
@@ -30,6 +31,26 @@ public class OrderDtos {
             List<OrderItemResponse> items
     ) {}
 
+    /**
+     * 我的訂單一頁；nextCursor 為 null 代表沒有更舊的訂單（Controller 以 X-Next-Cursor header 回傳）
+     * etag：orders + nextCursor 內容的雜湊，內容不變就相同（304 用）
+     */
+    public record OrderHistoryPage(List<OrderResponse> orders, String nextCursor, String etag) {}
+
+    /**
+     * orders:events 的 payload（outbox 寫入，relay 發佈）
+     */
+    public record OrderCreatedEvent(
+            Long orderId,
+            Long userId,
+            BigDecimal totalAmount,
+            String status,
+            List<OrderItemResponse> items,
+            Instant createdAt
+    ) {
+        public static final String TYPE = "ORDER_CREATED";
+    }
+
     public record CreateOrderResult(boolean success, String message, OrderResponse order) {}
 
     /**
@@ -4,6 +4,7 @@ import org.springframework.cloud.openfeign.FeignClient;
 import org.springframework.web.bind.annotation.*;
 
 import java.math.BigDecimal;
+import java.util.List;
 
 /**
  * 呼叫 product-service 的 internal API
@@ -14,17 +15,43 @@ public interface ProductClient {
 
     record ReserveRequest(Integer amount) {}
     record ReserveResponse(boolean success, String message) {}
+    record ReleaseRequest(Integer amount) {}
+    record ReleaseResponse(boolean success, String message) {}
+    record StockItem(Long productId, Integer quantity) {}
+    record StockItemsRequest(List<StockItem> items) {}
+    record BatchReserveRequest(Integer count) {}
+    record BatchReserveResponse(int requested, int granted, String message) {}
     record ProductInfo(Long id, String name, BigDecimal price, Integer stock, String productType) {}
 
     // 一般商品扣庫存
     @PostMapping("/internal/products/{id}/reserve")
     ReserveResponse reserve(@PathVariable("id") long id, @RequestBody ReserveRequest req);
 
+    // 一般商品整張購物車扣庫存：一句多列條件式 UPDATE，全有或全無
+    @PostMapping("/internal/products/reserve-items")
+    ReserveResponse reserveItems(@RequestBody StockItemsRequest req);
+
+    // 整張購物車歸還庫存（寫訂單失敗時的補償）
+    @PostMapping("/internal/products/release-items")
+    ReleaseResponse releaseItems(@RequestBody StockItemsRequest req);
+
+    // 歸還庫存：扣庫存成功但寫訂單失敗時的補償
+    @PostMapping("/internal/products/{id}/release")
+    ReleaseResponse release(@PathVariable("id") long id, @RequestBody ReleaseRequest req);
+
     // 商品資訊
     @GetMapping("/internal/products/{id}")
     ProductInfo getProductInfo(@PathVariable("id") long id);
 
+    // 批次商品資訊：一次往返取回整張購物車（不存在的 id 不會出現在結果中）
+    @GetMapping("/internal/products")
+    List<ProductInfo> getProductInfos(@RequestParam("ids") List<Long> ids);
+
     // 搶購商品扣庫存
     @PostMapping("/internal/products/{id}/reserve-flash-sale")
     ReserveResponse reserveFlashSale(@PathVariable("id") long id, @RequestBody ReserveRequest req);
+
+    // 搶購商品批次扣庫存：一次授予最多 count 個名額（worker 一批票一次呼叫）
+    @PostMapping("/internal/products/{id}/reserve-flash-sale-batch")
+    BatchReserveResponse reserveFlashSaleBatch(@PathVariable("id") long id, @RequestBody BatchReserveRequest req);
 }
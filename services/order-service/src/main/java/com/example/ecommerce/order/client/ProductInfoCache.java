@@ -0,0 +1,144 @@
+package com.example.ecommerce.order.client;
+
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * product-service 商品資訊的本地快取（name / price / productType）：
+ * - 有上限（maximumSize）、寫入後過期（expireAfterWrite），並在 refreshAfterWrite 後背景預先重載，熱門商品不會卡在同步呼叫
+ * - product-service 新增 / 修改 / 補貨 commit 後發佈 product:changed，各 pod 收到即失效該筆
+ * - 快取值不帶 stock：庫存一律以 product-service 即時查詢 / 原子扣減為準
+ * - 類型判斷用 requireType：快取類型與預期不符時先失效並直接重查一次，不會因舊類型誤拒；
+ *   反方向（快取說符合但 DB 已改）由 product-service 扣庫存的 SQL 以 product_type 條件把關
+ * - 多筆查詢（getAll / requireTypes）的未命中部分以一次批次 API（GET /internal/products?ids=）補齊
+ * - 命中 / 未命中 / 淘汰數透過 Micrometer 暴露（cache.gets、cache.evictions，cache=productInfo）
+ */
+@Component
+public class ProductInfoCache implements MessageListener {
+
+    public static final String PRODUCT_CHANGED_CHANNEL = "product:changed";
+
+    private static final Logger log = LoggerFactory.getLogger(ProductInfoCache.class);
+
+    private final ProductClient productClient;
+    private final LoadingCache<Long, ProductClient.ProductInfo> cache;
+
+    public ProductInfoCache(
+            ProductClient productClient,
+            MeterRegistry meterRegistry,
+            RedisMessageListenerContainer listenerContainer,
+            @Value("${product-cache.maximum-size:1000}") long maximumSize,
+            @Value("${product-cache.expire-after-write-seconds:300}") long expireAfterWriteSeconds,
+            @Value("${product-cache.refresh-after-write-seconds:30}") long refreshAfterWriteSeconds
+    ) {
+        this.productClient = productClient;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofSeconds(expireAfterWriteSeconds))
+                .refreshAfterWrite(Duration.ofSeconds(refreshAfterWriteSeconds))
+                .recordStats()
+                .build(new ProductInfoLoader());
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "productInfo");
+        listenerContainer.addMessageListener(this, new ChannelTopic(PRODUCT_CHANGED_CHANNEL));
+    }
+
+    public ProductClient.ProductInfo get(long productId) {
+        return cache.get(productId);
+    }
+
+    /**
+     * 取得商品資訊並確認類型；快取中的類型不符時，失效後重查 product-service 再判斷一次
+     * @return 最新的商品資訊（呼叫端自行依 productType 決定是否拒絕）
+     */
+    public ProductClient.ProductInfo requireType(long productId, String expectedType) {
+        ProductClient.ProductInfo product = cache.get(productId);
+        if (expectedType.equals(product.productType())) return product;
+
+        log.info("[product-cache] 快取類型與預期不符，重新查詢 productId={}, cachedType={}, expected={}",
+                productId, product.productType(), expectedType);
+        cache.invalidate(productId);
+        return cache.get(productId);
+    }
+
+    /**
+     * 多筆版 requireType：未命中的一次批次查詢；類型不符的失效後再批次重查一次
+     * @return productId → 最新商品資訊；不存在的商品不會出現在結果中
+     */
+    public Map<Long, ProductClient.ProductInfo> requireTypes(Set<Long> productIds, String expectedType) {
+        Map<Long, ProductClient.ProductInfo> products = new HashMap<>(cache.getAll(productIds));
+
+        List<Long> mismatched = new ArrayList<>();
+        products.forEach((id, product) -> {
+            if (!expectedType.equals(product.productType())) mismatched.add(id);
+        });
+        if (mismatched.isEmpty()) return products;
+
+        log.info("[product-cache] 快取類型與預期不符，重新查詢 productIds={}, expected={}", mismatched, expectedType);
+        cache.invalidateAll(mismatched);
+        products.putAll(cache.getAll(mismatched));
+        return products;
+    }
+
+    public void invalidate(long productId) {
+        cache.invalidate(productId);
+    }
+
+    /**
+     * product:changed（訊息內容為 productId）
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            long productId = Long.parseLong(body.trim());
+            cache.invalidate(productId);
+            log.info("[product-cache] 收到商品異動，已失效 productId={}", productId);
+        } catch (NumberFormatException e) {
+            log.warn("[product-cache] 無法解析商品異動事件 body={}", body);
+        }
+    }
+
+    private static ProductClient.ProductInfo withoutStock(ProductClient.ProductInfo info) {
+        return new ProductClient.ProductInfo(info.id(), info.name(), info.price(), null, info.productType());
+    }
+
+    private class ProductInfoLoader implements CacheLoader<Long, ProductClient.ProductInfo> {
+
+        @Override
+        public ProductClient.ProductInfo load(Long productId) {
+            return withoutStock(productClient.getProductInfo(productId));
+        }
+
+        /**
+         * getAll 的未命中 id 一次查回；不存在的 id 不放進結果（Caffeine 不快取缺漏的 key）
+         */
+        @Override
+        public Map<Long, ProductClient.ProductInfo> loadAll(Set<? extends Long> productIds) {
+            Map<Long, ProductClient.ProductInfo> loaded = new HashMap<>();
+            for (ProductClient.ProductInfo info : productClient.getProductInfos(List.copyOf(productIds))) {
+                loaded.put(info.id(), withoutStock(info));
+            }
+            return loaded;
+        }
+    }
+}
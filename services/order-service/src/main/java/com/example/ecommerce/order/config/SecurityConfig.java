@@ -1,5 +1,6 @@
 package com.example.ecommerce.order.config;
 
+import jakarta.servlet.DispatcherType;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -11,6 +12,7 @@ import org.springframework.security.web.SecurityFilterChain;
 /**
  * order-service 安全策略：
  * - /orders/** 需要登入（由 Gateway 解析 JWT 後轉 header）
+ * - SSE 完成時的 ASYNC dispatch 不帶 header，直接放行（原始請求已驗證過）
  */
 @Configuration
 public class SecurityConfig {
@@ -21,6 +23,7 @@ public class SecurityConfig {
                 .csrf(csrf -> csrf.disable())
                 .sessionManagement(sm -> sm.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
                 .authorizeHttpRequests(auth -> auth
+                        .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                         .requestMatchers("/actuator/**").permitAll()
                         .requestMatchers("/internal/flashsale/**").permitAll()
                         .requestMatchers("/orders/**").authenticated()
@@ -0,0 +1,81 @@
+package com.example.ecommerce.order.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * virtual thread pinning 監控（只在 virtual thread 模式啟用）：
+ * - 以 JFR 串流訂閱 jdk.VirtualThreadPinned（在 synchronized / native frame 內阻塞超過門檻）
+ * - 次數記到 jvm.threads.virtual.pinned，並以節流的 warn log 印出最上層幾個 frame，方便找出要改成 ReentrantLock 的地方
+ */
+@Component
+public class VirtualThreadPinningMonitor {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadPinningMonitor.class);
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final long LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int LOG_FRAMES = 5;
+
+    private final Counter pinnedCounter;
+    private final AtomicLong lastLogNanos = new AtomicLong(System.nanoTime() - LOG_INTERVAL_NANOS);
+    private RecordingStream stream;
+
+    public VirtualThreadPinningMonitor(
+            MeterRegistry meterRegistry,
+            Environment environment,
+            @Value("${threads.pinning-monitor.threshold-ms:20}") long thresholdMs
+    ) {
+        this.pinnedCounter = Counter.builder("jvm.threads.virtual.pinned")
+                .description("Virtual threads blocked while pinned to their carrier thread")
+                .register(meterRegistry);
+
+        if (!Threading.VIRTUAL.isActive(environment)) return;
+
+        stream = new RecordingStream();
+        stream.enable(PINNED_EVENT).withThreshold(Duration.ofMillis(thresholdMs)).withStackTrace();
+        stream.onEvent(PINNED_EVENT, this::onPinned);
+        stream.startAsync();
+        log.info("[threads.pinning] 已啟用 virtual thread pinning 監控 thresholdMs={}", thresholdMs);
+    }
+
+    private void onPinned(RecordedEvent event) {
+        pinnedCounter.increment();
+
+        long now = System.nanoTime();
+        long last = lastLogNanos.get();
+        if (now - last < LOG_INTERVAL_NANOS || !lastLogNanos.compareAndSet(last, now)) return;
+
+        StringBuilder frames = new StringBuilder();
+        if (event.getStackTrace() != null) {
+            List<RecordedFrame> top = event.getStackTrace().getFrames();
+            for (int i = 0; i < Math.min(LOG_FRAMES, top.size()); i++) {
+                RecordedFrame frame = top.get(i);
+                frames.append("\n    at ").append(frame.getMethod().getType().getName())
+                        .append('.').append(frame.getMethod().getName())
+                        .append(':').append(frame.getLineNumber());
+            }
+        }
+        log.warn("[threads.pinning] virtual thread pinned durationMs={}{}", event.getDuration().toMillis(), frames);
+    }
+
+    @PreDestroy
+    public void close() {
+        if (stream != null) stream.close();
+    }
+}
@@ -10,15 +10,18 @@ import java.util.List;
 /**
  * 訂單主檔：
  * - totalAmount 使用 BigDecimal（價格精準）
+ * - id 使用 pooled sequence（一次取 50 個），Hibernate 才能 JDBC 批次 INSERT（IDENTITY 會關閉批次）
  */
 @Entity
 @Table(name = "order_header", indexes = {
-        @Index(name = "idx_order_user_id", columnList = "userId")
+        // 我的訂單 keyset 分頁：WHERE user_id = ? ORDER BY created_at DESC, id DESC
+        @Index(name = "idx_order_user_created_id", columnList = "userId, createdAt DESC, id DESC")
 })
 public class OrderEntity {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "order_header_seq")
+    @SequenceGenerator(name = "order_header_seq", sequenceName = "order_header_seq", allocationSize = 50)
     private Long id;
 
     @Column(nullable=false)
@@ -7,15 +7,18 @@ import java.math.BigDecimal;
 /**
  * 訂單明細：
  * - unitPrice / lineAmount 使用 BigDecimal
+ * - id 與訂單主檔相同使用 pooled sequence，才能批次 INSERT
  */
 @Entity
 @Table(name = "order_item", indexes = {
-        @Index(name = "idx_order_item_product_id", columnList = "productId")
+        @Index(name = "idx_order_item_product_id", columnList = "productId"),
+        @Index(name = "idx_order_item_order_id", columnList = "order_id")   // 一頁訂單的明細以 order_id IN (...) 批次查詢
 })
 public class OrderItemEntity {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "order_item_seq")
+    @SequenceGenerator(name = "order_item_seq", sequenceName = "order_item_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -0,0 +1,64 @@
+package com.example.ecommerce.order.domain;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+
+/**
+ * 訂單事件 outbox：與訂單在同一個交易寫入，由 OrderOutboxRelay 批次發佈到 Redis Stream 後刪除
+ * - id 使用 pooled sequence（與訂單相同），整批搶購訂單的事件也能 JDBC 批次 INSERT
+ * - eventSeq 由 DB 在 INSERT 時以 bigserial 給號（跨 pod 單調遞增），relay 依 eventSeq 發佈；
+ *   bigserial 是 INSERT 時給號、不是 commit 時，不同使用者之間只保證大致順序
+ * - userVersion：同一使用者的事件版本號（1, 2, 3...，見 OrderUserEventVersionRepository），
+ *   consumer 以 (userId, userVersion) 排序與偵測缺號
+ */
+@Entity
+@Table(name = "order_outbox", indexes = {
+        @Index(name = "idx_order_outbox_event_seq", columnList = "eventSeq")
+})
+public class OrderOutboxEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "order_outbox_seq")
+    @SequenceGenerator(name = "order_outbox_seq", sequenceName = "order_outbox_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(insertable = false, updatable = false, columnDefinition = "bigserial")
+    private Long eventSeq;
+
+    @Column(nullable = false, length = 40)
+    private String eventType; // ORDER_CREATED
+
+    @Column(nullable = false)
+    private Long orderId;
+
+    @Column(nullable = false)
+    private Long userId;
+
+    private Long userVersion; // 舊資料列沒有值（ddl-auto 新增欄位時不能是 NOT NULL）
+
+    @Column(nullable = false, columnDefinition = "text")
+    private String payload; // JSON
+
+    @Column(nullable = false)
+    private Instant createdAt = Instant.now();
+
+    public OrderOutboxEntity() {}
+
+    public OrderOutboxEntity(String eventType, Long orderId, Long userId, Long userVersion, String payload) {
+        this.eventType = eventType;
+        this.orderId = orderId;
+        this.userId = userId;
+        this.userVersion = userVersion;
+        this.payload = payload;
+    }
+
+    public Long getId() { return id; }
+    public Long getEventSeq() { return eventSeq; }
+    public String getEventType() { return eventType; }
+    public Long getOrderId() { return orderId; }
+    public Long getUserId() { return userId; }
+    public Long getUserVersion() { return userVersion; }
+    public String getPayload() { return payload; }
+    public Instant getCreatedAt() { return createdAt; }
+}
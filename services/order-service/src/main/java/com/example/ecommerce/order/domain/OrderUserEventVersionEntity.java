@@ -0,0 +1,24 @@
+package com.example.ecommerce.order.domain;
+
+import jakarta.persistence.*;
+
+/**
+ * 每個使用者的訂單事件版本號（outbox 的 userVersion 來源）
+ * - 由 OrderUserEventVersionRepository.allocate 以 upsert 遞增，該列的列鎖讓同一使用者的建單交易依序 commit
+ * - 這裡只負責建表（ddl-auto），應用程式不以 entity 讀寫
+ */
+@Entity
+@Table(name = "order_user_event_version")
+public class OrderUserEventVersionEntity {
+
+    @Id
+    private Long userId;
+
+    @Column(nullable = false)
+    private Long version;
+
+    protected OrderUserEventVersionEntity() {}
+
+    public Long getUserId() { return userId; }
+    public Long getVersion() { return version; }
+}
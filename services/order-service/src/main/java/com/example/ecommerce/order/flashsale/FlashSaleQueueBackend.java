@@ -0,0 +1,16 @@
+package com.example.ecommerce.order.flashsale;
+
+/**
+ * 搶購隊列後端（flashsale.queue.backend）：
+ * LIST：Redis List（RPUSH / LPOP），worker 輪詢出隊
+ * STREAM：Redis Stream + consumer group（XADD / XREADGROUP BLOCK / XACK / XAUTOCLAIM），
+ *         多個 pod 可同時消費同一商品，crash 的 pod 未 ack 的票可被其他 pod 接手
+ */
+public enum FlashSaleQueueBackend {
+    LIST,
+    STREAM;
+
+    public static FlashSaleQueueBackend from(String value) {
+        return "stream".equalsIgnoreCase(value) ? STREAM : LIST;
+    }
+}
@@ -3,78 +3,196 @@ package com.example.ecommerce.order.flashsale;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
-
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 單一商品隊列的「一步」處理：出隊 → 寫入出隊序號 → 處理票券
+ *
+ * 排程與併發由 FlashSaleWorkerEngine 負責（每個商品各自的 drain loop），
+ * 這裡只關心票怎麼被安全地取出與處理。
+ *
+ * LIST 後端：Lua 腳本一次 RTT 取出最多 batch-size 張，無鎖；整批一次呼叫 product-service 批次扣庫存
+ *
+ * STREAM 後端（flashsale.queue.backend=stream）：
+ * - XREADGROUP COUNT batch-size BLOCK block-ms：沒有票時阻塞等待，不再空轉輪詢
+ * - 處理完 XACK + XDEL；定期 XAUTOCLAIM 接手其他 pod crash 後留下的 pending 票
+ *   （接手時仍為 PROCESSING 的票結果未知，由 FlashSaleService 標 ERROR 後 ack）
+ */
 @Component
 public class FlashSaleQueueWorker {
 
     private static final Logger log = LoggerFactory.getLogger(FlashSaleQueueWorker.class);
 
+    public enum Status {
+        PROCESSED,  // 取出了票（含已過期被丟棄的票）
+        EMPTY       // 隊列已空
+    }
+
+    /**
+     * drainOnce 的結果：tickets = 這一步從隊列取出的張數
+     */
+    public record DrainResult(Status status, int tickets) {
+        static final DrainResult EMPTY = new DrainResult(Status.EMPTY, 0);
+
+        static DrainResult processed(int tickets) {
+            return new DrainResult(Status.PROCESSED, tickets);
+        }
+    }
+
     private final FlashSaleRedisRepository redisRepository;
     private final FlashSaleService flashSaleService;
 
-    private final long pollIntervalMs;
+    private final int batchSize;
+    private final Duration processingTtl;
+
+    private final String consumerName;
+    private final Duration streamBlock;
+    private final Duration claimMinIdle;
+    private final long reclaimIntervalMs;
+    private final Set<Long> streamGroupsReady = ConcurrentHashMap.newKeySet();
+    private final Map<Long, Long> lastReclaimAt = new ConcurrentHashMap<>();
 
     public FlashSaleQueueWorker(
             FlashSaleRedisRepository redisRepository,
             FlashSaleService flashSaleService,
-            @Value("${flashsale.worker.poll-interval-ms:30}") long pollIntervalMs
+            @Value("${flashsale.worker.batch-size:20}") int batchSize,
+            @Value("${flashsale.result-ttl-seconds:600}") long resultTtlSeconds,
+            @Value("${HOSTNAME:order-service}") String hostname,
+            @Value("${flashsale.queue.stream.block-ms:1000}") long streamBlockMs,
+            @Value("${flashsale.queue.stream.claim-min-idle-ms:0}") long claimMinIdleMs,
+            @Value("${flashsale.queue.stream.reclaim-interval-ms:5000}") long reclaimIntervalMs
     ) {
         this.redisRepository = redisRepository;
         this.flashSaleService = flashSaleService;
-        this.pollIntervalMs = pollIntervalMs;
+        this.batchSize = Math.max(1, batchSize);
+        // 出隊後用 resultTtl 當處理保護時間
+        this.processingTtl = Duration.ofSeconds(resultTtlSeconds);
+
+        // 同一 pod 重啟後用新的 consumer 名稱，舊名稱留下的 pending 票交給 XAUTOCLAIM 接手
+        this.consumerName = hostname + "-" + UUID.randomUUID().toString().substring(0, 8);
+        this.streamBlock = Duration.ofMillis(Math.max(1, streamBlockMs));
+        this.claimMinIdle = claimMinIdle(claimMinIdleMs, processingTtl);
+        this.reclaimIntervalMs = Math.max(1, reclaimIntervalMs);
+
+        log.info("[worker] 隊列後端 backend={}, batchSize={}, consumer={}, claimMinIdleMs={}",
+                redisRepository.backend(), this.batchSize, consumerName, claimMinIdle.toMillis());
     }
 
-    @Scheduled(fixedDelayString = "${flashsale.worker.poll-interval-ms:30}")
-    public void tick() {
-        long productId = 1L; // demo：先固定處理一個搶購商品
-        processOneProductQueue(productId);
+    /**
+     * pending 票閒置多久才接手：必須大於最慢的一批處理時間（否則還在處理的票會被重複接手），
+     * 也必須小於處理保護 TTL（否則票券 hash 已過期，接手時無法把 PROCESSING 票標成 ERROR）
+     * - 未設定（0）：取處理保護 TTL 的一半
+     * - 有設定：上限為處理保護 TTL 減 1 秒
+     */
+    static Duration claimMinIdle(long configuredMs, Duration processingTtl) {
+        if (configuredMs <= 0) return processingTtl.dividedBy(2);
+
+        Duration ceiling = processingTtl.minusSeconds(1);
+        Duration configured = Duration.ofMillis(configuredMs);
+        if (configured.compareTo(ceiling) > 0) {
+            log.warn("[worker] claim-min-idle-ms={} 不小於處理保護 TTL，改用 {}ms", configuredMs, ceiling.toMillis());
+            return ceiling;
+        }
+        return configured;
     }
 
-    private void processOneProductQueue(long productId) {
-        String lockValue = UUID.randomUUID().toString();
-        boolean locked = redisRepository.tryLock(productId, lockValue, Duration.ofSeconds(2));
-        if (!locked) return;
-
-        String ticketId = null;
-        long dequeueSeq = 0L;
+    public DrainResult drainOnce(long productId) {
+        if (redisRepository.backend() == FlashSaleQueueBackend.STREAM) return drainStream(productId);
+        return drainBatch(productId);
+    }
 
-        try {
-            ticketId = redisRepository.popQueueHead(productId);
-            if (ticketId == null) return;
+    private DrainResult drainStream(long productId) {
+        if (streamGroupsReady.add(productId)) {
+            redisRepository.ensureConsumerGroup(productId);
+        }
 
-            log.info("[worker] 取出票券 productId={}, ticketId={}", productId, ticketId);
+        List<FlashSaleRedisRepository.StreamTicket> entries = reclaimIfDue(productId);
+        boolean reclaimed = !entries.isEmpty();
+        if (!reclaimed) {
+            try {
+                entries = redisRepository.readStream(productId, consumerName, batchSize, streamBlock);
+            } catch (RuntimeException e) {
+                // 例如 stream 被手動刪除導致 NOGROUP：下次重新建立 group
+                streamGroupsReady.remove(productId);
+                throw e;
+            }
+        }
+        if (entries.isEmpty()) return DrainResult.EMPTY;
+
+        List<String> ticketIds = entries.stream()
+                .map(FlashSaleRedisRepository.StreamTicket::ticketId)
+                .filter(Objects::nonNull)
+                .toList();
+        List<FlashSaleRedisRepository.DequeuedTicket> live =
+                redisRepository.claimForProcessing(productId, ticketIds, reclaimed ? 0 : entries.size(), processingTtl);
+
+        // 已過期/資料異常的票直接 ack；存活的票整批處理完再 ack，處理中途例外則留在 pending 等待接手
+        Map<String, String> entryIdByTicket = new HashMap<>();
+        List<String> skipped = new ArrayList<>();
+        Set<String> liveIds = new HashSet<>();
+        live.forEach(t -> liveIds.add(t.ticketId()));
+        for (FlashSaleRedisRepository.StreamTicket entry : entries) {
+            if (entry.ticketId() != null && liveIds.contains(entry.ticketId())) {
+                entryIdByTicket.put(entry.ticketId(), entry.entryId());
+            } else {
+                skipped.add(entry.entryId());
+            }
+        }
+        if (!skipped.isEmpty()) {
+            log.warn("[worker] stream 略過已過期票券 productId={}, expired={}", productId, skipped.size());
+            redisRepository.ackStream(productId, skipped);
+        }
 
-            // 這張票拿到「出隊順序」：用來做 FIFO 證據
-            dequeueSeq = redisRepository.nextDequeueSeq(productId);
+        if (!live.isEmpty()) {
+            log.info("[worker] 開始處理批次 productId={}, tickets={}, firstDequeueSeq={}", productId, live.size(), live.get(0).dequeueSeq());
+            flashSaleService.processBatch(productId,
+                    live.stream().map(FlashSaleRedisRepository.DequeuedTicket::ticketId).toList(), reclaimed);
+            redisRepository.ackStream(productId, live.stream().map(t -> entryIdByTicket.get(t.ticketId())).toList());
+        }
+        return DrainResult.processed(entries.size());
+    }
 
-            // 如果 ticket 已不存在（離線/TTL到）：
-            // - 既然已出隊，就直接丟棄即可（這張不算成功）
-            if (!redisRepository.ticketExists(ticketId)) {
-                log.warn("[worker] 票券已過期（離線/TTL到），略過 ticketId={}", ticketId);
-                return;
-            }
+    private List<FlashSaleRedisRepository.StreamTicket> reclaimIfDue(long productId) {
+        long now = System.currentTimeMillis();
+        Long last = lastReclaimAt.get(productId);
+        if (last != null && now - last < reclaimIntervalMs) return List.of();
+        lastReclaimAt.put(productId, now);
 
-            // 先把 ticket TTL 延長，避免處理中途過期導致 hash 欄位丟失
-            //（用 resultTtl 或你想要的保留時間，這裡交給 service 決定更好）
-            flashSaleService.extendTicketForProcessing(ticketId);
+        List<FlashSaleRedisRepository.StreamTicket> claimed =
+                redisRepository.autoClaim(productId, consumerName, claimMinIdle, batchSize);
+        if (!claimed.isEmpty()) {
+            log.warn("[worker] 接手閒置 pending 票券 productId={}, count={}", productId, claimed.size());
+        }
+        return claimed;
+    }
 
-            // 先寫入 successSeq（其實是 dequeue seq）
-            // 這樣 winners 以 successSeq 排時，順序會反映 FIFO 出隊順序
-            flashSaleService.markDequeued(ticketId, dequeueSeq);
+    private DrainResult drainBatch(long productId) {
+        FlashSaleRedisRepository.PoppedBatch batch = redisRepository.popBatch(productId, batchSize, processingTtl);
+        if (batch.popped() == 0) return DrainResult.EMPTY;
 
-        } finally {
-            redisRepository.unlock(productId, lockValue);
+        int expired = batch.popped() - batch.tickets().size();
+        if (expired > 0) {
+            log.warn("[worker] 批次出隊略過已過期票券 productId={}, expired={}", productId, expired);
         }
 
-        // 鎖外處理：reserve + 建單（慢的事情在鎖外做）
-        if (ticketId != null && redisRepository.ticketExists(ticketId)) {
-            log.info("[worker] 開始處理票券 productId={}, ticketId={}, dequeueSeq={}", productId, ticketId, dequeueSeq);
-            flashSaleService.processTicket(ticketId);
+        // successSeq 已在腳本內寫入（= dequeueSeq）；整批一次扣庫存，名額依出隊順序分配
+        if (!batch.tickets().isEmpty()) {
+            log.info("[worker] 開始處理批次 productId={}, tickets={}, firstDequeueSeq={}",
+                    productId, batch.tickets().size(), batch.tickets().get(0).dequeueSeq());
+            flashSaleService.processBatch(productId,
+                    batch.tickets().stream().map(FlashSaleRedisRepository.DequeuedTicket::ticketId).toList(), false);
         }
+        return DrainResult.processed(batch.popped());
     }
-}
\ No newline at end of file
+}
@@ -1,102 +1,468 @@
 package com.example.ecommerce.order.flashsale;
 
+import com.example.ecommerce.order.api.dto.FlashSaleDtos;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Repository;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
 
 @Repository
 public class FlashSaleRedisRepository {
 
     private final StringRedisTemplate redis;
 
-    // compare-and-del Lua：只有 value 相同才刪除
-    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT = new DefaultRedisScript<>(
+    /**
+     * 原子 join 腳本：一次 RTT 完成整個 join，不會有「建了一半的票」被 worker / 狀態查詢看到。
+     * - 使用者已有 active 票：刷新 active TTL，回傳既有 ticketId、enqueueSeq 與票券目前的 status（例如 PROCESSING）
+     * - active marker 還在但票券 hash 已過期：刪除殘留的 marker，當作沒有 active 票重新 join
+     * - 商品已 arm 且庫存閘門歸零：建立 SOLD_OUT 票（保留 result TTL 供查詢），不入隊
+     * - 其餘：閘門 DECR → INCR enqueueSeq → 建立 ticket hash（含 enqueueSeq）+ TTL → active marker
+     *   → RPUSH/XADD → SADD(active products)
+     * 保證 enqueueSeq 的遞增順序嚴格等同於隊列的插入順序；worker engine 依 active products 發現需要排空的隊列。
+     * KEYS[1] = active key, KEYS[2] = enqueue-seq key, KEYS[3] = queue key,
+     * KEYS[4] = active products key, KEYS[5] = stock gate key
+     * ARGV[1] = 新 ticketId, ARGV[2] = ticket key 前綴, ARGV[3] = userId, ARGV[4] = productId,
+     * ARGV[5] = createdAt, ARGV[6] = ticket TTL（秒）, ARGV[7] = result TTL（秒）, ARGV[8] = backend（list / stream）
+     * 回傳：{ ticketId, enqueueSeq（SOLD_OUT 為 nil）, status, 是否為既有票（1/0） }
+     */
+    private static final DefaultRedisScript<List> JOIN_SCRIPT = new DefaultRedisScript<>(
+            """
+            local existing = redis.call('GET', KEYS[1])
+            if existing then
+              local current = redis.call('HMGET', ARGV[2] .. existing, 'status', 'enqueueSeq')
+              if current[1] then
+                redis.call('EXPIRE', KEYS[1], ARGV[6])
+                return { existing, current[2] and tonumber(current[2]) or false, current[1], 1 }
+              end
+              redis.call('DEL', KEYS[1])
+            end
+
+            local ticketKey = ARGV[2] .. ARGV[1]
+            local gate = redis.call('GET', KEYS[5])
+            if gate and tonumber(gate) <= 0 then
+              redis.call('HSET', ticketKey, 'ticketId', ARGV[1], 'userId', ARGV[3], 'productId', ARGV[4],
+                'status', 'SOLD_OUT', 'createdAt', ARGV[5])
+              redis.call('EXPIRE', ticketKey, ARGV[7])
+              return { ARGV[1], false, 'SOLD_OUT', 0 }
+            end
+            if gate then
+              redis.call('DECR', KEYS[5])
+            end
+
+            local seq = redis.call('INCR', KEYS[2])
+            redis.call('HSET', ticketKey, 'ticketId', ARGV[1], 'userId', ARGV[3], 'productId', ARGV[4],
+              'status', 'QUEUED', 'createdAt', ARGV[5], 'enqueueSeq', seq)
+            redis.call('EXPIRE', ticketKey, ARGV[6])
+            redis.call('SET', KEYS[1], ARGV[1], 'EX', ARGV[6])
+            if ARGV[8] == 'stream' then
+              redis.call('XADD', KEYS[3], '*', 'ticketId', ARGV[1])
+            else
+              redis.call('RPUSH', KEYS[3], ARGV[1])
+            end
+            redis.call('SADD', KEYS[4], ARGV[4])
+            return { ARGV[1], seq, 'QUEUED', 0 }
+            """,
+            List.class
+    );
+
+    /**
+     * 狀態查詢 + 心跳腳本：一次執行完成 讀票券欄位 → 刷新 ticket / active TTL → 計算位置與 ETA。
+     * - 只有 QUEUED 才刷新 TTL：處理中的票已延長為處理保護時間，終態票保留 result TTL，不能被縮短；
+     *   active marker 只 EXPIRE 不重建，處理完成後被刪除的 marker 不會因為輪詢又擋住重新 join
+     * - 隊頭計數、出隊速率與 active key 由 productId / userId 組出（非 KEYS 宣告，僅適用單一 master 部署）
+     * - 數字欄位在腳本內 tonumber，回傳 integer reply，Java 端不需再字串轉換
+     * KEYS[1] = ticket key
+     * ARGV[1] = 心跳 TTL（秒，0 = 不刷新）, ARGV[2] = active key 前綴,
+     * ARGV[3] = 隊頭計數 key 前綴, ARGV[4] = 出隊速率 key 前綴
+     * 回傳：票不存在為 nil；否則 { status, productId, enqueueSeq, successSeq, orderId, position, etaSeconds }
+     */
+    private static final DefaultRedisScript<List> STATUS_HEARTBEAT_SCRIPT = new DefaultRedisScript<>(
+            """
+            local f = redis.call('HMGET', KEYS[1], 'status', 'productId', 'userId', 'enqueueSeq', 'successSeq', 'orderId')
+            if not f[1] then return false end
+
+            local position = false
+            local eta = false
+            if f[1] == 'QUEUED' then
+              if ARGV[1] ~= '0' then
+                redis.call('EXPIRE', KEYS[1], ARGV[1])
+                if f[2] and f[3] then
+                  redis.call('EXPIRE', ARGV[2] .. f[2] .. ':' .. f[3], ARGV[1])
+                end
+              end
+              if f[2] and f[4] then
+                local dequeued = tonumber(redis.call('GET', ARGV[3] .. f[2]) or '0')
+                position = math.max(1, tonumber(f[4]) - dequeued)
+                local rate = tonumber(redis.call('GET', ARGV[4] .. f[2]) or '0')
+                if rate > 0 then eta = math.ceil(position / rate) end
+              end
+            end
+            return { f[1], tonumber(f[2]) or false, tonumber(f[4]) or false, tonumber(f[5]) or false,
+                     tonumber(f[6]) or false, position, eta }
+            """,
+            List.class
+    );
+
+    /**
+     * 隊列已排空才把商品移出「進行中搶購」集合（LLEN/XLEN + SREM 同一腳本內完成）。
+     * 入隊腳本在 RPUSH/XADD 後才 SADD，因此不會把剛入隊的商品誤移除。
+     * Stream 的 XLEN 包含尚未 ack 的票，crash pod 留下的 pending 票也會讓商品保持 active。
+     * KEYS[1] = queue key, KEYS[2] = active products key
+     * ARGV[1] = productId, ARGV[2] = backend（list / stream）
+     */
+    private static final DefaultRedisScript<Long> DEACTIVATE_IF_DRAINED_SCRIPT = new DefaultRedisScript<>(
+            """
+            local depth
+            if ARGV[2] == 'stream' then
+              depth = redis.call('XLEN', KEYS[1])
+            else
+              depth = redis.call('LLEN', KEYS[1])
+            end
+            if depth == 0 then
+              return redis.call('SREM', KEYS[2], ARGV[1])
+            end
+            return 0
+            """,
+            Long.class
+    );
+
+    /**
+     * 批次出隊腳本（無鎖）：一次 RTT 取出最多 N 張隊頭票券。
+     * - 已過期（ticket hash 不存在）的票在 server 端直接丟棄，不分配序號，並歸還庫存閘門名額
+     * - 存活的票依序分配連續的 dequeueSeq，並原子寫入 successSeq、延長 TTL（處理保護時間）
+     * Lua 腳本在 Redis 內是序列化執行，多個 drainer / 多個 pod 同時呼叫也不會拿到同一張票，不需要商品鎖。
+     * 同時把 LPOP 張數累加到隊頭計數（flash:dequeued:{id}），狀態查詢以 enqueueSeq - 隊頭計數 算位置。
+     * KEYS[1] = queue key, KEYS[2] = dequeue-seq key, KEYS[3] = stock gate key, KEYS[4] = dequeued key
+     * ARGV[1] = 最多取出幾張, ARGV[2] = ticket key 前綴, ARGV[3] = 處理保護 TTL（秒）
+     * 回傳：{ 實際 LPOP 張數, ticketId1, seq1, ticketId2, seq2, ... }
+     */
+    private static final DefaultRedisScript<List> POP_BATCH_SCRIPT = new DefaultRedisScript<>(
+            """
+            local out = { 0 }
+            local popped = 0
+            for i = 1, tonumber(ARGV[1]) do
+              local ticketId = redis.call('LPOP', KEYS[1])
+              if not ticketId then break end
+              popped = popped + 1
+              local ticketKey = ARGV[2] .. ticketId
+              if redis.call('EXISTS', ticketKey) == 1 then
+                local seq = redis.call('INCR', KEYS[2])
+                redis.call('HSET', ticketKey, 'successSeq', seq)
+                redis.call('EXPIRE', ticketKey, ARGV[3])
+                out[#out + 1] = ticketId
+                out[#out + 1] = seq
+              elseif redis.call('EXISTS', KEYS[3]) == 1 then
+                redis.call('INCR', KEYS[3])
+              end
+            end
+            if popped > 0 then
+              redis.call('INCRBY', KEYS[4], popped)
+            end
+            out[1] = popped
+            return out
+            """,
+            List.class
+    );
+
+    /**
+     * 建立 consumer group（已存在就略過）；MKSTREAM 讓尚未有人 join 的商品也能先建好
+     * 從 0 開始讀，避免 group 建立前就已 XADD 的票被漏掉
+     * KEYS[1] = stream key, ARGV[1] = group
+     */
+    private static final DefaultRedisScript<Long> ENSURE_GROUP_SCRIPT = new DefaultRedisScript<>(
+            """
+            local ok = pcall(redis.call, 'XGROUP', 'CREATE', KEYS[1], ARGV[1], '0', 'MKSTREAM')
+            if ok then return 1 end
+            return 0
+            """,
+            Long.class
+    );
+
+    /**
+     * Stream 讀到的票進入處理前：存活的票分配 dequeueSeq（已有 successSeq 的被接手票沿用原序號），
+     * 寫入 successSeq 並延長 TTL；已過期的票不回傳（歸還庫存閘門名額），由呼叫端直接 ack。
+     * 新讀到（非接手）的張數累加到隊頭計數，接手的 pending 票先前已計入，不重複累加。
+     * KEYS[1] = dequeue-seq key, KEYS[2] = stock gate key, KEYS[3] = dequeued key
+     * ARGV[1] = ticket key 前綴, ARGV[2] = 處理保護 TTL（秒）, ARGV[3] = 新讀到的張數, ARGV[4..] = ticketIds
+     * 回傳：{ ticketId1, seq1, ticketId2, seq2, ... }
+     */
+    private static final DefaultRedisScript<List> CLAIM_FOR_PROCESSING_SCRIPT = new DefaultRedisScript<>(
+            """
+            local out = {}
+            if tonumber(ARGV[3]) > 0 then
+              redis.call('INCRBY', KEYS[3], ARGV[3])
+            end
+            for i = 4, #ARGV do
+              local ticketKey = ARGV[1] .. ARGV[i]
+              if redis.call('EXISTS', ticketKey) == 1 then
+                local seq = redis.call('HGET', ticketKey, 'successSeq')
+                if not seq then
+                  seq = redis.call('INCR', KEYS[1])
+                  redis.call('HSET', ticketKey, 'successSeq', seq)
+                end
+                redis.call('EXPIRE', ticketKey, ARGV[2])
+                out[#out + 1] = ARGV[i]
+                out[#out + 1] = tonumber(seq)
+              elseif redis.call('EXISTS', KEYS[2]) == 1 then
+                redis.call('INCR', KEYS[2])
+              end
+            end
+            return out
+            """,
+            List.class
+    );
+
+    /**
+     * 接手閒置過久的 pending 票（crash pod 未 ack 的票）
+     * KEYS[1] = stream key
+     * ARGV[1] = group, ARGV[2] = consumer, ARGV[3] = min idle（ms）, ARGV[4] = count
+     * 回傳：{ entryId1, ticketId1, entryId2, ticketId2, ... }
+     */
+    private static final DefaultRedisScript<List> AUTO_CLAIM_SCRIPT = new DefaultRedisScript<>(
             """
-            if redis.call('get', KEYS[1]) == ARGV[1] then
-              return redis.call('del', KEYS[1])
+            local res = redis.call('XAUTOCLAIM', KEYS[1], ARGV[1], ARGV[2], ARGV[3], '0-0', 'COUNT', ARGV[4])
+            local out = {}
+            for _, entry in ipairs(res[2]) do
+              if type(entry) == 'table' and type(entry[2]) == 'table' then
+                local fields = entry[2]
+                for j = 1, #fields, 2 do
+                  if fields[j] == 'ticketId' then
+                    out[#out + 1] = entry[1]
+                    out[#out + 1] = fields[j + 1]
+                  end
+                end
+              end
+            end
+            return out
+            """,
+            List.class
+    );
+
+    /**
+     * 處理完的票：XACK 後 XDEL（stream 只保留未處理/未 ack 的票，XLEN 可當隊列深度）
+     * KEYS[1] = stream key
+     * ARGV[1] = group, ARGV[2..] = entryIds
+     */
+    private static final DefaultRedisScript<Long> ACK_SCRIPT = new DefaultRedisScript<>(
+            """
+            local acked = redis.call('XACK', KEYS[1], ARGV[1], unpack(ARGV, 2))
+            redis.call('XDEL', KEYS[1], unpack(ARGV, 2))
+            return acked
+            """,
+            Long.class
+    );
+
+    /**
+     * 對帳修正：只有在隊列仍為空、且閘門值仍是觀察到的值時才覆寫（避免蓋掉對帳期間的新 join）
+     * KEYS[1] = stock gate key, KEYS[2] = queue key
+     * ARGV[1] = 觀察到的閘門值, ARGV[2] = 新值, ARGV[3] = backend（list / stream）
+     */
+    private static final DefaultRedisScript<Long> RECONCILE_GATE_SCRIPT = new DefaultRedisScript<>(
+            """
+            local depth
+            if ARGV[3] == 'stream' then
+              depth = redis.call('XLEN', KEYS[2])
             else
-              return 0
+              depth = redis.call('LLEN', KEYS[2])
             end
+            if depth ~= 0 then return 0 end
+            if redis.call('GET', KEYS[1]) ~= ARGV[1] then return 0 end
+            redis.call('SET', KEYS[1], ARGV[2])
+            return 1
             """,
             Long.class
     );
 
     /**
-     * 原子入隊腳本：同一個 Lua 事務內完成 INCR + RPUSH。
-     * 保證 enqueueSeq 的遞增順序嚴格等同於 Redis List 的插入順序，避免競態導致 FIFO 失效。
-     * KEYS[1] = enqueue-seq key, KEYS[2] = queue key
-     * ARGV[1] = ticketId
+     * 歸還閘門名額：閘門存在才 INCRBY（未 arm 或已 disarm 的商品不會被重新建立）
+     * KEYS[1] = stock gate key
+     * ARGV[1] = 歸還張數
+     * 回傳：歸還後的閘門值；閘門不存在為 nil
      */
-    private static final DefaultRedisScript<Long> ENQUEUE_SCRIPT = new DefaultRedisScript<>(
+    private static final DefaultRedisScript<Long> RELEASE_GATE_SCRIPT = new DefaultRedisScript<>(
             """
-            local seq = redis.call('INCR', KEYS[1])
-            redis.call('RPUSH', KEYS[2], ARGV[1])
-            return seq
+            if redis.call('EXISTS', KEYS[1]) == 1 then
+              return redis.call('INCRBY', KEYS[1], ARGV[1])
+            end
+            return false
+            """,
+            Long.class
+    );
+
+    /**
+     * 記錄搶購成功者（winners 證據索引），一次 RTT：
+     * - flash:winners:{id}：member = ticketId，score = successSeq（FIFO 處理順序）
+     * - flash:winners-at:{id}：member = ticketId，score = createdAt（毫秒），供 sinceSeconds 過濾
+     * - flash:winners-info:{id}：field = ticketId，value = "userId,enqueueSeq,successSeq,orderId"
+     * 索引不帶 TTL，票券 hash 過期後仍可查證據。
+     * KEYS[1] = winners key, KEYS[2] = winners-at key, KEYS[3] = winners-info key
+     * ARGV[1] = ticketId, ARGV[2] = successSeq, ARGV[3] = createdAt（毫秒）, ARGV[4] = info
+     */
+    private static final DefaultRedisScript<Long> RECORD_WINNER_SCRIPT = new DefaultRedisScript<>(
+            """
+            redis.call('ZADD', KEYS[1], ARGV[2], ARGV[1])
+            redis.call('ZADD', KEYS[2], ARGV[3], ARGV[1])
+            redis.call('HSET', KEYS[3], ARGV[1], ARGV[4])
+            return 1
             """,
             Long.class
     );
 
-    public FlashSaleRedisRepository(StringRedisTemplate redis) {
+    /**
+     * 查詢前 N 名成功者（依 successSeq）與總數：
+     * - 不限時間：ZCARD + ZRANGE 0 N-1
+     * - 限時間：ZRANGESTORE 取出 createdAt >= cutoff 的票，再與 winners ZINTERSTORE（WEIGHTS 1 0 保留 successSeq），
+     *   暫存 key 用完即刪
+     * KEYS[1] = winners key, KEYS[2] = winners-at key, KEYS[3] = winners-info key, KEYS[4] = 暫存 key
+     * ARGV[1] = limit, ARGV[2] = cutoff（毫秒，0 = 不限）
+     * 回傳：{ total, ticketId1, info1, ticketId2, info2, ... }
+     */
+    private static final DefaultRedisScript<List> FIND_WINNERS_SCRIPT = new DefaultRedisScript<>(
+            """
+            local source = KEYS[1]
+            if tonumber(ARGV[2]) > 0 then
+              redis.call('ZRANGESTORE', KEYS[4], KEYS[2], ARGV[2], '+inf', 'BYSCORE')
+              redis.call('ZINTERSTORE', KEYS[4], 2, KEYS[1], KEYS[4], 'WEIGHTS', 1, 0)
+              source = KEYS[4]
+            end
+            local total = redis.call('ZCARD', source)
+            local ids = redis.call('ZRANGE', source, 0, tonumber(ARGV[1]) - 1)
+            if source == KEYS[4] then redis.call('DEL', KEYS[4]) end
+
+            local out = { total }
+            if #ids == 0 then return out end
+            local infos = redis.call('HMGET', KEYS[3], unpack(ids))
+            for i = 1, #ids do
+              out[#out + 1] = ids[i]
+              out[#out + 1] = infos[i] or ''
+            end
+            return out
+            """,
+            List.class
+    );
+
+    public static final String STREAM_GROUP = "flash-workers";
+
+    /**
+     * 票券狀態事件 pub/sub channel：flash:events:{productId}
+     */
+    public static final String TICKET_EVENTS_PATTERN = "flash:events:*";
+
+    private final FlashSaleQueueBackend backend;
+
+    public FlashSaleRedisRepository(
+            StringRedisTemplate redis,
+            @Value("${flashsale.queue.backend:list}") String backend
+    ) {
         this.redis = redis;
+        this.backend = FlashSaleQueueBackend.from(backend);
+    }
+
+    public FlashSaleQueueBackend backend() {
+        return backend;
     }
 
+    /**
+     * 目前後端的隊列 key：LIST → flash:queue:{id}，STREAM → flash:stream:{id}
+     */
     public String queueKey(long productId) {
-        return "flash:queue:" + productId;
+        return backend == FlashSaleQueueBackend.STREAM
+                ? "flash:stream:" + productId
+                : "flash:queue:" + productId;
+    }
+
+    private String backendArg() {
+        return backend.name().toLowerCase();
     }
 
+    private static final String TICKET_KEY_PREFIX = "flash:ticket:";
+    private static final String ACTIVE_KEY_PREFIX = "flash:active:";
+    private static final String DEQUEUED_KEY_PREFIX = "flash:dequeued:";
+    private static final String DEQUEUE_RATE_KEY_PREFIX = "flash:dequeue-rate:";
+
     public String ticketKey(String ticketId) {
-        return "flash:ticket:" + ticketId;
+        return TICKET_KEY_PREFIX + ticketId;
     }
 
     public String activeKey(long productId, long userId) {
-        return "flash:active:" + productId + ":" + userId;
+        return ACTIVE_KEY_PREFIX + productId + ":" + userId;
+    }
+
+    public String activeProductsKey() {
+        return "flash:active-products";
     }
 
-    public String lockKey(long productId) {
-        return "flash:lock:" + productId;
+    public String stockGateKey(long productId) {
+        return "flash:stock:" + productId;
+    }
+
+    public String armedProductsKey() {
+        return "flash:armed-products";
     }
 
     /**
-     * 原子操作：同時分配 enqueueSeq 並將 ticketId 推入隊列尾端。
-     * 使用 Lua 腳本保證兩個操作不可分割，解決競態條件下 enqueueSeq 與實際入隊順序不一致的問題。
+     * 原子 join（見 JOIN_SCRIPT）：既有 active 票直接回傳，否則建立新票並入隊
      */
-    public long atomicEnqueueAndGetSeq(long productId, String ticketId) {
-        String seqKey = "flash:enqueue-seq:" + productId;
-        Long seq = redis.execute(ENQUEUE_SCRIPT, List.of(seqKey, queueKey(productId)), ticketId);
-        return seq == null ? 0L : seq;
+    public JoinOutcome atomicJoin(long productId, long userId, String ticketId, String createdAt,
+                                  Duration ticketTtl, Duration resultTtl) {
+        List<?> raw = redis.execute(JOIN_SCRIPT,
+                List.of(activeKey(productId, userId), "flash:enqueue-seq:" + productId, queueKey(productId),
+                        activeProductsKey(), stockGateKey(productId)),
+                ticketId, TICKET_KEY_PREFIX, String.valueOf(userId), String.valueOf(productId), createdAt,
+                String.valueOf(ticketTtl.toSeconds()), String.valueOf(resultTtl.toSeconds()), backendArg());
+        if (raw == null || raw.size() < 4) {
+            throw new IllegalStateException("Unexpected join script result");
+        }
+
+        Object seq = raw.get(1);
+        return new JoinOutcome(
+                String.valueOf(raw.get(0)),
+                seq == null ? null : ((Number) seq).longValue(),
+                String.valueOf(raw.get(2)),
+                ((Number) raw.get(3)).longValue() == 1L
+        );
     }
 
-    public long nextDequeueSeq(long productId) {
-        String key = "flash:dequeue-seq:" + productId;
-        Long v = redis.opsForValue().increment(key);
-        return v == null ? 0L : v;
+    /**
+     * 隊頭計數：累計從隊列取出的張數（含過期被丟棄的票），與 enqueue-seq 相減即為排隊位置
+     */
+    public String dequeuedKey(long productId) {
+        return DEQUEUED_KEY_PREFIX + productId;
     }
 
-    // ===== Active（避免同一 user 重複 join）=====
-    public Optional<String> getActiveTicket(long productId, long userId) {
-        String value = redis.opsForValue().get(activeKey(productId, userId));
-        return Optional.ofNullable(value);
+    /**
+     * 滾動出隊速率（張/秒），由 worker engine 定期寫入並帶短 TTL，沒有 worker 在量測就自然消失
+     */
+    public String dequeueRateKey(long productId) {
+        return DEQUEUE_RATE_KEY_PREFIX + productId;
     }
 
-    public void setActiveTicket(long productId, long userId, String ticketId, Duration ttl) {
-        redis.opsForValue().set(activeKey(productId, userId), ticketId, ttl);
+    public String dequeueSeqKey(long productId) {
+        return "flash:dequeue-seq:" + productId;
     }
 
+
+    // ===== Active（避免同一 user 重複 join）=====
     public void deleteActiveTicket(long productId, long userId) {
         redis.delete(activeKey(productId, userId));
     }
 
     // ===== Ticket =====
-    public void createTicket(String ticketId, Map<String, String> fields, Duration ttl) {
-        redis.opsForHash().putAll(ticketKey(ticketId), fields);
-        redis.expire(ticketKey(ticketId), ttl);
-    }
-
     public boolean ticketExists(String ticketId) {
         Boolean exists = redis.hasKey(ticketKey(ticketId));
         return Boolean.TRUE.equals(exists);
@@ -110,40 +476,322 @@ public class FlashSaleRedisRepository {
         redis.opsForHash().putAll(ticketKey(ticketId), fields);
     }
 
-    public void refreshTicketTtl(String ticketId, Duration ttl) {
-        redis.expire(ticketKey(ticketId), ttl);
+    /**
+     * 狀態查詢（見 STATUS_HEARTBEAT_SCRIPT）：一次 RTT，結果直接對應回傳 DTO
+     * @param heartbeatTtl 心跳 TTL；null 代表只讀不刷新
+     */
+    public FlashSaleDtos.TicketStatusResponse readTicketStatus(String ticketId, Duration heartbeatTtl) {
+        List<?> raw = redis.execute(STATUS_HEARTBEAT_SCRIPT, List.of(ticketKey(ticketId)),
+                heartbeatTtl == null ? "0" : String.valueOf(heartbeatTtl.toSeconds()),
+                ACTIVE_KEY_PREFIX, DEQUEUED_KEY_PREFIX, DEQUEUE_RATE_KEY_PREFIX);
+        if (raw == null || raw.isEmpty()) {
+            return new FlashSaleDtos.TicketStatusResponse(ticketId, null, FlashSaleTicketStatus.EXPIRED.name(),
+                    null, null, null, null, null);
+        }
+
+        Long position = (Long) raw.get(5);
+        return new FlashSaleDtos.TicketStatusResponse(
+                ticketId,
+                (Long) raw.get(1),
+                (String) raw.get(0),
+                position == null ? null : position.intValue(),
+                (Long) raw.get(6),
+                (Long) raw.get(4),
+                (Long) raw.get(2),
+                (Long) raw.get(3)
+        );
+    }
+
+    public String getTicketStatusField(String ticketId) {
+        Object value = redis.opsForHash().get(ticketKey(ticketId), "status");
+        return value == null ? null : String.valueOf(value);
     }
 
     public void setResultTtl(String ticketId, Duration ttl) {
         redis.expire(ticketKey(ticketId), ttl);
     }
 
+    // ===== Stock gate（join 時在 Redis 擋掉已售完的使用者）=====
+
+    public void armStockGate(long productId, long stock) {
+        redis.opsForValue().set(stockGateKey(productId), String.valueOf(Math.max(0, stock)));
+        redis.opsForSet().add(armedProductsKey(), String.valueOf(productId));
+    }
+
+    public void disarmStockGate(long productId) {
+        redis.delete(stockGateKey(productId));
+        redis.opsForSet().remove(armedProductsKey(), String.valueOf(productId));
+    }
+
+    public Long getStockGate(long productId) {
+        String value = redis.opsForValue().get(stockGateKey(productId));
+        return value == null ? null : Long.parseLong(value);
+    }
+
+    /**
+     * 已扣的 DB 庫存被歸還時（建單失敗），同步把名額還給閘門，否則商品會提早顯示售完直到對帳
+     */
+    public void releaseStockGate(long productId, int amount) {
+        if (amount <= 0) return;
+        redis.execute(RELEASE_GATE_SCRIPT, List.of(stockGateKey(productId)), String.valueOf(amount));
+    }
+
+    public Set<Long> findArmedProducts() {
+        return toProductIds(redis.opsForSet().members(armedProductsKey()));
+    }
+
+    public boolean reconcileStockGate(long productId, long observed, long corrected) {
+        Long updated = redis.execute(RECONCILE_GATE_SCRIPT,
+                List.of(stockGateKey(productId), queueKey(productId)),
+                String.valueOf(observed), String.valueOf(corrected), backendArg());
+        return updated != null && updated > 0;
+    }
+
     // ===== Queue =====
 
-    public String popQueueHead(long productId) {
-        return redis.opsForList().leftPop(queueKey(productId));
+    /**
+     * 批次出隊：一次 Lua 呼叫取出最多 maxCount 張隊頭票券（見 POP_BATCH_SCRIPT）
+     */
+    public PoppedBatch popBatch(long productId, int maxCount, Duration processingTtl) {
+        List<?> raw = redis.execute(POP_BATCH_SCRIPT,
+                List.of(queueKey(productId), dequeueSeqKey(productId), stockGateKey(productId), dequeuedKey(productId)),
+                String.valueOf(maxCount), TICKET_KEY_PREFIX, String.valueOf(processingTtl.toSeconds()));
+        if (raw == null || raw.isEmpty()) return new PoppedBatch(0, List.of());
+
+        int popped = ((Number) raw.get(0)).intValue();
+        List<DequeuedTicket> tickets = new ArrayList<>((raw.size() - 1) / 2);
+        for (int i = 1; i + 1 < raw.size(); i += 2) {
+            tickets.add(new DequeuedTicket(String.valueOf(raw.get(i)), ((Number) raw.get(i + 1)).longValue()));
+        }
+        return new PoppedBatch(popped, tickets);
+    }
+
+    public long queueDepth(long productId) {
+        Long size = backend == FlashSaleQueueBackend.STREAM
+                ? redis.opsForStream().size(queueKey(productId))
+                : redis.opsForList().size(queueKey(productId));
+        return size == null ? 0L : size;
+    }
+
+    // ===== Active products（worker engine 發現進行中的搶購）=====
+
+    public Set<Long> findActiveProducts() {
+        return toProductIds(redis.opsForSet().members(activeProductsKey()));
     }
 
-    public Integer findPosition(long productId, String ticketId, int scanLimit) {
-        // 為避免超大 list 全掃，限制 scanLimit
-        Long size = redis.opsForList().size(queueKey(productId));
-        if (size == null || size == 0) return null;
+    private Set<Long> toProductIds(Set<String> members) {
+        if (members == null || members.isEmpty()) return Set.of();
 
-        long limit = Math.min(size, scanLimit);
-        for (int i = 0; i < limit; i++) {
-            String value = redis.opsForList().index(queueKey(productId), i);
-            if (ticketId.equals(value)) return i + 1; // 人類從 1 開始
+        Set<Long> productIds = new HashSet<>();
+        for (String member : members) {
+            try {
+                productIds.add(Long.parseLong(member));
+            } catch (NumberFormatException ignored) {
+                // 非數字成員直接忽略（不影響其他商品）
+            }
         }
-        return null;
+        return productIds;
+    }
+
+    public boolean deactivateIfDrained(long productId) {
+        Long removed = redis.execute(DEACTIVATE_IF_DRAINED_SCRIPT,
+                List.of(queueKey(productId), activeProductsKey()), String.valueOf(productId), backendArg());
+        return removed != null && removed > 0;
+    }
+
+    // ===== Queue progress（排隊位置 / ETA）=====
+
+    /**
+     * 狀態查詢用：一次 MGET 取回隊頭計數與出隊速率，成本與隊列深度無關
+     */
+    public QueueProgress getQueueProgress(long productId) {
+        List<String> values = redis.opsForValue().multiGet(List.of(dequeuedKey(productId), dequeueRateKey(productId)));
+        String dequeued = values == null ? null : values.get(0);
+        String rate = values == null ? null : values.get(1);
+        return new QueueProgress(
+                dequeued == null ? 0L : Long.parseLong(dequeued),
+                rate == null ? null : Double.parseDouble(rate)
+        );
     }
 
-    // ===== Lock =====
-    public boolean tryLock(long productId, String lockValue, Duration ttl) {
-        Boolean ok = redis.opsForValue().setIfAbsent(lockKey(productId), lockValue, ttl);
-        return Boolean.TRUE.equals(ok);
+    public long getDequeuedCount(long productId) {
+        String value = redis.opsForValue().get(dequeuedKey(productId));
+        return value == null ? 0L : Long.parseLong(value);
     }
 
-    public void unlock(long productId, String lockValue) {
-        redis.execute(UNLOCK_SCRIPT, List.of(lockKey(productId)), lockValue);
+    public void saveDequeueRate(long productId, double ticketsPerSecond, Duration ttl) {
+        redis.opsForValue().set(dequeueRateKey(productId), String.valueOf(ticketsPerSecond), ttl);
     }
-}
\ No newline at end of file
+
+    // ===== Stream（consumer group）=====
+
+    public void ensureConsumerGroup(long productId) {
+        redis.execute(ENSURE_GROUP_SCRIPT, List.of(queueKey(productId)), STREAM_GROUP);
+    }
+
+    /**
+     * XREADGROUP ... COUNT n BLOCK ms：阻塞讀取尚未分派的新票
+     * （Spring Data Redis 對阻塞讀取會使用獨立連線，不會卡住共用連線）
+     */
+    public List<StreamTicket> readStream(long productId, String consumer, int count, Duration block) {
+        List<MapRecord<String, Object, Object>> records = redis.opsForStream().read(
+                Consumer.from(STREAM_GROUP, consumer),
+                StreamReadOptions.empty().count(count).block(block),
+                StreamOffset.create(queueKey(productId), ReadOffset.lastConsumed()));
+        if (records == null || records.isEmpty()) return List.of();
+
+        List<StreamTicket> tickets = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            Object ticketId = record.getValue().get("ticketId");
+            tickets.add(new StreamTicket(record.getId().getValue(), ticketId == null ? null : String.valueOf(ticketId)));
+        }
+        return tickets;
+    }
+
+    public List<StreamTicket> autoClaim(long productId, String consumer, Duration minIdle, int count) {
+        List<?> raw = redis.execute(AUTO_CLAIM_SCRIPT, List.of(queueKey(productId)),
+                STREAM_GROUP, consumer, String.valueOf(minIdle.toMillis()), String.valueOf(count));
+        if (raw == null || raw.isEmpty()) return List.of();
+
+        List<StreamTicket> tickets = new ArrayList<>(raw.size() / 2);
+        for (int i = 0; i + 1 < raw.size(); i += 2) {
+            tickets.add(new StreamTicket(String.valueOf(raw.get(i)), String.valueOf(raw.get(i + 1))));
+        }
+        return tickets;
+    }
+
+    /**
+     * @param newlyRead 這批中由 XREADGROUP 新讀到的張數（XAUTOCLAIM 接手的票傳 0）
+     */
+    public List<DequeuedTicket> claimForProcessing(long productId, List<String> ticketIds, int newlyRead,
+                                                   Duration processingTtl) {
+        if (ticketIds.isEmpty() && newlyRead == 0) return List.of();
+
+        List<String> args = new ArrayList<>(ticketIds.size() + 3);
+        args.add(TICKET_KEY_PREFIX);
+        args.add(String.valueOf(processingTtl.toSeconds()));
+        args.add(String.valueOf(newlyRead));
+        args.addAll(ticketIds);
+
+        List<?> raw = redis.execute(CLAIM_FOR_PROCESSING_SCRIPT,
+                List.of(dequeueSeqKey(productId), stockGateKey(productId), dequeuedKey(productId)), args.toArray());
+        if (raw == null || raw.isEmpty()) return List.of();
+
+        List<DequeuedTicket> tickets = new ArrayList<>(raw.size() / 2);
+        for (int i = 0; i + 1 < raw.size(); i += 2) {
+            tickets.add(new DequeuedTicket(String.valueOf(raw.get(i)), ((Number) raw.get(i + 1)).longValue()));
+        }
+        return tickets;
+    }
+
+    public void ackStream(long productId, List<String> entryIds) {
+        if (entryIds.isEmpty()) return;
+
+        List<String> args = new ArrayList<>(entryIds.size() + 1);
+        args.add(STREAM_GROUP);
+        args.addAll(entryIds);
+        redis.execute(ACK_SCRIPT, List.of(queueKey(productId)), args.toArray());
+    }
+
+    // ===== Winners evidence（per-product 索引，取代 SCAN flash:ticket:*）=====
+
+    public String winnersKey(long productId) {
+        return "flash:winners:" + productId;
+    }
+
+    public String winnersAtKey(long productId) {
+        return "flash:winners-at:" + productId;
+    }
+
+    public String winnersInfoKey(long productId) {
+        return "flash:winners-info:" + productId;
+    }
+
+    public void recordWinner(long productId, String ticketId, long userId, Long enqueueSeq, long successSeq,
+                             long orderId, long createdAtMillis) {
+        String info = userId + "," + (enqueueSeq == null ? "" : enqueueSeq) + "," + successSeq + "," + orderId;
+        redis.execute(RECORD_WINNER_SCRIPT,
+                List.of(winnersKey(productId), winnersAtKey(productId), winnersInfoKey(productId)),
+                ticketId, String.valueOf(successSeq), String.valueOf(createdAtMillis), info);
+    }
+
+    /**
+     * @param cutoffMillis 只取 createdAt >= cutoff 的成功者；0 代表不限制
+     */
+    public WinnersPage findWinners(long productId, int limit, long cutoffMillis) {
+        String tmpKey = "flash:winners-tmp:" + productId + ":" + UUID.randomUUID();
+        List<?> raw = redis.execute(FIND_WINNERS_SCRIPT,
+                List.of(winnersKey(productId), winnersAtKey(productId), winnersInfoKey(productId), tmpKey),
+                String.valueOf(limit), String.valueOf(Math.max(0, cutoffMillis)));
+        if (raw == null || raw.isEmpty()) return new WinnersPage(0, List.of());
+
+        List<WinnerEntry> winners = new ArrayList<>((raw.size() - 1) / 2);
+        for (int i = 1; i + 1 < raw.size(); i += 2) {
+            winners.add(new WinnerEntry(String.valueOf(raw.get(i)), String.valueOf(raw.get(i + 1))));
+        }
+        return new WinnersPage(((Number) raw.get(0)).longValue(), winners);
+    }
+
+    // ===== Ticket events（SSE 推播）=====
+
+    public String ticketEventsChannel(long productId) {
+        return "flash:events:" + productId;
+    }
+
+    public void publishTicketEvent(long productId, String payload) {
+        redis.convertAndSend(ticketEventsChannel(productId), payload);
+    }
+
+    /**
+     * SSE 連線中的票券心跳：pipeline 一次送出所有 EXPIRE（ticket + active marker）
+     * active marker 已被刪除（處理完成）時 EXPIRE 不會重建它
+     */
+    public void heartbeatTickets(List<TicketHeartbeat> tickets, Duration ttl) {
+        if (tickets.isEmpty()) return;
+
+        long seconds = ttl.toSeconds();
+        redis.executePipelined((RedisCallback<Object>) connection -> {
+            for (TicketHeartbeat ticket : tickets) {
+                connection.keyCommands().expire(ticketKey(ticket.ticketId()).getBytes(StandardCharsets.UTF_8), seconds);
+                connection.keyCommands().expire(activeKey(ticket.productId(), ticket.userId()).getBytes(StandardCharsets.UTF_8), seconds);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * popBatch 的結果：
+     * - popped：實際從隊列 LPOP 的張數（含已過期被丟棄的票）
+     * - tickets：仍存活、已分配 dequeueSeq 的票（依出隊順序）
+     */
+    public record PoppedBatch(int popped, List<DequeuedTicket> tickets) {}
+
+    /**
+     * join 腳本結果：existing = 使用者原本就有 active 票（回傳既有票）
+     */
+    public record JoinOutcome(String ticketId, Long enqueueSeq, String status, boolean existing) {}
+
+    public record DequeuedTicket(String ticketId, long dequeueSeq) {}
+
+    /**
+     * 隊列進度：dequeued = 已從隊頭取出的累計張數，dequeueRate = 滾動出隊速率（張/秒，未量測時為 null）
+     */
+    public record QueueProgress(long dequeued, Double dequeueRate) {}
+
+    public record TicketHeartbeat(String ticketId, long productId, long userId) {}
+
+    /**
+     * winners 查詢結果：total = 符合條件的成功者總數，winners = 依 successSeq 排序的前 N 筆
+     */
+    public record WinnersPage(long total, List<WinnerEntry> winners) {}
+
+    /**
+     * info = "userId,enqueueSeq,successSeq,orderId"（見 RECORD_WINNER_SCRIPT）
+     */
+    public record WinnerEntry(String ticketId, String info) {}
+
+    /**
+     * Stream 讀到的一筆票：entryId 用於 XACK，ticketId 可能因資料異常為 null
+     */
+    public record StreamTicket(String entryId, String ticketId) {}
+}
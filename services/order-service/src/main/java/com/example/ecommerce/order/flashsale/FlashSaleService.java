@@ -2,15 +2,19 @@ package com.example.ecommerce.order.flashsale;
 
 import com.example.ecommerce.order.api.dto.FlashSaleDtos;
 import com.example.ecommerce.order.client.ProductClient;
+import com.example.ecommerce.order.client.ProductInfoCache;
 import com.example.ecommerce.order.service.OrderService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -21,143 +25,204 @@ public class FlashSaleService {
 
     private final FlashSaleRedisRepository redisRepository;
     private final ProductClient productClient;
+    private final ProductInfoCache productInfoCache;
     private final OrderService orderService;
+    private final ObjectMapper objectMapper;
 
     private final Duration ticketTtl;
     private final Duration resultTtl;
+    private final boolean bulkOrderWrites;
 
     public FlashSaleService(
             FlashSaleRedisRepository redisRepository,
             ProductClient productClient,
+            ProductInfoCache productInfoCache,
             OrderService orderService,
+            ObjectMapper objectMapper,
             @Value("${flashsale.ticket-ttl-seconds:60}") long ticketTtlSeconds,
-            @Value("${flashsale.result-ttl-seconds:600}") long resultTtlSeconds
+            @Value("${flashsale.result-ttl-seconds:600}") long resultTtlSeconds,
+            @Value("${flashsale.worker.order-write-mode:bulk}") String orderWriteMode
     ) {
         this.redisRepository = redisRepository;
         this.productClient = productClient;
+        this.productInfoCache = productInfoCache;
         this.orderService = orderService;
+        this.objectMapper = objectMapper;
         this.ticketTtl = Duration.ofSeconds(ticketTtlSeconds);
         this.resultTtl = Duration.ofSeconds(resultTtlSeconds);
+        this.bulkOrderWrites = !"single".equalsIgnoreCase(orderWriteMode);
     }
 
     public FlashSaleDtos.JoinResponse joinQueue(long userId, long productId) {
-        // 1) 驗證商品是 FLASH_SALE（避免 NORMAL 誤入）
-        ProductClient.ProductInfo product = productClient.getProductInfo(productId);
+        // 1) 驗證商品是 FLASH_SALE（避免 NORMAL 誤入）；走本地快取，不再每次 join 都同步打 product-service
+        ProductClient.ProductInfo product = productInfoCache.requireType(productId, "FLASH_SALE");
         if (!"FLASH_SALE".equals(product.productType())) {
             log.warn("[flashsale.join] 商品非 FLASH_SALE 類型 userId={}, productId={}, type={}", userId, productId, product.productType());
             throw new IllegalStateException("Product is not FLASH_SALE");
         }
 
-        // 2) 若使用者已在隊列中（active），回傳既有 ticketId（避免重複排隊）
-        var existing = redisRepository.getActiveTicket(productId, userId);
-        if (existing.isPresent()) {
-            String existingTicketId = existing.get();
-            log.info("[flashsale.join] 使用者已在隊列中 userId={}, productId={}, ticketId={}", userId, productId, existingTicketId);
-
-            // 仍刷新 active TTL（表示仍在線/仍想排隊）
-            redisRepository.setActiveTicket(productId, userId, existing.get(), ticketTtl);
-
-            // 補回 enqueueSeq（從 ticket hash 讀）
-            Long enqueueSeq = null;
-            if (redisRepository.ticketExists(existingTicketId)) {
-                Map<Object, Object> t = redisRepository.getTicket(existingTicketId);
-                Object v = t.get("enqueueSeq");
-                if (v != null) enqueueSeq = Long.parseLong(String.valueOf(v));
-            }
-
-            return new FlashSaleDtos.JoinResponse(existingTicketId, enqueueSeq);
+        // 2) 單一 Lua 腳本完成：既有 active 票檢查 → 庫存閘門 → INCR(enqueueSeq) → 建 ticket hash + TTL
+        //    → active marker → RPUSH/XADD，一次 RTT，也不會有建了一半的票被 worker 看到
+        FlashSaleRedisRepository.JoinOutcome outcome = redisRepository.atomicJoin(
+                productId, userId, UUID.randomUUID().toString(), Instant.now().toString(), ticketTtl, resultTtl);
+
+        if (outcome.existing()) {
+            log.info("[flashsale.join] 使用者已在隊列中 userId={}, productId={}, ticketId={}", userId, productId, outcome.ticketId());
+        } else if (FlashSaleTicketStatus.SOLD_OUT.name().equals(outcome.status())) {
+            // 庫存閘門已歸零：直接 SOLD_OUT，不進隊列、不打 product-service
+            log.info("[flashsale.join] 庫存閘門已歸零（SOLD_OUT）userId={}, productId={}, ticketId={}", userId, productId, outcome.ticketId());
+        } else {
+            log.info("[flashsale.join] 新票券入隊 userId={}, productId={}, ticketId={}, enqueueSeq={}", userId, productId, outcome.ticketId(), outcome.enqueueSeq());
         }
+        return new FlashSaleDtos.JoinResponse(outcome.ticketId(), outcome.enqueueSeq(), outcome.status());
+    }
 
-        // 3) 建立新 ticket（先建 hash，worker 依此確認 ticket 存在）
-        String ticketId = UUID.randomUUID().toString();
-        redisRepository.createTicket(ticketId, Map.of(
-                "ticketId", ticketId,
-                "userId", String.valueOf(userId),
-                "productId", String.valueOf(productId),
-                "status", FlashSaleTicketStatus.QUEUED.name(),
-                "createdAt", Instant.now().toString()
-        ), ticketTtl);
-
-        // 4) 標記 active（避免同一 user 重複 join），TTL = ticketTtl
-        redisRepository.setActiveTicket(productId, userId, ticketId, ticketTtl);
-
-        // 5) 原子入隊：Lua 腳本一次完成 INCR(enqueueSeq) + RPUSH(queue)
-        //    保證 seq 遞增順序 == Redis List 插入順序，FIFO 不再有競態
-        long enqueueSeq = redisRepository.atomicEnqueueAndGetSeq(productId, ticketId);
+    /**
+     * 開賣前 arm：以 product-service 目前庫存設定 Redis 庫存閘門
+     * 之後 join 會在入隊腳本內原子 DECR，歸零後直接回 SOLD_OUT
+     */
+    public FlashSaleDtos.StockGateResponse armSale(long productId) {
+        // 需要即時庫存，不走本地快取
+        ProductClient.ProductInfo product = productClient.getProductInfo(productId);
+        if (!"FLASH_SALE".equals(product.productType())) {
+            log.warn("[flashsale.arm] 商品非 FLASH_SALE 類型 productId={}, type={}", productId, product.productType());
+            throw new IllegalStateException("Product is not FLASH_SALE");
+        }
 
-        // 6) 將確定的 enqueueSeq 寫回 ticket hash（供 evidence 查詢）
-        redisRepository.updateTicket(ticketId, Map.of("enqueueSeq", String.valueOf(enqueueSeq)));
+        long stock = product.stock() == null ? 0 : product.stock();
+        redisRepository.armStockGate(productId, stock);
+        log.info("[flashsale.arm] 設定庫存閘門 productId={}, stock={}", productId, stock);
+        return new FlashSaleDtos.StockGateResponse(productId, true, stock, stock);
+    }
 
-        log.info("[flashsale.join] 新票券入隊 userId={}, productId={}, ticketId={}, enqueueSeq={}", userId, productId, ticketId, enqueueSeq);
-        return new FlashSaleDtos.JoinResponse(ticketId, enqueueSeq);
+    public FlashSaleDtos.StockGateResponse disarmSale(long productId) {
+        redisRepository.disarmStockGate(productId);
+        log.info("[flashsale.arm] 移除庫存閘門 productId={}", productId);
+        return new FlashSaleDtos.StockGateResponse(productId, false, null, null);
     }
 
     public FlashSaleDtos.TicketStatusResponse getTicketStatus(String ticketId) {
-        // ticket 不存在 → EXPIRED（離線/TTL 到期）
-        if (!redisRepository.ticketExists(ticketId)) {
-            return new FlashSaleDtos.TicketStatusResponse(ticketId, null, FlashSaleTicketStatus.EXPIRED.name(), null, null, null, null);
-        }
+        return readTicketStatus(ticketId, true);
+    }
 
-        Map<Object, Object> map = redisRepository.getTicket(ticketId);
+    /**
+     * 只讀取狀態、不刷新 TTL（SSE 推播補查用，心跳由 SSE 連線另外處理）
+     */
+    public FlashSaleDtos.TicketStatusResponse peekTicketStatus(String ticketId) {
+        return readTicketStatus(ticketId, false);
+    }
 
-        long productId = Long.parseLong(String.valueOf(map.get("productId")));
-        long userId = Long.parseLong(String.valueOf(map.get("userId")));
-        String status = String.valueOf(map.get("status"));
-        Long enqueueSeq = map.get("enqueueSeq") == null ? null : Long.parseLong(String.valueOf(map.get("enqueueSeq")));
-        Long successSeq = map.get("successSeq") == null ? null : Long.parseLong(String.valueOf(map.get("successSeq")));
+    private FlashSaleDtos.TicketStatusResponse readTicketStatus(String ticketId, boolean heartbeat) {
+        // 一次 Lua 呼叫：讀欄位 + 心跳（QUEUED 才刷新 TTL，讓「離線離隊」成立）+ 位置/ETA
+        // ticket 不存在 → EXPIRED（離線/TTL 到期）
+        return redisRepository.readTicketStatus(ticketId, heartbeat ? ticketTtl : null);
+    }
 
-        // 重要：輪詢視同心跳，刷新 TTL（讓「離線離隊」成立）
-        redisRepository.refreshTicketTtl(ticketId, ticketTtl);
-        redisRepository.setActiveTicket(productId, userId, ticketId, ticketTtl);
+    /**
+     * 由 worker 呼叫：處理同一商品一整批已出隊的票（LIST 批次出隊 / STREAM consumer group）
+     * - 一次批次扣庫存呼叫取得 granted 個名額，依出隊順序（FIFO）分給前 granted 張票建單
+     * - 其餘票 SOLD_OUT
+     * - 建單（flashsale.worker.order-write-mode）：bulk（預設）整批得標者一個交易批次寫入；
+     *   single 每張票各自一個交易（舊版，對照用）
+     * - 不開交易：扣庫存是遠端呼叫，建單自己的短交易只包 INSERT
+     * @param reclaimed 這批票是 XAUTOCLAIM 從失聯 consumer 接手的 pending 票
+     */
+    public void processBatch(long productId, List<String> ticketIds, boolean reclaimed) {
+        List<ClaimedTicket> tickets = new ArrayList<>(ticketIds.size());
+        for (String ticketId : ticketIds) {
+            ClaimedTicket ticket = startProcessing(ticketId, reclaimed);
+            if (ticket != null) tickets.add(ticket);
+        }
+        if (tickets.isEmpty()) return;
 
-        Long orderId = map.get("orderId") == null ? null : Long.parseLong(String.valueOf(map.get("orderId")));
+        try {
+            reserveAndComplete(productId, tickets);
+        } finally {
+            // 無論成功、售完或中途例外，都讓使用者可以重新 join（不再 active）
+            for (ClaimedTicket ticket : tickets) {
+                try {
+                    redisRepository.deleteActiveTicket(ticket.productId(), ticket.userId());
+                } catch (RuntimeException e) {
+                    log.warn("[flashsale.process] 刪除 active marker 失敗（等 TTL 到期）ticketId={}, error={}",
+                            ticket.ticketId(), e.getMessage());
+                }
+            }
+        }
+    }
 
-        Integer position = null;
-        if (FlashSaleTicketStatus.QUEUED.name().equals(status)) {
-            // 只掃描前 5000 個避免太慢（demo 夠用；10k 也可調大）
-            position = redisRepository.findPosition(productId, ticketId, 5000);
+    private void reserveAndComplete(long productId, List<ClaimedTicket> tickets) {
+        int granted;
+        try {
+            granted = productClient.reserveFlashSaleBatch(productId, new ProductClient.BatchReserveRequest(tickets.size())).granted();
+        } catch (Exception e) {
+            // 扣庫存結果未知（例如逾時）：閘門仍歸還，多放進來的人最多拿到 SOLD_OUT，DB 才是最後把關；
+            // 少放則要等對帳才會恢復
+            releaseStockGate(productId, tickets.size());
+            tickets.forEach(ticket -> completeError(ticket, e));
+            return;
         }
+        log.info("[flashsale.process] 批次扣庫存 productId={}, requested={}, granted={}", productId, tickets.size(), granted);
 
-        return new FlashSaleDtos.TicketStatusResponse(ticketId, productId, status, position, orderId, enqueueSeq, successSeq);
-    }
+        int winners = Math.min(granted, tickets.size());
+        if (bulkOrderWrites && winners > 0) {
+            completeSuccessBulk(productId, tickets.subList(0, winners));
+        }
 
-    /**
-     * worker 取出隊頭後呼叫：先延長 ticket 存活，避免處理中途過期
-     */
-    public void extendTicketForProcessing(String ticketId) {
-        // 這裡用 resultTtl 當處理保護時間
-        redisRepository.refreshTicketTtl(ticketId, resultTtl);
+        // 每張票各自 try：一張票寫 Redis 失敗不影響後面的票（SOLD_OUT / single 模式建單）
+        for (int i = 0; i < tickets.size(); i++) {
+            ClaimedTicket ticket = tickets.get(i);
+            try {
+                if (i >= winners) {
+                    completeSoldOut(ticket);
+                } else if (!bulkOrderWrites) {
+                    completeSuccess(ticket);
+                }
+            } catch (Exception e) {
+                completeError(ticket, e);
+            }
+        }
     }
 
     /**
-     * worker 出隊時呼叫：把 FIFO 出隊順序寫到 successSeq
-     * 這樣 evidence 用 successSeq 排序時，順序會貼近 FIFO。
+     * 整批得標者一個交易建單；交易失敗則歸還整批名額（DB 庫存 + 閘門）並標 ERROR
      */
-    public void markDequeued(String ticketId, long dequeueSeq) {
-        // 不改狀態，避免影響 processTicket 的 QUEUED 判斷
-        // 只寫 successSeq 作為「處理順序證據」
-        redisRepository.updateTicket(ticketId, Map.of(
-                "successSeq", String.valueOf(dequeueSeq)
-        ));
+    private void completeSuccessBulk(long productId, List<ClaimedTicket> winners) {
+        List<Long> orderIds;
+        try {
+            orderIds = orderService.createFlashSaleOrders(productId, winners.stream().map(ClaimedTicket::userId).toList());
+        } catch (Exception e) {
+            releaseStock(productId, winners.size());
+            winners.forEach(ticket -> completeError(ticket, e));
+            return;
+        }
+        for (int i = 0; i < winners.size(); i++) {
+            ClaimedTicket ticket = winners.get(i);
+            try {
+                markSuccess(ticket, orderIds.get(i));
+            } catch (RuntimeException e) {
+                // 訂單已 commit，不能歸還庫存也不能標 ERROR；留下 orderId 供人工補票券狀態
+                log.error("[flashsale.process] 訂單已建立但標記 SUCCESS 失敗 ticketId={}, userId={}, orderId={}, error={}",
+                        ticket.ticketId(), ticket.userId(), orderIds.get(i), e.getMessage(), e);
+            }
+        }
     }
 
     /**
-     * 由 worker 呼叫：處理隊頭 ticket
-     * - 成功扣庫存 → 建立搶購訂單（單品項、單件）
-     * - 庫存不足 → SOLD_OUT
+     * 讀取票券並標記 PROCESSING；票不存在 / 非 QUEUED / 資料不完整時回傳 null（不處理）
+     * 接手的票若仍是 PROCESSING：前一個 consumer 在扣庫存 / 建單途中失聯，結果未知，
+     * 不能重扣（可能已扣過）也不能略過（會一直停在 PROCESSING），標 ERROR 並刪除 active marker
      */
-    @Transactional
-    public void processTicket(String ticketId) {
+    private ClaimedTicket startProcessing(String ticketId, boolean reclaimed) {
         // 票不存在就算了（可能剛好過期/被清）
         if (!redisRepository.ticketExists(ticketId)) {
             log.warn("[flashsale.process] 票券不存在（可能已過期）ticketId={}", ticketId);
-            return;
+            return null;
         }
 
         Map<Object, Object> map = redisRepository.getTicket(ticketId);
         if (map == null || map.isEmpty()) {
             log.warn("[flashsale.process] 票券資料為空 ticketId={}", ticketId);
-            return;
+            return null;
         }
 
         // 這些欄位若缺失，代表票曾過期重建或資料不完整 → 直接標 ERROR 並結束
@@ -167,52 +232,157 @@ public class FlashSaleService {
             log.error("[flashsale.process] 票券資料不完整 ticketId={}, productId={}, userId={}", ticketId, pidObj, uidObj);
             redisRepository.updateTicket(ticketId, Map.of("status", FlashSaleTicketStatus.ERROR.name()));
             redisRepository.setResultTtl(ticketId, resultTtl);
-            return;
+            return null;
         }
 
-        long productId = Long.parseLong(String.valueOf(pidObj));
-        long userId = Long.parseLong(String.valueOf(uidObj));
+        ClaimedTicket ticket = new ClaimedTicket(
+                ticketId,
+                Long.parseLong(String.valueOf(pidObj)),
+                Long.parseLong(String.valueOf(uidObj)),
+                map.get("enqueueSeq") == null ? null : Long.parseLong(String.valueOf(map.get("enqueueSeq"))),
+                map.get("successSeq") == null ? null : Long.parseLong(String.valueOf(map.get("successSeq"))),
+                map.get("createdAt")
+        );
 
         String status = String.valueOf(map.get("status"));
+        if (reclaimed && FlashSaleTicketStatus.PROCESSING.name().equals(status)) {
+            log.warn("[flashsale.process] 接手的票券仍為 PROCESSING（前一個 consumer 處理中失聯），標記 ERROR ticketId={}, userId={}, productId={}",
+                    ticketId, ticket.userId(), ticket.productId());
+            markError(ticket);
+            redisRepository.deleteActiveTicket(ticket.productId(), ticket.userId());
+            return null;
+        }
         if (!FlashSaleTicketStatus.QUEUED.name().equals(status)) {
             log.info("[flashsale.process] 票券狀態非 QUEUED，略過 ticketId={}, status={}", ticketId, status);
-            return;
+            return null;
         }
 
-        log.info("[flashsale.process] 開始處理票券 ticketId={}, userId={}, productId={}", ticketId, userId, productId);
+        log.info("[flashsale.process] 開始處理票券 ticketId={}, userId={}, productId={}", ticketId, ticket.userId(), ticket.productId());
         // 標記處理中（可讓前端看到 PROCESSING）
         redisRepository.updateTicket(ticketId, Map.of("status", FlashSaleTicketStatus.PROCESSING.name()));
+        publishStatus(ticket, FlashSaleTicketStatus.PROCESSING, null);
+        return ticket;
+    }
 
+    /**
+     * 已取得庫存名額：建立搶購訂單（單品項、單件）並標記 SUCCESS；建單失敗先歸還名額（DB 庫存 + 閘門）再往上拋
+     */
+    private void completeSuccess(ClaimedTicket ticket) {
+        long orderId;
         try {
-            // 1) 扣庫存（FLASH_SALE 專用 endpoint，一次只能扣 1）
-            ProductClient.ReserveResponse reserveResponse = productClient.reserveFlashSale(productId, new ProductClient.ReserveRequest(1));
-
-            if (reserveResponse.success()) {
-                // 2) 建立搶購訂單（單品項、單件）
-                long orderId = orderService.createFlashSaleOrder(userId, productId);
-
-                // successSeq 已經在出隊時寫入 dequeueSeq 了
-                // 這裡不要再 nextSuccessSeq，避免被 DB 延遲打亂 FIFO 證據
-                redisRepository.updateTicket(ticketId, Map.of(
-                        "status", FlashSaleTicketStatus.SUCCESS.name(),
-                        "orderId", String.valueOf(orderId)
-                ));
-
-                redisRepository.setResultTtl(ticketId, resultTtl);
-                log.info("[flashsale.process] 搶購成功 ticketId={}, userId={}, productId={}, orderId={}", ticketId, userId, productId, orderId);
-            } else {
-                redisRepository.updateTicket(ticketId, Map.of("status", FlashSaleTicketStatus.SOLD_OUT.name()));
-                redisRepository.setResultTtl(ticketId, resultTtl);
-                log.info("[flashsale.process] 庫存不足（SOLD_OUT）ticketId={}, userId={}, productId={}", ticketId, userId, productId);
-            }
+            orderId = orderService.createFlashSaleOrder(ticket.userId(), ticket.productId());
+        } catch (RuntimeException e) {
+            releaseStock(ticket.productId(), 1);
+            throw e;
+        }
+        markSuccess(ticket, orderId);
+    }
+
+    /**
+     * 建單失敗：歸還已扣的 DB 庫存，並把名額還給庫存閘門
+     */
+    private void releaseStock(long productId, int quantity) {
+        orderService.releaseStock(productId, quantity);
+        releaseStockGate(productId, quantity);
+    }
+
+    private void releaseStockGate(long productId, int quantity) {
+        try {
+            redisRepository.releaseStockGate(productId, quantity);
+        } catch (RuntimeException e) {
+            // 閘門少了名額只會提早擋人，對帳會修正；不覆蓋原本的失敗原因
+            log.warn("[flashsale.process] 歸還庫存閘門失敗 productId={}, qty={}, error={}", productId, quantity, e.getMessage());
+        }
+    }
+
+    private void markSuccess(ClaimedTicket ticket, long orderId) {
+        // successSeq 已經在出隊時寫入 dequeueSeq 了
+        // 這裡不要再 nextSuccessSeq，避免被 DB 延遲打亂 FIFO 證據
+        redisRepository.updateTicket(ticket.ticketId(), Map.of(
+                "status", FlashSaleTicketStatus.SUCCESS.name(),
+                "orderId", String.valueOf(orderId)
+        ));
+
+        redisRepository.setResultTtl(ticket.ticketId(), resultTtl);
+        recordWinner(ticket, orderId);
+        publishStatus(ticket, FlashSaleTicketStatus.SUCCESS, orderId);
+        log.info("[flashsale.process] 搶購成功 ticketId={}, userId={}, productId={}, orderId={}",
+                ticket.ticketId(), ticket.userId(), ticket.productId(), orderId);
+    }
+
+    private void completeSoldOut(ClaimedTicket ticket) {
+        redisRepository.updateTicket(ticket.ticketId(), Map.of("status", FlashSaleTicketStatus.SOLD_OUT.name()));
+        redisRepository.setResultTtl(ticket.ticketId(), resultTtl);
+        publishStatus(ticket, FlashSaleTicketStatus.SOLD_OUT, null);
+        log.info("[flashsale.process] 庫存不足（SOLD_OUT）ticketId={}, userId={}, productId={}",
+                ticket.ticketId(), ticket.userId(), ticket.productId());
+    }
+
+    private void completeError(ClaimedTicket ticket, Exception e) {
+        log.error("[flashsale.process] 處理票券發生例外 ticketId={}, userId={}, productId={}, error={}",
+                ticket.ticketId(), ticket.userId(), ticket.productId(), e.getMessage(), e);
+        markError(ticket);
+    }
+
+    /**
+     * 標記 ERROR 是最後的收尾：Redis 也失敗時只記 log（票會停在 PROCESSING 直到 TTL），不再往上拋
+     */
+    private void markError(ClaimedTicket ticket) {
+        try {
+            redisRepository.updateTicket(ticket.ticketId(), Map.of("status", FlashSaleTicketStatus.ERROR.name()));
+            redisRepository.setResultTtl(ticket.ticketId(), resultTtl);
+        } catch (RuntimeException e) {
+            log.error("[flashsale.process] 標記 ERROR 失敗 ticketId={}, error={}", ticket.ticketId(), e.getMessage());
+            return;
+        }
+        publishStatus(ticket, FlashSaleTicketStatus.ERROR, null);
+    }
+
+    /**
+     * 狀態轉換事件：發佈到 flash:events:{productId}，持有該票 SSE 連線的 pod 會轉推給前端
+     * pub/sub 不保證送達，SSE 端另有隊頭檢查補救，因此發佈失敗只記 log
+     */
+    private void publishStatus(ClaimedTicket ticket, FlashSaleTicketStatus status, Long orderId) {
+        FlashSaleDtos.TicketStatusResponse event = new FlashSaleDtos.TicketStatusResponse(
+                ticket.ticketId(), ticket.productId(), status.name(), null, null, orderId, ticket.enqueueSeq(), ticket.successSeq());
+        try {
+            redisRepository.publishTicketEvent(ticket.productId(), objectMapper.writeValueAsString(event));
+        } catch (JsonProcessingException | RuntimeException e) {
+            log.warn("[flashsale.event] 發佈票券事件失敗 ticketId={}, status={}, error={}", ticket.ticketId(), status, e.getMessage());
+        }
+    }
+
+    /**
+     * 寫入 winners 證據索引（internal winners endpoint 讀取）；索引失敗不影響已建立的訂單
+     */
+    private void recordWinner(ClaimedTicket ticket, long orderId) {
+        if (ticket.successSeq() == null) {
+            log.warn("[flashsale.evidence] 票券缺少 successSeq，未寫入 winners 索引 ticketId={}", ticket.ticketId());
+            return;
+        }
+        long createdAtMillis;
+        try {
+            createdAtMillis = Instant.parse(String.valueOf(ticket.createdAt())).toEpochMilli();
         } catch (Exception e) {
-            log.error("[flashsale.process] 處理票券發生例外 ticketId={}, userId={}, productId={}, error={}",
-                    ticketId, userId, productId, e.getMessage(), e);
-            redisRepository.updateTicket(ticketId, Map.of("status", FlashSaleTicketStatus.ERROR.name()));
-            redisRepository.setResultTtl(ticketId, resultTtl);
-        } finally {
-            // 無論成功或售完，都讓使用者可以重新 join（不再 active）
-            redisRepository.deleteActiveTicket(productId, userId);
+            createdAtMillis = System.currentTimeMillis();
+        }
+        try {
+            redisRepository.recordWinner(ticket.productId(), ticket.ticketId(), ticket.userId(), ticket.enqueueSeq(),
+                    ticket.successSeq(), orderId, createdAtMillis);
+        } catch (RuntimeException e) {
+            log.warn("[flashsale.evidence] 寫入 winners 索引失敗 ticketId={}, error={}", ticket.ticketId(), e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 已標記 PROCESSING、準備扣庫存的票
+     */
+    private record ClaimedTicket(
+            String ticketId,
+            long productId,
+            long userId,
+            Long enqueueSeq,
+            Long successSeq,
+            Object createdAt
+    ) {}
+}
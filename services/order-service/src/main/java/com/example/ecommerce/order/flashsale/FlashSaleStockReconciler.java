@@ -0,0 +1,86 @@
+package com.example.ecommerce.order.flashsale;
+
+import com.example.ecommerce.order.client.ProductClient;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 庫存閘門對帳：
+ * - 只對已 arm 且隊列已排空的商品比對 Redis 閘門與 product.stock
+ * - 處理中的票（已出隊、尚未扣 DB）會造成短暫差異，因此連續兩輪看到相同差異才修正
+ * - 以 DB 庫存為準覆寫閘門（例如失聯 consumer 留下、結果未知的 ERROR 票，或開賣後 ADMIN 補貨）
+ */
+@Component
+public class FlashSaleStockReconciler {
+
+    private static final Logger log = LoggerFactory.getLogger(FlashSaleStockReconciler.class);
+
+    private final FlashSaleRedisRepository redisRepository;
+    private final ProductClient productClient;
+    private final Counter mismatchCounter;
+
+    // productId -> 上一輪觀察到的差異（gate:stock）
+    private final Map<Long, String> pendingMismatch = new ConcurrentHashMap<>();
+
+    public FlashSaleStockReconciler(FlashSaleRedisRepository redisRepository,
+                                    ProductClient productClient,
+                                    MeterRegistry meterRegistry) {
+        this.redisRepository = redisRepository;
+        this.productClient = productClient;
+        this.mismatchCounter = Counter.builder("flashsale.stock-gate.mismatch")
+                .description("Stock gate values corrected from product-service stock")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${flashsale.stock-gate.reconcile-interval-ms:30000}")
+    public void reconcile() {
+        Set<Long> armed = redisRepository.findArmedProducts();
+        pendingMismatch.keySet().retainAll(armed);
+
+        for (Long productId : armed) {
+            try {
+                reconcileOne(productId);
+            } catch (Exception e) {
+                log.warn("[flashsale.reconcile] 對帳失敗 productId={}, error={}", productId, e.getMessage());
+            }
+        }
+    }
+
+    private void reconcileOne(long productId) {
+        // 搶購進行中不對帳（閘門本來就會領先 DB）
+        if (redisRepository.queueDepth(productId) > 0) {
+            pendingMismatch.remove(productId);
+            return;
+        }
+
+        Long gate = redisRepository.getStockGate(productId);
+        if (gate == null) return;
+
+        ProductClient.ProductInfo product = productClient.getProductInfo(productId);
+        long stock = product.stock() == null ? 0 : product.stock();
+        if (gate == stock) {
+            pendingMismatch.remove(productId);
+            return;
+        }
+
+        String observed = gate + ":" + stock;
+        if (!observed.equals(pendingMismatch.put(productId, observed))) {
+            log.info("[flashsale.reconcile] 閘門與庫存不一致，下一輪確認 productId={}, gate={}, stock={}", productId, gate, stock);
+            return;
+        }
+
+        if (redisRepository.reconcileStockGate(productId, gate, stock)) {
+            mismatchCounter.increment();
+            pendingMismatch.remove(productId);
+            log.warn("[flashsale.reconcile] 修正庫存閘門 productId={}, gate={} -> {}", productId, gate, stock);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.example.ecommerce.order.flashsale;
+
+import com.example.ecommerce.order.api.dto.FlashSaleDtos;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 搶購票券狀態 SSE 推播（取代前端每 0.5~1 秒輪詢）：
+ * - PROCESSING / SUCCESS / SOLD_OUT / ERROR 由 processBatch 發佈到 Redis pub/sub（flash:events:{productId}），
+ *   每個 pod 只轉推給自己持有的連線
+ * - QUEUED 的位置/ETA 由定期推播計算：每個商品一次 MGET（隊頭計數 + 出隊速率），與連線數無關
+ * - 已到隊頭的票另外查一次 status，補救 pub/sub 漏送的事件
+ * - 連線存在即視為心跳：定期以 pipeline 刷新 ticket / active TTL；連線斷開就不再刷新，票照常過期離隊
+ */
+@Component
+public class FlashSaleTicketStreamService implements MessageListener {
+
+    private static final Logger log = LoggerFactory.getLogger(FlashSaleTicketStreamService.class);
+
+    private final FlashSaleRedisRepository redisRepository;
+    private final FlashSaleService flashSaleService;
+    private final ObjectMapper objectMapper;
+
+    private final long emitterTimeoutMs;
+    private final long heartbeatIntervalNanos;
+    private final Duration ticketTtl;
+
+    // ticketId -> 持有該票的連線（同一使用者可能開多個分頁）
+    private final Map<String, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();
+
+    // 心跳只在 push（單一排程執行緒）更新
+    private long lastHeartbeatNanos = System.nanoTime();
+
+    public FlashSaleTicketStreamService(
+            FlashSaleRedisRepository redisRepository,
+            FlashSaleService flashSaleService,
+            ObjectMapper objectMapper,
+            RedisMessageListenerContainer listenerContainer,
+            @Value("${flashsale.sse.timeout-ms:300000}") long emitterTimeoutMs,
+            @Value("${flashsale.sse.heartbeat-interval-ms:15000}") long heartbeatIntervalMs,
+            @Value("${flashsale.ticket-ttl-seconds:60}") long ticketTtlSeconds
+    ) {
+        this.redisRepository = redisRepository;
+        this.flashSaleService = flashSaleService;
+        this.objectMapper = objectMapper;
+        this.emitterTimeoutMs = emitterTimeoutMs;
+        this.heartbeatIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1000, heartbeatIntervalMs));
+        this.ticketTtl = Duration.ofSeconds(ticketTtlSeconds);
+
+        listenerContainer.addMessageListener(this, new PatternTopic(FlashSaleRedisRepository.TICKET_EVENTS_PATTERN));
+    }
+
+    public SseEmitter subscribe(String ticketId) {
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMs);
+
+        Map<Object, Object> ticket = redisRepository.getTicket(ticketId);
+        Object pidObj = ticket.get("productId");
+        Object uidObj = ticket.get("userId");
+        if (pidObj == null || uidObj == null) {
+            // 票已過期/資料不完整：推一次目前狀態就結束
+            new Subscription(ticketId, 0L, 0L, null, emitter).send(flashSaleService.peekTicketStatus(ticketId));
+            return emitter;
+        }
+
+        Object seqObj = ticket.get("enqueueSeq");
+        Subscription subscription = new Subscription(
+                ticketId,
+                Long.parseLong(String.valueOf(pidObj)),
+                Long.parseLong(String.valueOf(uidObj)),
+                seqObj == null ? null : Long.parseLong(String.valueOf(seqObj)),
+                emitter);
+
+        // 先登記再讀初始狀態：讀取期間發佈的事件不會漏掉
+        subscriptions.computeIfAbsent(ticketId, k -> ConcurrentHashMap.newKeySet()).add(subscription);
+        emitter.onCompletion(() -> unregister(subscription));
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(e -> unregister(subscription));
+
+        subscription.sendInitial(flashSaleService.getTicketStatus(ticketId));
+        return emitter;
+    }
+
+    /**
+     * pub/sub 狀態事件：只處理本 pod 持有連線的票
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            FlashSaleDtos.TicketStatusResponse event =
+                    objectMapper.readValue(message.getBody(), FlashSaleDtos.TicketStatusResponse.class);
+            Set<Subscription> targets = subscriptions.get(event.ticketId());
+            if (targets == null) return;
+
+            for (Subscription subscription : targets) {
+                subscription.send(event);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("[flashsale.stream] 無法處理票券事件 error={}", e.getMessage());
+        }
+    }
+
+    /**
+     * 定期推播 QUEUED 位置/ETA，並處理心跳與 ping
+     */
+    @Scheduled(fixedDelayString = "${flashsale.sse.push-interval-ms:1000}")
+    public void push() {
+        if (subscriptions.isEmpty()) return;
+
+        long now = System.nanoTime();
+        boolean heartbeatDue = now - lastHeartbeatNanos >= heartbeatIntervalNanos;
+        if (heartbeatDue) lastHeartbeatNanos = now;
+
+        Map<Long, List<Subscription>> queuedByProduct = new HashMap<>();
+        for (Set<Subscription> set : subscriptions.values()) {
+            for (Subscription subscription : set) {
+                if (FlashSaleTicketStatus.QUEUED.name().equals(subscription.lastStatus)) {
+                    queuedByProduct.computeIfAbsent(subscription.productId, k -> new ArrayList<>()).add(subscription);
+                } else if (heartbeatDue) {
+                    subscription.ping();
+                }
+            }
+        }
+
+        List<FlashSaleRedisRepository.TicketHeartbeat> heartbeats = new ArrayList<>();
+        for (Map.Entry<Long, List<Subscription>> entry : queuedByProduct.entrySet()) {
+            try {
+                pushQueued(entry.getKey(), entry.getValue(), heartbeatDue ? heartbeats : null);
+            } catch (Exception e) {
+                log.warn("[flashsale.stream] 推播排隊位置失敗 productId={}, error={}", entry.getKey(), e.getMessage());
+            }
+        }
+
+        if (!heartbeats.isEmpty()) {
+            redisRepository.heartbeatTickets(heartbeats, ticketTtl);
+        }
+    }
+
+    private void pushQueued(long productId, List<Subscription> queued,
+                            List<FlashSaleRedisRepository.TicketHeartbeat> heartbeats) {
+        FlashSaleRedisRepository.QueueProgress progress = redisRepository.getQueueProgress(productId);
+
+        for (Subscription subscription : queued) {
+            if (subscription.enqueueSeq == null) continue;
+
+            long ahead = subscription.enqueueSeq - progress.dequeued();
+            if (ahead <= 0) {
+                // 已出隊：確認是否漏接狀態事件（仍是 QUEUED 代表尚未開始處理）
+                String status = redisRepository.getTicketStatusField(subscription.ticketId);
+                if (!FlashSaleTicketStatus.QUEUED.name().equals(status)) {
+                    subscription.send(flashSaleService.peekTicketStatus(subscription.ticketId));
+                    continue;
+                }
+            }
+
+            int position = (int) Math.max(1L, ahead);
+            Long etaSeconds = null;
+            if (progress.dequeueRate() != null && progress.dequeueRate() > 0d) {
+                etaSeconds = (long) Math.ceil(position / progress.dequeueRate());
+            }
+
+            if (position != subscription.lastPosition) {
+                subscription.send(new FlashSaleDtos.TicketStatusResponse(
+                        subscription.ticketId, productId, FlashSaleTicketStatus.QUEUED.name(),
+                        position, etaSeconds, null, subscription.enqueueSeq, null));
+            } else if (heartbeats != null) {
+                subscription.ping();
+            }
+
+            // ping/推播失敗代表連線已斷，不再替它續命
+            if (heartbeats != null && !subscription.done) {
+                heartbeats.add(new FlashSaleRedisRepository.TicketHeartbeat(
+                        subscription.ticketId, productId, subscription.userId));
+            }
+        }
+    }
+
+    private void unregister(Subscription subscription) {
+        subscription.done = true;
+        subscriptions.computeIfPresent(subscription.ticketId, (k, set) -> {
+            set.remove(subscription);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private static boolean isFinal(String status) {
+        return !FlashSaleTicketStatus.QUEUED.name().equals(status)
+                && !FlashSaleTicketStatus.PROCESSING.name().equals(status);
+    }
+
+    private final class Subscription {
+        private final String ticketId;
+        private final long productId;
+        private final long userId;
+        private final Long enqueueSeq;
+        private final SseEmitter emitter;
+        // 寫 SSE 是網路 I/O：用 ReentrantLock 而非 synchronized，virtual thread 等待時不會 pin 住載體執行緒
+        private final ReentrantLock sendLock = new ReentrantLock();
+
+        private volatile String lastStatus;
+        private volatile int lastPosition = -1;
+        private volatile boolean done;
+
+        private Subscription(String ticketId, long productId, long userId, Long enqueueSeq, SseEmitter emitter) {
+            this.ticketId = ticketId;
+            this.productId = productId;
+            this.userId = userId;
+            this.enqueueSeq = enqueueSeq;
+            this.emitter = emitter;
+        }
+
+        /**
+         * 初始狀態只在還沒推過任何事件時送出（避免蓋掉已先到的 PROCESSING/SUCCESS）
+         */
+        private void sendInitial(FlashSaleDtos.TicketStatusResponse status) {
+            sendLock.lock();
+            try {
+                if (lastStatus == null) send(status);
+            } finally {
+                sendLock.unlock();
+            }
+        }
+
+        private void send(FlashSaleDtos.TicketStatusResponse status) {
+            sendLock.lock();
+            try {
+                if (done) return;
+                emitter.send(SseEmitter.event().name("status").data(status, MediaType.APPLICATION_JSON));
+                lastStatus = status.status();
+                lastPosition = status.position() == null ? -1 : status.position();
+                if (isFinal(status.status())) {
+                    done = true;
+                    emitter.complete();
+                }
+            } catch (IOException | IllegalStateException e) {
+                // 連線已斷：交給 onCompletion/onError 清理，這裡只停止後續推播
+                done = true;
+                unregister(this);
+            } finally {
+                sendLock.unlock();
+            }
+        }
+
+        private void ping() {
+            sendLock.lock();
+            try {
+                if (done) return;
+                emitter.send(SseEmitter.event().comment("ping"));
+            } catch (IOException | IllegalStateException e) {
+                done = true;
+                unregister(this);
+            } finally {
+                sendLock.unlock();
+            }
+        }
+    }
+}
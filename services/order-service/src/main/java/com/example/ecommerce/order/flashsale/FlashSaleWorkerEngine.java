@@ -0,0 +1,274 @@
+package com.example.ecommerce.order.flashsale;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 多商品搶購 worker engine：
+ * - 定期從 Redis 集合 flash:active-products 找出進行中的搶購商品
+ * - 每個商品有自己的 drain loop，每個 drain loop 一條專用執行緒（不再擠在 @Scheduled 單一執行緒）；
+ *   同時存在的 drain loop 總數以 Semaphore 限制在 max-threads
+ * - drain loop 數量依隊列深度伸縮：depth / ticketsPerDrainer，上限 maxDrainersPerProduct
+ * - 每個商品各自累計處理張數與吞吐量，可用來確認多個搶購是平行排空
+ * - 以 Redis 隊頭計數量測全域出隊速率（含其他 pod），寫回 Redis 供狀態查詢估算 ETA
+ */
+@Component
+public class FlashSaleWorkerEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(FlashSaleWorkerEngine.class);
+
+    private final FlashSaleRedisRepository redisRepository;
+    private final FlashSaleQueueWorker queueWorker;
+    private final MeterRegistry meterRegistry;
+
+    private final int maxDrainersPerProduct;
+    private final long ticketsPerDrainer;
+    private final Duration dequeueRateTtl;
+
+    private final int maxThreads;
+    private final Semaphore drainPermits;
+    private final SimpleAsyncTaskExecutor executor;
+    private final Map<Long, ProductDrain> drains = new ConcurrentHashMap<>();
+
+    private volatile boolean shuttingDown = false;
+
+    public FlashSaleWorkerEngine(
+            FlashSaleRedisRepository redisRepository,
+            FlashSaleQueueWorker queueWorker,
+            MeterRegistry meterRegistry,
+            Environment environment,
+            @Value("${flashsale.worker.max-threads:16}") int maxThreads,
+            @Value("${flashsale.worker.max-drainers-per-product:4}") int maxDrainersPerProduct,
+            @Value("${flashsale.worker.tickets-per-drainer:50}") long ticketsPerDrainer,
+            @Value("${flashsale.worker.dequeue-rate-ttl-seconds:5}") long dequeueRateTtlSeconds
+    ) {
+        this.redisRepository = redisRepository;
+        this.queueWorker = queueWorker;
+        this.meterRegistry = meterRegistry;
+        this.maxDrainersPerProduct = Math.max(1, maxDrainersPerProduct);
+        this.ticketsPerDrainer = Math.max(1, ticketsPerDrainer);
+        this.dequeueRateTtl = Duration.ofSeconds(Math.max(1, dequeueRateTtlSeconds));
+
+        // 每個 drain loop 開一條新執行緒（不做池化：virtual thread 本來就不該放進池裡重用），
+        // 上限改由 Semaphore 控制：拿不到 permit 就不開，由下一輪 discover 再補
+        // virtual thread 模式（Java 21 + spring.threads.virtual.enabled）才會開 virtual thread；Java 17 上 Threading.VIRTUAL 永遠不成立
+        boolean virtual = Threading.VIRTUAL.isActive(environment);
+        this.maxThreads = Math.max(1, maxThreads);
+        this.drainPermits = new Semaphore(this.maxThreads);
+        this.executor = new SimpleAsyncTaskExecutor("flash-drain-");
+        this.executor.setVirtualThreads(virtual);
+        log.info("[worker.engine] drain executor threads={}, maxThreads={}", virtual ? "virtual" : "platform", this.maxThreads);
+    }
+
+    /**
+     * 發現進行中的搶購並調整每個商品的 drain loop 數量
+     * （只做 SMEMBERS + LLEN，真正的出隊/處理都在專用 executor 上）
+     */
+    @Scheduled(fixedDelayString = "${flashsale.worker.poll-interval-ms:30}")
+    public void discover() {
+        if (shuttingDown) return;
+
+        Set<Long> activeProducts = redisRepository.findActiveProducts();
+        long now = System.nanoTime();
+
+        for (Long productId : activeProducts) {
+            ProductDrain drain = drains.computeIfAbsent(productId, this::newDrain);
+            if (drain.sampleThroughput(now)) {
+                sampleDequeueRate(drain);
+            }
+            scale(drain);
+        }
+
+        // 已不在 active 集合、且沒有 drain loop 在跑的商品：只更新吞吐量（保留統計供查詢）
+        for (ProductDrain drain : drains.values()) {
+            if (!activeProducts.contains(drain.productId)) {
+                drain.sampleThroughput(now);
+                drain.queueDepth = 0L;
+            }
+        }
+    }
+
+    /**
+     * 全域出隊速率：每個 pod 讀同一個隊頭計數，算出來的速率一致，誰最後寫入都一樣
+     */
+    private void sampleDequeueRate(ProductDrain drain) {
+        long dequeued = redisRepository.getDequeuedCount(drain.productId);
+        if (drain.updateDequeueRate(dequeued)) {
+            redisRepository.saveDequeueRate(drain.productId, drain.dequeueRate, dequeueRateTtl);
+        }
+    }
+
+    private void scale(ProductDrain drain) {
+        long depth = redisRepository.queueDepth(drain.productId);
+        drain.queueDepth = depth;
+
+        if (depth == 0) {
+            if (drain.running.get() == 0 && redisRepository.deactivateIfDrained(drain.productId)) {
+                log.info("[worker.engine] 隊列已排空，移出進行中搶購 productId={}, processed={}",
+                        drain.productId, drain.processed.sum());
+            }
+            return;
+        }
+
+        long wanted = (depth + ticketsPerDrainer - 1) / ticketsPerDrainer;
+        int desired = (int) Math.min(maxDrainersPerProduct, Math.max(1, wanted));
+
+        while (drain.running.get() < desired) {
+            if (!drainPermits.tryAcquire()) {
+                log.debug("[worker.engine] drain 執行緒已滿，下一輪再補 productId={}, depth={}", drain.productId, depth);
+                break;
+            }
+            drain.running.incrementAndGet();
+            try {
+                executor.execute(() -> drainLoop(drain));
+            } catch (RuntimeException e) {
+                drain.running.decrementAndGet();
+                drainPermits.release();
+                log.warn("[worker.engine] 無法啟動 drain 執行緒 productId={}, error={}", drain.productId, e.getMessage());
+                break;
+            }
+        }
+    }
+
+    private void drainLoop(ProductDrain drain) {
+        try {
+            while (!shuttingDown) {
+                FlashSaleQueueWorker.DrainResult result = queueWorker.drainOnce(drain.productId);
+                if (result.status() == FlashSaleQueueWorker.Status.EMPTY) return;
+
+                drain.processed.add(result.tickets());
+                drain.counter.increment(result.tickets());
+            }
+        } catch (Exception e) {
+            log.error("[worker.engine] drain loop 發生例外 productId={}, error={}", drain.productId, e.getMessage(), e);
+        } finally {
+            drain.running.decrementAndGet();
+            drainPermits.release();
+        }
+    }
+
+    private ProductDrain newDrain(long productId) {
+        Counter counter = Counter.builder("flashsale.worker.tickets")
+                .description("Flash-sale tickets dequeued and processed")
+                .tag("productId", String.valueOf(productId))
+                .register(meterRegistry);
+        return new ProductDrain(productId, counter, System.nanoTime());
+    }
+
+    /**
+     * 每個商品目前的排空狀態（internal stats endpoint 使用）
+     */
+    public List<DrainStats> snapshot() {
+        List<DrainStats> stats = new ArrayList<>();
+        for (ProductDrain drain : drains.values()) {
+            stats.add(new DrainStats(
+                    drain.productId,
+                    drain.queueDepth,
+                    drain.running.get(),
+                    drain.processed.sum(),
+                    drain.ticketsPerSecond,
+                    drain.dequeueRate
+            ));
+        }
+        stats.sort(Comparator.comparingLong(DrainStats::productId));
+        return stats;
+    }
+
+    /**
+     * 停止開新的 drain loop，最多等 5 秒讓執行中的 drain loop 做完手上那一批（全部 permit 歸還即代表都已結束）
+     */
+    @PreDestroy
+    public void shutdown() {
+        shuttingDown = true;
+        try {
+            if (!drainPermits.tryAcquire(maxThreads, 5, TimeUnit.SECONDS)) {
+                log.warn("[worker.engine] 關閉時仍有 drain loop 未結束 running={}", maxThreads - drainPermits.availablePermits());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public record DrainStats(
+            long productId,
+            long queueDepth,
+            int drainers,
+            long processed,
+            double ticketsPerSecond,  // 本 pod 的處理速度
+            double dequeueRate        // 全域出隊速度（所有 pod 合計）
+    ) {}
+
+    private static final class ProductDrain {
+        private final long productId;
+        private final Counter counter;
+        private final AtomicInteger running = new AtomicInteger();
+        private final LongAdder processed = new LongAdder();
+
+        private volatile long queueDepth;
+        private volatile double ticketsPerSecond;
+        private volatile double dequeueRate;
+
+        // 吞吐量取樣只在 discover（單一排程執行緒）更新
+        private long lastSampleNanos;
+        private long lastSampleProcessed;
+        private long lastSampleDequeued = -1L;
+        private long lastDequeueElapsedNanos;
+
+        private ProductDrain(long productId, Counter counter, long nowNanos) {
+            this.productId = productId;
+            this.counter = counter;
+            this.lastSampleNanos = nowNanos;
+        }
+
+        /**
+         * 以 EWMA 平滑每輪 discover 之間的處理速度（張/秒）
+         */
+        private boolean sampleThroughput(long nowNanos) {
+            long elapsed = nowNanos - lastSampleNanos;
+            if (elapsed < TimeUnit.MILLISECONDS.toNanos(500)) return false;
+
+            long total = processed.sum();
+            double instant = (total - lastSampleProcessed) * 1_000_000_000d / elapsed;
+            ticketsPerSecond = ticketsPerSecond == 0d ? instant : ticketsPerSecond * 0.7 + instant * 0.3;
+
+            lastSampleNanos = nowNanos;
+            lastSampleProcessed = total;
+            lastDequeueElapsedNanos = elapsed;
+            return true;
+        }
+
+        /**
+         * 以同一個取樣區間計算隊頭計數的增量（第一次取樣只記基準值）
+         */
+        private boolean updateDequeueRate(long dequeued) {
+            long previous = lastSampleDequeued;
+            lastSampleDequeued = dequeued;
+            if (previous < 0 || dequeued < previous) return false;
+
+            double instant = (dequeued - previous) * 1_000_000_000d / lastDequeueElapsedNanos;
+            dequeueRate = dequeueRate == 0d ? instant : dequeueRate * 0.7 + instant * 0.3;
+            return true;
+        }
+    }
+}
@@ -1,23 +1,37 @@
 package com.example.ecommerce.order.internal;
 
+import com.example.ecommerce.order.api.dto.FlashSaleDtos;
 import com.example.ecommerce.order.flashsale.FlashSaleEvidenceService;
+import com.example.ecommerce.order.flashsale.FlashSaleService;
+import com.example.ecommerce.order.flashsale.FlashSaleWorkerEngine;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
 /**
  * 內部證據輸出 API（不走 Gateway）
  *
  * 用途：
  * - 壓測後查詢 SUCCESS winners 與 FIFO 證據（enqueueSeq/successSeq）
+ * - 查詢 worker engine 每個商品的排空進度與吞吐量
+ * - 開賣前 arm 庫存閘門 / 結束後 disarm
  */
 @RestController
 @RequestMapping("/internal/flashsale")
 public class FlashSaleInternalController {
 
     private final FlashSaleEvidenceService evidenceService;
+    private final FlashSaleWorkerEngine workerEngine;
+    private final FlashSaleService flashSaleService;
     private final InternalApiAuth internalApiAuth;
 
-    public FlashSaleInternalController(FlashSaleEvidenceService evidenceService, InternalApiAuth internalApiAuth) {
+    public FlashSaleInternalController(FlashSaleEvidenceService evidenceService,
+                                       FlashSaleWorkerEngine workerEngine,
+                                       FlashSaleService flashSaleService,
+                                       InternalApiAuth internalApiAuth) {
         this.evidenceService = evidenceService;
+        this.workerEngine = workerEngine;
+        this.flashSaleService = flashSaleService;
         this.internalApiAuth = internalApiAuth;
     }
 
@@ -36,4 +50,28 @@ public class FlashSaleInternalController {
         int resolvedLimit = Math.min(Math.max(limit, 1), 2000);
         return evidenceService.getWinners(productId, resolvedLimit, sinceSeconds);
     }
-}
\ No newline at end of file
+
+    /**
+     * worker engine 統計：每個商品的隊列深度、drain loop 數量、已處理張數與吞吐量（張/秒）
+     */
+    @GetMapping("/worker/stats")
+    public List<FlashSaleWorkerEngine.DrainStats> workerStats() {
+        internalApiAuth.requireInternalToken();
+        return workerEngine.snapshot();
+    }
+
+    /**
+     * 開賣前 arm：以 product-service 目前庫存設定 Redis 庫存閘門
+     */
+    @PostMapping("/{productId}/arm")
+    public FlashSaleDtos.StockGateResponse arm(@PathVariable("productId") long productId) {
+        internalApiAuth.requireInternalToken();
+        return flashSaleService.armSale(productId);
+    }
+
+    @DeleteMapping("/{productId}/arm")
+    public FlashSaleDtos.StockGateResponse disarm(@PathVariable("productId") long productId) {
+        internalApiAuth.requireInternalToken();
+        return flashSaleService.disarmSale(productId);
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.ecommerce.order.outbox;
+
+import com.example.ecommerce.order.domain.OrderOutboxEntity;
+import com.example.ecommerce.order.redis.RedisLockService;
+import com.example.ecommerce.order.repo.OrderOutboxRepository;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 訂單 outbox relay：order_outbox → Redis Stream（orders:events）
+ * - 同一時間只有一個 pod 發佈（Redis lock），依 eventSeq 順序批次 XADD（pipeline）；
+ *   同一使用者的事件在建單時已依 commit 順序排隊（userVersion），所以 eventSeq 順序與 userVersion 一致
+ * - 整批 XADD 成功後才刪除 outbox 列；中途失敗下次整批重送（at-least-once，consumer 以 eventId 去重）
+ * - 一次排程最多連續發佈 max-batches-per-run 批，搶購爆量時不必等下一輪
+ * - 指標：orders.outbox.relay.lag（事件建立到發佈的延遲）、orders.outbox.relay.batch.size（每批筆數）
+ */
+@Component
+public class OrderOutboxRelay {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderOutboxRelay.class);
+
+    public static final String STREAM_KEY = "orders:events";
+    private static final String LOCK_KEY = "orders:outbox-relay:lock";
+
+    private final OrderOutboxRepository outboxRepository;
+    private final StringRedisTemplate redis;
+    private final RedisLockService lockService;
+    private final Timer relayLag;
+    private final DistributionSummary relayBatchSize;
+
+    private final int batchSize;
+    private final int maxBatchesPerRun;
+    private final long streamMaxLen;
+    private final Duration lockTtl;
+
+    public OrderOutboxRelay(
+            OrderOutboxRepository outboxRepository,
+            StringRedisTemplate redis,
+            RedisLockService lockService,
+            MeterRegistry meterRegistry,
+            @Value("${orders.outbox.batch-size:200}") int batchSize,
+            @Value("${orders.outbox.max-batches-per-run:20}") int maxBatchesPerRun,
+            @Value("${orders.outbox.stream-max-len:100000}") long streamMaxLen,
+            @Value("${orders.outbox.lock-ttl-seconds:30}") long lockTtlSeconds
+    ) {
+        this.outboxRepository = outboxRepository;
+        this.redis = redis;
+        this.lockService = lockService;
+        this.relayLag = Timer.builder("orders.outbox.relay.lag")
+                .description("Time from order creation to publish on the orders:events stream")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        this.relayBatchSize = DistributionSummary.builder("orders.outbox.relay.batch.size")
+                .description("Outbox rows published per relay batch")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        this.batchSize = Math.max(1, batchSize);
+        this.maxBatchesPerRun = Math.max(1, maxBatchesPerRun);
+        this.streamMaxLen = streamMaxLen;
+        this.lockTtl = Duration.ofSeconds(lockTtlSeconds);
+    }
+
+    @Scheduled(fixedDelayString = "${orders.outbox.relay-interval-ms:200}")
+    public void relay() {
+        String lockValue = lockService.tryLock(LOCK_KEY, lockTtl);
+        if (lockValue == null) return;
+
+        try {
+            for (int i = 0; i < maxBatchesPerRun; i++) {
+                if (relayBatch() < batchSize) break;
+            }
+        } catch (RuntimeException e) {
+            log.warn("[orders.outbox] 發佈失敗，下次重送 error={}", e.getMessage());
+        } finally {
+            lockService.unlock(LOCK_KEY, lockValue);
+        }
+    }
+
+    /**
+     * @return 本批發佈筆數
+     */
+    private int relayBatch() {
+        List<OrderOutboxEntity> batch = outboxRepository.findNextBatch(Limit.of(batchSize));
+        if (batch.isEmpty()) return 0;
+
+        byte[] streamKey = STREAM_KEY.getBytes(StandardCharsets.UTF_8);
+        RedisStreamCommands.XAddOptions options = RedisStreamCommands.XAddOptions.maxlen(streamMaxLen).approximateTrimming(true);
+        redis.executePipelined((RedisCallback<Object>) connection -> {
+            for (OrderOutboxEntity event : batch) {
+                connection.streamCommands().xAdd(MapRecord.create(streamKey, toFields(event)), options);
+            }
+            return null;
+        });
+
+        outboxRepository.deletePublished(batch.stream().map(OrderOutboxEntity::getId).toList());
+
+        Instant now = Instant.now();
+        for (OrderOutboxEntity event : batch) {
+            relayLag.record(Duration.between(event.getCreatedAt(), now));
+        }
+        relayBatchSize.record(batch.size());
+        log.debug("[orders.outbox] 已發佈事件 count={}, lastEventSeq={}", batch.size(), batch.get(batch.size() - 1).getEventSeq());
+        return batch.size();
+    }
+
+    private Map<byte[], byte[]> toFields(OrderOutboxEntity event) {
+        Map<byte[], byte[]> fields = new LinkedHashMap<>();
+        put(fields, "eventId", String.valueOf(event.getId()));
+        put(fields, "eventSeq", String.valueOf(event.getEventSeq()));
+        put(fields, "type", event.getEventType());
+        put(fields, "orderId", String.valueOf(event.getOrderId()));
+        put(fields, "userId", String.valueOf(event.getUserId()));
+        if (event.getUserVersion() != null) {
+            put(fields, "userVersion", String.valueOf(event.getUserVersion()));
+        }
+        put(fields, "createdAt", event.getCreatedAt().toString());
+        put(fields, "payload", event.getPayload());
+        return fields;
+    }
+
+    private void put(Map<byte[], byte[]> fields, String key, String value) {
+        fields.put(key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.ecommerce.order.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 我的訂單 read-through 快取（Redis）：
+ * - orders:history:{userId}：hash，field = "{size}:{cursor}"，value = 該頁 JSON（含 ETag）
+ * - orders:history-version:{userId}：該使用者訂單版本號
+ * 讀取未命中時先記下版本號再查 DB，回填時版本號仍相同才寫入；
+ * 訂單 commit 後 INCR 版本號再 DEL hash，查詢中途有新訂單 commit 的舊結果不會被寫回快取
+ */
+@Service
+public class OrderHistoryCache {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderHistoryCache.class);
+
+    private static final String HISTORY_KEY_PREFIX = "orders:history:";
+    private static final String VERSION_KEY_PREFIX = "orders:history-version:";
+    // 版本號過期歸零也安全（hash 已同時 DEL）；只需遠大於一次 DB 查詢的時間
+    private static final long VERSION_TTL_SECONDS = 86400;
+
+    /**
+     * 一次 RTT 取回快取頁與目前版本號
+     * KEYS[1] = history hash, KEYS[2] = version key
+     * ARGV[1] = field
+     * 回傳：{ 該頁 JSON（未命中為 nil）, 版本號（不存在為 "0"） }
+     */
+    private static final DefaultRedisScript<List> READ_SCRIPT = new DefaultRedisScript<>(
+            """
+            return { redis.call('HGET', KEYS[1], ARGV[1]) or false, redis.call('GET', KEYS[2]) or '0' }
+            """,
+            List.class
+    );
+
+    /**
+     * 版本號未變才回填
+     * KEYS[1] = history hash, KEYS[2] = version key
+     * ARGV[1] = 查 DB 前讀到的版本號, ARGV[2] = field, ARGV[3] = 該頁 JSON, ARGV[4] = TTL（秒）
+     */
+    private static final DefaultRedisScript<Long> FILL_SCRIPT = new DefaultRedisScript<>(
+            """
+            if (redis.call('GET', KEYS[2]) or '0') ~= ARGV[1] then
+              return 0
+            end
+            redis.call('HSET', KEYS[1], ARGV[2], ARGV[3])
+            redis.call('EXPIRE', KEYS[1], ARGV[4])
+            return 1
+            """,
+            Long.class
+    );
+
+    private final StringRedisTemplate redis;
+    private final Duration ttl;
+
+    public OrderHistoryCache(StringRedisTemplate redis,
+                             @Value("${orders.history-cache.ttl-seconds:300}") long ttlSeconds) {
+        this.redis = redis;
+        this.ttl = Duration.ofSeconds(ttlSeconds);
+    }
+
+    public record Lookup(String cachedJson, String version) {}
+
+    /**
+     * Redis 失敗時回傳 null（呼叫端直接查 DB，不回填）
+     */
+    public Lookup read(long userId, String field) {
+        try {
+            List<?> result = redis.execute(READ_SCRIPT, List.of(historyKey(userId), versionKey(userId)), field);
+            if (result == null || result.size() < 2) return null;
+            Object cached = result.get(0);
+            return new Lookup(cached == null ? null : String.valueOf(cached), String.valueOf(result.get(1)));
+        } catch (RuntimeException e) {
+            log.warn("[orders.history-cache] 讀取快取失敗 userId={}, error={}", userId, e.getMessage());
+            return null;
+        }
+    }
+
+    public void fill(long userId, String version, String field, String json) {
+        try {
+            redis.execute(FILL_SCRIPT, List.of(historyKey(userId), versionKey(userId)),
+                    version, field, json, String.valueOf(ttl.toSeconds()));
+        } catch (RuntimeException e) {
+            log.warn("[orders.history-cache] 回填快取失敗 userId={}, error={}", userId, e.getMessage());
+        }
+    }
+
+    /**
+     * 訂單 commit 後呼叫：每個使用者 INCR 版本號 → DEL 快取（pipeline，一次 RTT）
+     * 先 INCR 再 DEL：兩者之間的回填會因版本號不符被擋下
+     */
+    public void invalidate(Collection<Long> userIds) {
+        if (userIds.isEmpty()) return;
+        try {
+            redis.executePipelined((RedisCallback<Object>) connection -> {
+                for (Long userId : userIds) {
+                    byte[] versionKey = versionKey(userId).getBytes(StandardCharsets.UTF_8);
+                    connection.stringCommands().incr(versionKey);
+                    connection.keyCommands().expire(versionKey, VERSION_TTL_SECONDS);
+                    connection.keyCommands().del(historyKey(userId).getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            log.error("[orders.history-cache] 失效快取失敗（最多 {} 秒後過期）userIds={}, error={}",
+                    ttl.toSeconds(), userIds, e.getMessage());
+        }
+    }
+
+    private String historyKey(long userId) {
+        return HISTORY_KEY_PREFIX + userId;
+    }
+
+    private String versionKey(long userId) {
+        return VERSION_KEY_PREFIX + userId;
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.ecommerce.order.repo;
+
+import com.example.ecommerce.order.domain.OrderOutboxEntity;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 訂單 outbox：
+ * - findNextBatch：依 eventSeq 取出最早的一批待發佈事件
+ * - deletePublished：發佈到 Redis Stream 之後刪除（刪除前當機會重送，consumer 以 eventId 去重）
+ */
+public interface OrderOutboxRepository extends JpaRepository<OrderOutboxEntity, Long> {
+
+    @Query("SELECT e FROM OrderOutboxEntity e ORDER BY e.eventSeq")
+    List<OrderOutboxEntity> findNextBatch(Limit limit);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM OrderOutboxEntity e WHERE e.id IN :ids")
+    int deletePublished(@Param("ids") Collection<Long> ids);
+}
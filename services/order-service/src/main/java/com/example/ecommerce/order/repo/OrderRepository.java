@@ -1,14 +1,70 @@
 package com.example.ecommerce.order.repo;
 
 import com.example.ecommerce.order.domain.OrderEntity;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 
 /**
  * 訂單查詢：
- * - findByUserId：查詢該使用者的訂單
+ * - findHistoryFirstPage / findHistoryAfter：我的訂單 keyset 分頁（createdAt DESC, id DESC），
+ *   走 (user_id, created_at, id) 複合索引，只投影主檔欄位，不載入 entity
+ * - findItemsByOrderIds：一頁訂單的明細一次 IN 查詢取回（取代每筆訂單 lazy load items 的 N+1）
  */
 public interface OrderRepository extends JpaRepository<OrderEntity, Long> {
-    List<OrderEntity> findByUserIdOrderByCreatedAtDesc(Long userId);
+    @Query("""
+            SELECT o.id AS id, o.totalAmount AS totalAmount, o.status AS status, o.createdAt AS createdAt
+            FROM OrderEntity o
+            WHERE o.userId = :userId
+            ORDER BY o.createdAt DESC, o.id DESC
+            """)
+    List<OrderSummaryView> findHistoryFirstPage(@Param("userId") Long userId, Limit limit);
+
+    /**
+     * cursor 之後（更舊）的下一頁
+     * createdAt <= :createdAt 讓索引掃描直接從 cursor 位置開始，OR 條件只處理同一時間戳的 id 排序
+     */
+    @Query("""
+            SELECT o.id AS id, o.totalAmount AS totalAmount, o.status AS status, o.createdAt AS createdAt
+            FROM OrderEntity o
+            WHERE o.userId = :userId
+              AND o.createdAt <= :createdAt
+              AND (o.createdAt < :createdAt OR o.id < :id)
+            ORDER BY o.createdAt DESC, o.id DESC
+            """)
+    List<OrderSummaryView> findHistoryAfter(@Param("userId") Long userId,
+                                            @Param("createdAt") Instant createdAt,
+                                            @Param("id") Long id,
+                                            Limit limit);
+
+    @Query("""
+            SELECT i.order.id AS orderId, i.productId AS productId, i.productName AS productName,
+                   i.quantity AS quantity, i.unitPrice AS unitPrice, i.lineAmount AS lineAmount
+            FROM OrderItemEntity i
+            WHERE i.order.id IN :orderIds
+            ORDER BY i.order.id, i.id
+            """)
+    List<OrderItemView> findItemsByOrderIds(@Param("orderIds") Collection<Long> orderIds);
+
+    interface OrderSummaryView {
+        Long getId();
+        BigDecimal getTotalAmount();
+        String getStatus();
+        Instant getCreatedAt();
+    }
+
+    interface OrderItemView {
+        Long getOrderId();
+        Long getProductId();
+        String getProductName();
+        Integer getQuantity();
+        BigDecimal getUnitPrice();
+        BigDecimal getLineAmount();
+    }
 }
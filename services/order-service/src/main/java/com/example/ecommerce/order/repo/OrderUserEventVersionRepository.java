@@ -0,0 +1,36 @@
+package com.example.ecommerce.order.repo;
+
+import com.example.ecommerce.order.domain.OrderUserEventVersionEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+/**
+ * 使用者事件版本號：
+ * - allocate：counts 為 JSON 陣列 [{"user_id":1,"count":2}, ...]，每位使用者的版本號一次加上 count，回傳加完後的值
+ *   （呼叫端以 version - count + 1 .. version 分配給這批事件）
+ * - 依 user_id 順序 upsert，列鎖持有到交易結束：同一使用者的兩個建單交易在這裡排隊，
+ *   後者的 outbox 列一定在前者 commit 之後才 INSERT（eventSeq 也較大）
+ * - 必須在呼叫端的交易內執行
+ */
+public interface OrderUserEventVersionRepository extends JpaRepository<OrderUserEventVersionEntity, Long> {
+
+    @Query(value = """
+            INSERT INTO order_user_event_version (user_id, version)
+            SELECT r.user_id, SUM(r.count)
+            FROM jsonb_to_recordset(CAST(:counts AS jsonb)) AS r(user_id bigint, count int)
+            GROUP BY r.user_id
+            ORDER BY r.user_id
+            ON CONFLICT (user_id) DO UPDATE
+                SET version = order_user_event_version.version + EXCLUDED.version
+            RETURNING user_id AS userId, version
+            """, nativeQuery = true)
+    List<UserVersionView> allocate(@Param("counts") String countsJson);
+
+    interface UserVersionView {
+        Long getUserId();
+        Long getVersion();
+    }
+}
@@ -2,25 +2,49 @@ package com.example.ecommerce.order.service;
 
 import com.example.ecommerce.order.api.dto.OrderDtos;
 import com.example.ecommerce.order.client.ProductClient;
+import com.example.ecommerce.order.client.ProductInfoCache;
 import com.example.ecommerce.order.domain.OrderEntity;
 import com.example.ecommerce.order.domain.OrderItemEntity;
+import com.example.ecommerce.order.domain.OrderOutboxEntity;
+import com.example.ecommerce.order.redis.OrderHistoryCache;
+import com.example.ecommerce.order.repo.OrderOutboxRepository;
 import com.example.ecommerce.order.repo.OrderRepository;
+import com.example.ecommerce.order.repo.OrderUserEventVersionRepository;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.DigestUtils;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * 下單核心流程（搶購重點）：
  * 1) 取得商品鎖（Redis）
  * 2) 呼叫 product-service internal reserve（DB 原子扣庫存）
  * 3) 成功才寫入訂單（PostgreSQL）
+ *
+ * 交易邊界：Feign 呼叫（商品資訊、扣庫存）一律在交易外完成，
+ * 交易只包最後的 INSERT（TransactionTemplate），慢的 product-service 不會佔住 Hikari 連線；
+ * 寫訂單失敗時呼叫 release 歸還已扣的庫存
  */
 @Service
 public class OrderService {
@@ -29,40 +53,88 @@ public class OrderService {
 
     private final OrderRepository orderRepository;
     private final ProductClient productClient;
+    private final ProductInfoCache productInfoCache;
+    private final TransactionTemplate transactionTemplate;
+    private final OrderHistoryCache historyCache;
+    private final OrderOutboxRepository outboxRepository;
+    private final OrderUserEventVersionRepository userEventVersionRepository;
+    private final ObjectMapper objectMapper;
 
     public OrderService(OrderRepository orderRepository,
-                        ProductClient productClient) {
+                        ProductClient productClient,
+                        ProductInfoCache productInfoCache,
+                        TransactionTemplate transactionTemplate,
+                        OrderHistoryCache historyCache,
+                        OrderOutboxRepository outboxRepository,
+                        OrderUserEventVersionRepository userEventVersionRepository,
+                        ObjectMapper objectMapper) {
         this.orderRepository = orderRepository;
         this.productClient = productClient;
+        this.productInfoCache = productInfoCache;
+        this.transactionTemplate = transactionTemplate;
+        this.historyCache = historyCache;
+        this.outboxRepository = outboxRepository;
+        this.userEventVersionRepository = userEventVersionRepository;
+        this.objectMapper = objectMapper;
     }
 
     /**
      * 搶購下單：單品項、單件
      * - 由 FlashSale worker 呼叫
      * - 金額由 product-service 查到的 price 決定（BigDecimal）
+     * - 庫存由呼叫端先扣好；寫入失敗時由呼叫端負責歸還
      */
-    @Transactional
     public long createFlashSaleOrder(Long userId, Long productId) {
         log.info("[order.flash-sale] 建立搶購訂單 userId={}, productId={}", userId, productId);
-        ProductClient.ProductInfo product = productClient.getProductInfo(productId);
+        ProductClient.ProductInfo product = getFlashSaleProduct(productId);
+
+        OrderEntity order = newFlashSaleOrder(userId, product);
+        OrderEntity saved = persistOrders(List.of(order)).get(0);
+        log.info("[order.flash-sale] 搶購訂單建立成功 userId={}, productId={}, orderId={}", userId, productId, saved.getId());
+        return saved.getId();
+    }
+
+    /**
+     * 搶購批次下單：同一商品的一批得標者在同一個交易內寫入
+     * - 商品資訊只查一次（交易外）
+     * - id 來自 pooled sequence，主檔與明細由 Hibernate JDBC 批次 INSERT（hibernate.jdbc.batch_size / order_inserts）
+     * @return 與 userIds 相同順序的 orderId
+     */
+    public List<Long> createFlashSaleOrders(Long productId, List<Long> userIds) {
+        if (userIds.isEmpty()) return List.of();
+
+        ProductClient.ProductInfo product = getFlashSaleProduct(productId);
+        List<OrderEntity> orders = new ArrayList<>(userIds.size());
+        for (Long userId : userIds) {
+            orders.add(newFlashSaleOrder(userId, product));
+        }
+
+        List<Long> orderIds = persistOrders(orders).stream()
+                .map(OrderEntity::getId)
+                .toList();
+        log.info("[order.flash-sale] 批次建立搶購訂單 productId={}, count={}", productId, orderIds.size());
+        return orderIds;
+    }
+
+    private ProductClient.ProductInfo getFlashSaleProduct(Long productId) {
+        ProductClient.ProductInfo product = productInfoCache.requireType(productId, "FLASH_SALE");
         if (!"FLASH_SALE".equals(product.productType())) {
             log.warn("[order.flash-sale] 商品類型錯誤 productId={}, type={}", productId, product.productType());
             throw new IllegalStateException("非搶購類型商品");
         }
+        return product;
+    }
 
+    private OrderEntity newFlashSaleOrder(Long userId, ProductClient.ProductInfo product) {
         BigDecimal unitPrice = product.price().setScale(2, RoundingMode.HALF_UP);
         BigDecimal lineAmount = unitPrice; // quantity=1
         BigDecimal totalAmount = lineAmount;
 
         OrderEntity order = new OrderEntity(userId, totalAmount, "CREATED");
-        order.addItem(new OrderItemEntity(productId, product.name(), 1, unitPrice, lineAmount));
-
-        OrderEntity saved = orderRepository.save(order);
-        log.info("[order.flash-sale] 搶購訂單建立成功 userId={}, productId={}, orderId={}", userId, productId, saved.getId());
-        return saved.getId();
+        order.addItem(new OrderItemEntity(product.id(), product.name(), 1, unitPrice, lineAmount));
+        return order;
     }
 
-    @Transactional
     public OrderDtos.CreateOrderResult createNormalOrder(Long userId, OrderDtos.CreateNormalOrderRequest request) {
         OrderDtos.CreateOrderResult validatedRequest = validateRequest(request);
         if (!"VALID_REQUEST".equals(validatedRequest.message())) {
@@ -70,10 +142,19 @@ public class OrderService {
             return validatedRequest;
         }
 
-        // 1) 讀取商品資訊（price/type）
+        // 1) 讀取商品資訊（price/type）：本地快取，未命中的整張購物車一次批次查詢
+        Set<Long> productIds = request.items().stream()
+                .map(OrderDtos.CreateNormalOrderItem::productId)
+                .collect(Collectors.toSet());
+        Map<Long, ProductClient.ProductInfo> products = productInfoCache.requireTypes(productIds, "NORMAL");
+
         List<ResolvedItem> resolvedItems = new ArrayList<>();
         for (OrderDtos.CreateNormalOrderItem item : request.items()) {
-            ProductClient.ProductInfo product = productClient.getProductInfo(item.productId());
+            ProductClient.ProductInfo product = products.get(item.productId());
+            if (product == null) {
+                log.warn("[orders.create] 商品不存在 userId={}, productId={}", userId, item.productId());
+                return new OrderDtos.CreateOrderResult(false, "PRODUCT_NOT_FOUND", null);
+            }
 
             if (!"NORMAL".equals(product.productType())) {
                 log.warn("[orders.create] 商品類型不合法 userId={}, productId={}, type={}", userId, item.productId(), product.productType());
@@ -87,13 +168,16 @@ public class OrderService {
             resolvedItems.add(new ResolvedItem(item.productId(), product.name(), qty, unitPrice, lineAmount));
         }
 
-        // 2) 逐筆扣庫存（若中途失敗，這版先丟錯；後續可加 release 補償）
-        for (ResolvedItem item : resolvedItems) {
-            log.info("[orders.create] 扣庫存 productId={}, qty={}", item.productId(), item.quantity());
-            productClient.reserve(item.productId(), new ProductClient.ReserveRequest(item.quantity()));
+        // 2) 整張購物車一次扣庫存（交易外，全有或全無：任一品項失敗就一個都不扣，不需要補償）
+        log.info("[orders.create] 扣庫存 userId={}, items={}", userId, resolvedItems.size());
+        ProductClient.ReserveResponse reserved = productClient.reserveItems(toStockItems(resolvedItems));
+        // product-service 只扣 NORMAL 商品：快取類型若已過期，會在這裡被擋下
+        if (!reserved.success()) {
+            log.warn("[orders.create] 扣庫存失敗 userId={}, reason={}", userId, reserved.message());
+            return new OrderDtos.CreateOrderResult(false, reserved.message(), null);
         }
 
-        // 3) 計算總金額並寫入訂單
+        // 3) 計算總金額並寫入訂單（短交易，只有 INSERT）
         BigDecimal totalAmount = resolvedItems.stream()
                 .map(ResolvedItem::lineAmount)
                 .reduce(BigDecimal.ZERO, BigDecimal::add)
@@ -104,7 +188,14 @@ public class OrderService {
             order.addItem(new OrderItemEntity(item.productId(), item.productName(), item.quantity(), item.unitPrice(), item.lineAmount()));
         }
 
-        OrderEntity saved = orderRepository.save(order);
+        OrderEntity saved;
+        try {
+            saved = persistOrders(List.of(order)).get(0);
+        } catch (RuntimeException e) {
+            log.error("[orders.create] 寫入訂單失敗，歸還庫存 userId={}, error={}", userId, e.getMessage());
+            releaseReserved(resolvedItems);
+            throw e;
+        }
         log.info("[orders.create] 訂單建立成功 userId={}, orderId={}, totalAmount={}", userId, saved.getId(), totalAmount);
         var resp = new OrderDtos.OrderResponse(
                 saved.getId(),
@@ -118,6 +209,128 @@ public class OrderService {
         return new OrderDtos.CreateOrderResult(true, "OK", resp);
     }
 
+    /**
+     * 短交易寫入訂單：
+     * - 訂單與 ORDER_CREATED outbox 事件同一個交易寫入（皆為 pooled sequence，可 JDBC 批次 INSERT），由 OrderOutboxRelay 發佈
+     * - outbox 列之前先取得每位使用者的 userVersion（列鎖到 commit）：同一使用者並發建單時，
+     *   後到的交易等前一個 commit 後才寫 outbox，eventSeq 與 userVersion 都依 commit 順序遞增
+     * - commit 後失效這些使用者的訂單列表快取
+     */
+    private List<OrderEntity> persistOrders(List<OrderEntity> orders) {
+        return transactionTemplate.execute(status -> {
+            List<OrderEntity> saved = orderRepository.saveAll(orders);
+            List<Long> userVersions = allocateUserVersions(saved);
+            List<OrderOutboxEntity> events = new ArrayList<>(saved.size());
+            for (int i = 0; i < saved.size(); i++) {
+                events.add(orderCreatedEvent(saved.get(i), userVersions.get(i)));
+            }
+            outboxRepository.saveAll(events);
+            invalidateHistoryAfterCommit(saved.stream().map(OrderEntity::getUserId).toList());
+            return saved;
+        });
+    }
+
+    /**
+     * 一次 upsert 取得這批訂單的 userVersion
+     * @return 與 orders 相同順序；同一使用者有多筆時依清單順序遞增
+     */
+    private List<Long> allocateUserVersions(List<OrderEntity> orders) {
+        Map<Long, Integer> counts = new LinkedHashMap<>();
+        for (OrderEntity order : orders) {
+            counts.merge(order.getUserId(), 1, Integer::sum);
+        }
+
+        List<UserEventCount> request = counts.entrySet().stream()
+                .map(e -> new UserEventCount(e.getKey(), e.getValue()))
+                .toList();
+        Map<Long, Long> nextVersion = new HashMap<>();
+        try {
+            for (OrderUserEventVersionRepository.UserVersionView row : userEventVersionRepository.allocate(objectMapper.writeValueAsString(request))) {
+                // 回傳的是加完後的版本號，這批從 version - count + 1 開始
+                nextVersion.put(row.getUserId(), row.getVersion() - counts.get(row.getUserId()) + 1);
+            }
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("無法序列化使用者版本請求", e);
+        }
+
+        List<Long> versions = new ArrayList<>(orders.size());
+        for (OrderEntity order : orders) {
+            long version = nextVersion.get(order.getUserId());
+            nextVersion.put(order.getUserId(), version + 1);
+            versions.add(version);
+        }
+        return versions;
+    }
+
+    private record UserEventCount(@JsonProperty("user_id") Long userId, int count) {}
+
+    private OrderOutboxEntity orderCreatedEvent(OrderEntity order, Long userVersion) {
+        OrderDtos.OrderCreatedEvent event = new OrderDtos.OrderCreatedEvent(
+                order.getId(),
+                order.getUserId(),
+                order.getTotalAmount(),
+                order.getStatus(),
+                order.getItems().stream()
+                        .map(i -> new OrderDtos.OrderItemResponse(i.getProductId(), i.getProductName(), i.getQuantity(), i.getUnitPrice(), i.getLineAmount()))
+                        .toList(),
+                order.getCreatedAt());
+        try {
+            return new OrderOutboxEntity(OrderDtos.OrderCreatedEvent.TYPE, order.getId(), order.getUserId(), userVersion,
+                    objectMapper.writeValueAsString(event));
+        } catch (JsonProcessingException e) {
+            // 交易內拋出：訂單一併 rollback，不會有沒有事件的訂單
+            throw new IllegalStateException("無法序列化訂單事件 orderId=" + order.getId(), e);
+        }
+    }
+
+    /**
+     * 在目前交易登記 after-commit：commit 成功才失效這些使用者的訂單列表快取（rollback 不動快取）
+     */
+    private void invalidateHistoryAfterCommit(List<Long> userIds) {
+        List<Long> distinctUserIds = userIds.stream().distinct().toList();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                historyCache.invalidate(distinctUserIds);
+            }
+        });
+    }
+
+    /**
+     * 補償：整張購物車一次歸還。失敗只記錄 error（需人工對帳），不覆蓋原本的失敗原因
+     */
+    private void releaseReserved(List<ResolvedItem> reservedItems) {
+        try {
+            ProductClient.ReleaseResponse released = productClient.releaseItems(toStockItems(reservedItems));
+            if (released.success()) {
+                log.info("[orders.release] 已歸還購物車庫存 items={}", reservedItems.size());
+            } else {
+                log.error("[orders.release] 歸還購物車庫存失敗 items={}, reason={}", reservedItems, released.message());
+            }
+        } catch (RuntimeException e) {
+            log.error("[orders.release] 歸還購物車庫存失敗 items={}, error={}", reservedItems, e.getMessage());
+        }
+    }
+
+    private ProductClient.StockItemsRequest toStockItems(List<ResolvedItem> items) {
+        return new ProductClient.StockItemsRequest(items.stream()
+                .map(i -> new ProductClient.StockItem(i.productId(), i.quantity()))
+                .toList());
+    }
+
+    public void releaseStock(long productId, int quantity) {
+        try {
+            ProductClient.ReleaseResponse released = productClient.release(productId, new ProductClient.ReleaseRequest(quantity));
+            if (released.success()) {
+                log.info("[orders.release] 已歸還庫存 productId={}, qty={}", productId, quantity);
+            } else {
+                log.error("[orders.release] 歸還庫存失敗 productId={}, qty={}, reason={}", productId, quantity, released.message());
+            }
+        } catch (RuntimeException e) {
+            log.error("[orders.release] 歸還庫存失敗 productId={}, qty={}, error={}", productId, quantity, e.getMessage());
+        }
+    }
+
     private OrderDtos.CreateOrderResult validateRequest(OrderDtos.CreateNormalOrderRequest request) {
         if (request == null || request.items() == null || request.items().isEmpty()) {
             return new OrderDtos.CreateOrderResult(false, "BAD_REQUEST", null);
@@ -135,17 +348,105 @@ public class OrderService {
 
     private record ResolvedItem(Long productId, String productName, int quantity, BigDecimal unitPrice, BigDecimal lineAmount) {}
 
-    @Transactional(readOnly = true)
-    public List<OrderDtos.OrderResponse> listMyOrders(Long userId) {
-        return orderRepository.findByUserIdOrderByCreatedAtDesc(userId).stream()
+    /**
+     * 我的訂單（keyset 分頁，新到舊），Redis read-through：
+     * - 命中直接回傳快取頁（不借 DB 連線）
+     * - 未命中查 DB 後以「查詢前的版本號」回填；期間有新訂單 commit 就不回填
+     * @param cursor 上一頁回傳的 nextCursor；null 代表第一頁
+     */
+    public OrderDtos.OrderHistoryPage listMyOrders(Long userId, int size, String cursor) {
+        String normalizedCursor = (cursor == null || cursor.isBlank()) ? null : cursor;
+        String field = size + ":" + (normalizedCursor == null ? "" : normalizedCursor);
+
+        OrderHistoryCache.Lookup lookup = historyCache.read(userId, field);
+        if (lookup != null && lookup.cachedJson() != null) {
+            try {
+                return objectMapper.readValue(lookup.cachedJson(), OrderDtos.OrderHistoryPage.class);
+            } catch (JsonProcessingException e) {
+                log.warn("[orders.history-cache] 快取內容無法解析，改查 DB userId={}", userId);
+            }
+        }
+
+        OrderDtos.OrderHistoryPage page = loadHistoryPage(userId, size, normalizedCursor);
+        if (lookup != null) {
+            try {
+                historyCache.fill(userId, lookup.version(), field, objectMapper.writeValueAsString(page));
+            } catch (JsonProcessingException e) {
+                log.warn("[orders.history-cache] 無法序列化訂單頁 userId={}", userId);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * DB 查詢：
+     * - 主檔一次投影查詢取 size + 1 筆（多取 1 筆判斷是否還有下一頁）
+     * - 該頁明細一次 IN 查詢取回，不載入 entity、沒有 N+1
+     * （兩句查詢各自是 repository 的唯讀交易；訂單寫入後不會再變動，不需要包在同一個交易）
+     */
+    private OrderDtos.OrderHistoryPage loadHistoryPage(Long userId, int size, String cursor) {
+        Limit limit = Limit.of(size + 1);
+        List<OrderRepository.OrderSummaryView> summaries;
+        if (cursor == null) {
+            summaries = orderRepository.findHistoryFirstPage(userId, limit);
+        } else {
+            HistoryCursor after = decodeCursor(cursor);
+            summaries = orderRepository.findHistoryAfter(userId, after.createdAt(), after.id(), limit);
+        }
+
+        boolean hasNext = summaries.size() > size;
+        if (hasNext) summaries = summaries.subList(0, size);
+        if (summaries.isEmpty()) return withEtag(List.of(), null);
+
+        Map<Long, List<OrderDtos.OrderItemResponse>> itemsByOrder = orderRepository.findItemsByOrderIds(
+                        summaries.stream().map(OrderRepository.OrderSummaryView::getId).toList())
+                .stream()
+                .collect(Collectors.groupingBy(
+                        OrderRepository.OrderItemView::getOrderId,
+                        Collectors.mapping(
+                                i -> new OrderDtos.OrderItemResponse(i.getProductId(), i.getProductName(), i.getQuantity(), i.getUnitPrice(), i.getLineAmount()),
+                                Collectors.toList())));
+
+        List<OrderDtos.OrderResponse> orders = summaries.stream()
                 .map(o -> new OrderDtos.OrderResponse(
                         o.getId(),
                         o.getTotalAmount(),
                         o.getStatus(),
-                        o.getItems().stream()
-                                .map(i -> new OrderDtos.OrderItemResponse(i.getProductId(), i.getProductName(), i.getQuantity(), i.getUnitPrice(), i.getLineAmount()))
-                                .toList()
+                        itemsByOrder.getOrDefault(o.getId(), List.of())
                 ))
                 .toList();
+
+        OrderRepository.OrderSummaryView last = summaries.get(summaries.size() - 1);
+        String nextCursor = hasNext ? encodeCursor(last.getCreatedAt(), last.getId()) : null;
+        return withEtag(orders, nextCursor);
     }
+
+    private OrderDtos.OrderHistoryPage withEtag(List<OrderDtos.OrderResponse> orders, String nextCursor) {
+        try {
+            byte[] content = objectMapper.writeValueAsBytes(new OrderDtos.OrderHistoryPage(orders, nextCursor, null));
+            return new OrderDtos.OrderHistoryPage(orders, nextCursor, "\"" + DigestUtils.md5DigestAsHex(content) + "\"");
+        } catch (JsonProcessingException e) {
+            return new OrderDtos.OrderHistoryPage(orders, nextCursor, null);
+        }
+    }
+
+    /**
+     * cursor = base64url("createdAt|id")，對前端是不透明字串
+     */
+    private String encodeCursor(Instant createdAt, Long id) {
+        String raw = createdAt.toString() + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private HistoryCursor decodeCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int sep = raw.indexOf('|');
+            return new HistoryCursor(Instant.parse(raw.substring(0, sep)), Long.parseLong(raw.substring(sep + 1)));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("cursor 格式錯誤");
+        }
+    }
+
+    private record HistoryCursor(Instant createdAt, Long id) {}
 }
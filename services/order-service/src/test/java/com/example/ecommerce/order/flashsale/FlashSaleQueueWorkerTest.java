@@ -0,0 +1,55 @@
+package com.example.ecommerce.order.flashsale;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FlashSaleQueueWorkerTest {
+
+    private static final long PRODUCT_ID = 7L;
+
+    @Test
+    void claimMinIdleDefaultsToHalfTheProcessingTtl() {
+        assertThat(FlashSaleQueueWorker.claimMinIdle(0, Duration.ofSeconds(600))).isEqualTo(Duration.ofSeconds(300));
+    }
+
+    @Test
+    void claimMinIdleStaysBelowTheProcessingTtl() {
+        assertThat(FlashSaleQueueWorker.claimMinIdle(120_000, Duration.ofSeconds(600))).isEqualTo(Duration.ofSeconds(120));
+        assertThat(FlashSaleQueueWorker.claimMinIdle(900_000, Duration.ofSeconds(600))).isEqualTo(Duration.ofSeconds(599));
+    }
+
+    @Test
+    void reclaimedStreamEntriesAreProcessedAsReclaimedThenAcked() {
+        FlashSaleRedisRepository repository = mock(FlashSaleRedisRepository.class);
+        FlashSaleService service = mock(FlashSaleService.class);
+        when(repository.backend()).thenReturn(FlashSaleQueueBackend.STREAM);
+        when(repository.autoClaim(eq(PRODUCT_ID), anyString(), any(), anyInt())).thenReturn(List.of(
+                new FlashSaleRedisRepository.StreamTicket("1-0", "t1"),
+                new FlashSaleRedisRepository.StreamTicket("2-0", "t2")));
+        // t2 已過期：不回傳，直接 ack
+        when(repository.claimForProcessing(eq(PRODUCT_ID), eq(List.of("t1", "t2")), eq(0), any()))
+                .thenReturn(List.of(new FlashSaleRedisRepository.DequeuedTicket("t1", 3L)));
+
+        FlashSaleQueueWorker worker = new FlashSaleQueueWorker(repository, service, 20, 600, "test", 1000, 0, 5000);
+        FlashSaleQueueWorker.DrainResult result = worker.drainOnce(PRODUCT_ID);
+
+        assertThat(result.tickets()).isEqualTo(2);
+        verify(repository).ackStream(PRODUCT_ID, List.of("2-0"));
+        verify(service).processBatch(PRODUCT_ID, List.of("t1"), true);
+        verify(repository).ackStream(PRODUCT_ID, List.of("1-0"));
+        verify(repository, never()).readStream(anyLong(), anyString(), anyInt(), any());
+    }
+}
@@ -0,0 +1,258 @@
+package com.example.ecommerce.order.flashsale;
+
+import com.example.ecommerce.order.support.EmbeddedRedisSupport;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * FlashSaleRedisRepository 的 Lua 腳本在內嵌 Redis 上的行為（LIST 後端）
+ */
+class FlashSaleRedisRepositoryTest {
+
+    private static final long PRODUCT_ID = 1L;
+    private static final Duration TICKET_TTL = Duration.ofSeconds(60);
+    private static final Duration RESULT_TTL = Duration.ofSeconds(600);
+
+    private static StringRedisTemplate redis;
+    private FlashSaleRedisRepository repository;
+
+    @BeforeAll
+    static void startRedis() {
+        redis = EmbeddedRedisSupport.template();
+    }
+
+    @BeforeEach
+    void setUp() {
+        EmbeddedRedisSupport.flushAll(redis);
+        repository = new FlashSaleRedisRepository(redis, "list");
+    }
+
+    @Test
+    void popBatchHandsEachTicketToExactlyOneConcurrentDrainer() throws Exception {
+        int tickets = 300;
+        for (long userId = 1; userId <= tickets; userId++) {
+            join(userId);
+        }
+
+        int drainers = 8;
+        ConcurrentLinkedQueue<FlashSaleRedisRepository.DequeuedTicket> dequeued = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(drainers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < drainers; i++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    while (true) {
+                        FlashSaleRedisRepository.PoppedBatch batch = repository.popBatch(PRODUCT_ID, 7, RESULT_TTL);
+                        if (batch.popped() == 0) return null;
+                        dequeued.addAll(batch.tickets());
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) future.get();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertThat(dequeued).hasSize(tickets);
+        assertThat(dequeued.stream().map(FlashSaleRedisRepository.DequeuedTicket::ticketId).distinct()).hasSize(tickets);
+        // 出隊序號連續且不重複：1..N
+        assertThat(dequeued.stream().map(FlashSaleRedisRepository.DequeuedTicket::dequeueSeq).sorted().toList())
+                .containsExactlyElementsOf(LongStream.rangeClosed(1, tickets).boxed().toList());
+        assertThat(repository.queueDepth(PRODUCT_ID)).isZero();
+        assertThat(repository.getDequeuedCount(PRODUCT_ID)).isEqualTo(tickets);
+    }
+
+    @Test
+    void popBatchStampsSuccessSeqInQueueOrder() {
+        List<String> joined = new ArrayList<>();
+        for (long userId = 1; userId <= 5; userId++) {
+            joined.add(join(userId).ticketId());
+        }
+
+        FlashSaleRedisRepository.PoppedBatch batch = repository.popBatch(PRODUCT_ID, 3, RESULT_TTL);
+
+        assertThat(batch.popped()).isEqualTo(3);
+        assertThat(batch.tickets()).extracting(FlashSaleRedisRepository.DequeuedTicket::ticketId)
+                .containsExactlyElementsOf(joined.subList(0, 3));
+        for (FlashSaleRedisRepository.DequeuedTicket ticket : batch.tickets()) {
+            assertThat(repository.getTicket(ticket.ticketId()).get("successSeq"))
+                    .isEqualTo(String.valueOf(ticket.dequeueSeq()));
+            assertThat(redis.getExpire(repository.ticketKey(ticket.ticketId()))).isGreaterThan(TICKET_TTL.toSeconds());
+        }
+        assertThat(repository.queueDepth(PRODUCT_ID)).isEqualTo(2);
+    }
+
+    @Test
+    void popBatchDropsExpiredTicketsAndRefundsTheGate() {
+        repository.armStockGate(PRODUCT_ID, 5);
+        String first = join(1).ticketId();
+        String expired = join(2).ticketId();
+        String third = join(3).ticketId();
+        assertThat(repository.getStockGate(PRODUCT_ID)).isEqualTo(2L);
+
+        redis.delete(repository.ticketKey(expired));
+        FlashSaleRedisRepository.PoppedBatch batch = repository.popBatch(PRODUCT_ID, 10, RESULT_TTL);
+
+        assertThat(batch.popped()).isEqualTo(3);
+        assertThat(batch.tickets()).extracting(FlashSaleRedisRepository.DequeuedTicket::ticketId)
+                .containsExactly(first, third);
+        // 過期的票不分配序號：存活的票序號仍連續
+        assertThat(batch.tickets()).extracting(FlashSaleRedisRepository.DequeuedTicket::dequeueSeq)
+                .containsExactly(1L, 2L);
+        assertThat(repository.getStockGate(PRODUCT_ID)).isEqualTo(3L);
+    }
+
+    @Test
+    void popBatchOnEmptyQueueReturnsNothing() {
+        FlashSaleRedisRepository.PoppedBatch batch = repository.popBatch(PRODUCT_ID, 10, RESULT_TTL);
+
+        assertThat(batch.popped()).isZero();
+        assertThat(batch.tickets()).isEmpty();
+        assertThat(repository.getDequeuedCount(PRODUCT_ID)).isZero();
+    }
+
+    @Test
+    void releaseStockGateOnlyRefundsAnArmedGate() {
+        repository.releaseStockGate(PRODUCT_ID, 2);
+        assertThat(repository.getStockGate(PRODUCT_ID)).isNull();
+
+        repository.armStockGate(PRODUCT_ID, 1);
+        join(1);
+        assertThat(repository.getStockGate(PRODUCT_ID)).isZero();
+
+        repository.releaseStockGate(PRODUCT_ID, 2);
+        assertThat(repository.getStockGate(PRODUCT_ID)).isEqualTo(2L);
+    }
+
+    @Test
+    void reconcileGateOverwritesOnlyWhenQueueIsEmptyAndGateUnchanged() {
+        repository.armStockGate(PRODUCT_ID, 5);
+
+        // 閘門已被其他 join 改動：不覆寫
+        assertThat(repository.reconcileStockGate(PRODUCT_ID, 4, 3)).isFalse();
+        assertThat(repository.getStockGate(PRODUCT_ID)).isEqualTo(5L);
+
+        // 隊列裡還有票：不覆寫
+        join(1);
+        assertThat(repository.reconcileStockGate(PRODUCT_ID, 4, 3)).isFalse();
+        assertThat(repository.getStockGate(PRODUCT_ID)).isEqualTo(4L);
+
+        repository.popBatch(PRODUCT_ID, 10, RESULT_TTL);
+        assertThat(repository.reconcileStockGate(PRODUCT_ID, 4, 3)).isTrue();
+        assertThat(repository.getStockGate(PRODUCT_ID)).isEqualTo(3L);
+    }
+
+    @Test
+    void concurrentJoinsNeverAdmitMoreTicketsThanTheGate() throws Exception {
+        int stock = 10;
+        int users = 200;
+        repository.armStockGate(PRODUCT_ID, stock);
+
+        ConcurrentLinkedQueue<FlashSaleRedisRepository.JoinOutcome> outcomes = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (long userId = 1; userId <= users; userId++) {
+                long uid = userId;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    outcomes.add(join(uid));
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) future.get();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertThat(outcomes.stream().filter(o -> "QUEUED".equals(o.status()))).hasSize(stock);
+        assertThat(outcomes.stream().filter(o -> "SOLD_OUT".equals(o.status()))).hasSize(users - stock);
+        assertThat(repository.queueDepth(PRODUCT_ID)).isEqualTo(stock);
+        assertThat(repository.getStockGate(PRODUCT_ID)).isZero();
+    }
+
+    @Test
+    void joinCreatesQueuedTicketWithIncreasingEnqueueSeq() {
+        FlashSaleRedisRepository.JoinOutcome first = join(1);
+        FlashSaleRedisRepository.JoinOutcome second = join(2);
+
+        assertThat(first.existing()).isFalse();
+        assertThat(first.status()).isEqualTo("QUEUED");
+        assertThat(first.enqueueSeq()).isEqualTo(1L);
+        assertThat(second.enqueueSeq()).isEqualTo(2L);
+        assertThat(repository.getTicket(first.ticketId())).containsEntry("status", "QUEUED").containsEntry("enqueueSeq", "1");
+        assertThat(redis.opsForValue().get(repository.activeKey(PRODUCT_ID, 1))).isEqualTo(first.ticketId());
+        assertThat(repository.findActiveProducts()).containsExactly(PRODUCT_ID);
+        assertThat(repository.queueDepth(PRODUCT_ID)).isEqualTo(2);
+    }
+
+    @Test
+    void rejoinReturnsTheExistingTicketWithItsCurrentStatus() {
+        FlashSaleRedisRepository.JoinOutcome first = join(1);
+
+        FlashSaleRedisRepository.JoinOutcome again = join(1);
+        assertThat(again.existing()).isTrue();
+        assertThat(again.ticketId()).isEqualTo(first.ticketId());
+        assertThat(again.enqueueSeq()).isEqualTo(first.enqueueSeq());
+        assertThat(again.status()).isEqualTo("QUEUED");
+
+        repository.updateTicket(first.ticketId(), Map.of("status", "PROCESSING"));
+        FlashSaleRedisRepository.JoinOutcome processing = join(1);
+        assertThat(processing.existing()).isTrue();
+        assertThat(processing.status()).isEqualTo("PROCESSING");
+        // 既有票不重複入隊
+        assertThat(repository.queueDepth(PRODUCT_ID)).isEqualTo(1);
+    }
+
+    @Test
+    void rejoinAfterTicketExpiredCreatesANewTicket() {
+        FlashSaleRedisRepository.JoinOutcome first = join(1);
+        redis.delete(repository.ticketKey(first.ticketId()));
+
+        FlashSaleRedisRepository.JoinOutcome again = join(1);
+
+        assertThat(again.existing()).isFalse();
+        assertThat(again.ticketId()).isNotEqualTo(first.ticketId());
+        assertThat(again.status()).isEqualTo("QUEUED");
+        assertThat(redis.opsForValue().get(repository.activeKey(PRODUCT_ID, 1))).isEqualTo(again.ticketId());
+    }
+
+    @Test
+    void joinOnSoldOutGateDoesNotEnqueue() {
+        repository.armStockGate(PRODUCT_ID, 0);
+
+        FlashSaleRedisRepository.JoinOutcome outcome = join(1);
+
+        assertThat(outcome.status()).isEqualTo("SOLD_OUT");
+        assertThat(outcome.enqueueSeq()).isNull();
+        assertThat(repository.queueDepth(PRODUCT_ID)).isZero();
+        assertThat(redis.hasKey(repository.activeKey(PRODUCT_ID, 1))).isFalse();
+    }
+
+    private FlashSaleRedisRepository.JoinOutcome join(long userId) {
+        return repository.atomicJoin(PRODUCT_ID, userId, UUID.randomUUID().toString(), Instant.now().toString(),
+                TICKET_TTL, RESULT_TTL);
+    }
+}
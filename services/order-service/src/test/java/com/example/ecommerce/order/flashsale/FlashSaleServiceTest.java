@@ -0,0 +1,195 @@
+package com.example.ecommerce.order.flashsale;
+
+import com.example.ecommerce.order.client.ProductClient;
+import com.example.ecommerce.order.client.ProductInfoCache;
+import com.example.ecommerce.order.service.OrderService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * FlashSaleService.processBatch 的狀態轉換（Redis / product-service / 建單皆為 mock）
+ */
+class FlashSaleServiceTest {
+
+    private static final long PRODUCT_ID = 7L;
+
+    private FlashSaleRedisRepository redisRepository;
+    private ProductClient productClient;
+    private OrderService orderService;
+    private FlashSaleService service;
+
+    private final Map<String, Map<Object, Object>> tickets = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        redisRepository = mock(FlashSaleRedisRepository.class);
+        productClient = mock(ProductClient.class);
+        orderService = mock(OrderService.class);
+        service = newService("bulk");
+
+        when(redisRepository.ticketExists(any())).thenAnswer(inv -> tickets.containsKey(inv.<String>getArgument(0)));
+        when(redisRepository.getTicket(any())).thenAnswer(inv -> tickets.get(inv.<String>getArgument(0)));
+    }
+
+    @Test
+    void reclaimedProcessingTicketIsMarkedErrorAndReleasesActiveMarker() {
+        ticket("t1", 101L, FlashSaleTicketStatus.PROCESSING);
+
+        service.processBatch(PRODUCT_ID, List.of("t1"), true);
+
+        verify(redisRepository).updateTicket("t1", Map.of("status", FlashSaleTicketStatus.ERROR.name()));
+        verify(redisRepository).deleteActiveTicket(PRODUCT_ID, 101L);
+        verify(productClient, never()).reserveFlashSaleBatch(anyLong(), any());
+    }
+
+    @Test
+    void processingTicketReadFreshIsLeftToItsOwner() {
+        ticket("t1", 101L, FlashSaleTicketStatus.PROCESSING);
+
+        service.processBatch(PRODUCT_ID, List.of("t1"), false);
+
+        verify(redisRepository, never()).updateTicket(eq("t1"), any());
+        verify(redisRepository, never()).deleteActiveTicket(anyLong(), anyLong());
+        verify(productClient, never()).reserveFlashSaleBatch(anyLong(), any());
+    }
+
+    @Test
+    void reclaimedBatchStillProcessesQueuedTickets() {
+        ticket("t1", 101L, FlashSaleTicketStatus.PROCESSING);
+        ticket("t2", 102L, FlashSaleTicketStatus.QUEUED);
+        when(productClient.reserveFlashSaleBatch(eq(PRODUCT_ID), any()))
+                .thenReturn(new ProductClient.BatchReserveResponse(1, 1, "OK"));
+        when(orderService.createFlashSaleOrders(PRODUCT_ID, List.of(102L))).thenReturn(List.of(9001L));
+
+        service.processBatch(PRODUCT_ID, List.of("t1", "t2"), true);
+
+        verify(productClient).reserveFlashSaleBatch(PRODUCT_ID, new ProductClient.BatchReserveRequest(1));
+        verify(redisRepository).updateTicket("t1", Map.of("status", FlashSaleTicketStatus.ERROR.name()));
+        verify(redisRepository).updateTicket("t2", Map.of("status", FlashSaleTicketStatus.SUCCESS.name(), "orderId", "9001"));
+        verify(redisRepository).deleteActiveTicket(PRODUCT_ID, 101L);
+        verify(redisRepository).deleteActiveTicket(PRODUCT_ID, 102L);
+    }
+
+    @Test
+    void failedBulkOrderWriteReleasesStockAndGate() {
+        ticket("t1", 101L, FlashSaleTicketStatus.QUEUED);
+        ticket("t2", 102L, FlashSaleTicketStatus.QUEUED);
+        ticket("t3", 103L, FlashSaleTicketStatus.QUEUED);
+        when(productClient.reserveFlashSaleBatch(eq(PRODUCT_ID), any()))
+                .thenReturn(new ProductClient.BatchReserveResponse(3, 2, "OK"));
+        when(orderService.createFlashSaleOrders(PRODUCT_ID, List.of(101L, 102L)))
+                .thenThrow(new IllegalStateException("db down"));
+
+        service.processBatch(PRODUCT_ID, List.of("t1", "t2", "t3"), false);
+
+        verify(orderService).releaseStock(PRODUCT_ID, 2);
+        verify(redisRepository).releaseStockGate(PRODUCT_ID, 2);
+        verify(redisRepository).updateTicket("t1", Map.of("status", FlashSaleTicketStatus.ERROR.name()));
+        verify(redisRepository).updateTicket("t2", Map.of("status", FlashSaleTicketStatus.ERROR.name()));
+        verify(redisRepository).updateTicket("t3", Map.of("status", FlashSaleTicketStatus.SOLD_OUT.name()));
+    }
+
+    @Test
+    void failedSingleOrderWriteReleasesOneUnitOfStockAndGate() {
+        service = newService("single");
+        ticket("t1", 101L, FlashSaleTicketStatus.QUEUED);
+        when(productClient.reserveFlashSaleBatch(eq(PRODUCT_ID), any()))
+                .thenReturn(new ProductClient.BatchReserveResponse(1, 1, "OK"));
+        when(orderService.createFlashSaleOrder(101L, PRODUCT_ID)).thenThrow(new IllegalStateException("db down"));
+
+        service.processBatch(PRODUCT_ID, List.of("t1"), false);
+
+        verify(orderService).releaseStock(PRODUCT_ID, 1);
+        verify(redisRepository).releaseStockGate(PRODUCT_ID, 1);
+        verify(redisRepository).updateTicket("t1", Map.of("status", FlashSaleTicketStatus.ERROR.name()));
+        verify(redisRepository).deleteActiveTicket(PRODUCT_ID, 101L);
+    }
+
+    @Test
+    void failedReserveCallRefundsTheGateForTheWholeBatch() {
+        ticket("t1", 101L, FlashSaleTicketStatus.QUEUED);
+        ticket("t2", 102L, FlashSaleTicketStatus.QUEUED);
+        when(productClient.reserveFlashSaleBatch(eq(PRODUCT_ID), any())).thenThrow(new IllegalStateException("timeout"));
+
+        service.processBatch(PRODUCT_ID, List.of("t1", "t2"), false);
+
+        verify(redisRepository).releaseStockGate(PRODUCT_ID, 2);
+        verify(orderService, never()).releaseStock(anyLong(), anyInt());
+        verify(redisRepository).deleteActiveTicket(PRODUCT_ID, 101L);
+        verify(redisRepository).deleteActiveTicket(PRODUCT_ID, 102L);
+    }
+
+    @Test
+    void markSuccessFailureDoesNotAbortTheRestOfTheBatch() {
+        ticket("t1", 101L, FlashSaleTicketStatus.QUEUED);
+        ticket("t2", 102L, FlashSaleTicketStatus.QUEUED);
+        ticket("t3", 103L, FlashSaleTicketStatus.QUEUED);
+        when(productClient.reserveFlashSaleBatch(eq(PRODUCT_ID), any()))
+                .thenReturn(new ProductClient.BatchReserveResponse(3, 2, "OK"));
+        when(orderService.createFlashSaleOrders(PRODUCT_ID, List.of(101L, 102L))).thenReturn(List.of(9001L, 9002L));
+        doThrow(new IllegalStateException("redis down")).when(redisRepository)
+                .updateTicket("t1", Map.of("status", FlashSaleTicketStatus.SUCCESS.name(), "orderId", "9001"));
+
+        service.processBatch(PRODUCT_ID, List.of("t1", "t2", "t3"), false);
+
+        // 訂單已 commit：不歸還庫存
+        verify(orderService, never()).releaseStock(anyLong(), anyInt());
+        verify(redisRepository).updateTicket("t2", Map.of("status", FlashSaleTicketStatus.SUCCESS.name(), "orderId", "9002"));
+        verify(redisRepository).updateTicket("t3", Map.of("status", FlashSaleTicketStatus.SOLD_OUT.name()));
+        verify(redisRepository).deleteActiveTicket(PRODUCT_ID, 101L);
+        verify(redisRepository).deleteActiveTicket(PRODUCT_ID, 102L);
+        verify(redisRepository).deleteActiveTicket(PRODUCT_ID, 103L);
+    }
+
+    @Test
+    void activeMarkersAreReleasedEvenWhenCompletionKeepsFailing() {
+        ticket("t1", 101L, FlashSaleTicketStatus.QUEUED);
+        ticket("t2", 102L, FlashSaleTicketStatus.QUEUED);
+        when(productClient.reserveFlashSaleBatch(eq(PRODUCT_ID), any()))
+                .thenReturn(new ProductClient.BatchReserveResponse(2, 0, "OUT_OF_STOCK"));
+        // SOLD_OUT 與 ERROR 都寫不進 Redis
+        doThrow(new IllegalStateException("redis down")).when(redisRepository)
+                .updateTicket("t1", Map.of("status", FlashSaleTicketStatus.SOLD_OUT.name()));
+        doThrow(new IllegalStateException("redis down")).when(redisRepository)
+                .updateTicket("t1", Map.of("status", FlashSaleTicketStatus.ERROR.name()));
+        doThrow(new IllegalStateException("redis down")).when(redisRepository).deleteActiveTicket(PRODUCT_ID, 101L);
+
+        service.processBatch(PRODUCT_ID, List.of("t1", "t2"), false);
+
+        verify(redisRepository).updateTicket("t2", Map.of("status", FlashSaleTicketStatus.SOLD_OUT.name()));
+        verify(redisRepository).deleteActiveTicket(PRODUCT_ID, 101L);
+        verify(redisRepository).deleteActiveTicket(PRODUCT_ID, 102L);
+    }
+
+    private FlashSaleService newService(String orderWriteMode) {
+        return new FlashSaleService(redisRepository, productClient, mock(ProductInfoCache.class), orderService,
+                new ObjectMapper(), 60, 600, orderWriteMode);
+    }
+
+    private void ticket(String ticketId, long userId, FlashSaleTicketStatus status) {
+        Map<Object, Object> hash = new HashMap<>();
+        hash.put("ticketId", ticketId);
+        hash.put("productId", String.valueOf(PRODUCT_ID));
+        hash.put("userId", String.valueOf(userId));
+        hash.put("status", status.name());
+        hash.put("enqueueSeq", String.valueOf(tickets.size() + 1));
+        hash.put("successSeq", String.valueOf(tickets.size() + 1));
+        hash.put("createdAt", "2026-01-01T00:00:00Z");
+        tickets.put(ticketId, hash);
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.ecommerce.order.flashsale;
+
+import com.example.ecommerce.order.client.ProductClient;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 閘門對帳：同一個差異要連續兩輪才修正
+ */
+class FlashSaleStockReconcilerTest {
+
+    private static final long PRODUCT_ID = 7L;
+
+    private FlashSaleRedisRepository redisRepository;
+    private ProductClient productClient;
+    private SimpleMeterRegistry meterRegistry;
+    private FlashSaleStockReconciler reconciler;
+
+    @BeforeEach
+    void setUp() {
+        redisRepository = mock(FlashSaleRedisRepository.class);
+        productClient = mock(ProductClient.class);
+        meterRegistry = new SimpleMeterRegistry();
+        reconciler = new FlashSaleStockReconciler(redisRepository, productClient, meterRegistry);
+        when(redisRepository.findArmedProducts()).thenReturn(Set.of(PRODUCT_ID));
+    }
+
+    @Test
+    void sameMismatchTwiceIsCorrected() {
+        state(5L, 3);
+        when(redisRepository.reconcileStockGate(PRODUCT_ID, 5, 3)).thenReturn(true);
+
+        reconciler.reconcile();
+        verify(redisRepository, never()).reconcileStockGate(anyLong(), anyLong(), anyLong());
+
+        reconciler.reconcile();
+        verify(redisRepository).reconcileStockGate(PRODUCT_ID, 5, 3);
+        assertThat(meterRegistry.counter("flashsale.stock-gate.mismatch").count()).isEqualTo(1d);
+    }
+
+    @Test
+    void changedMismatchRestartsTheConfirmation() {
+        state(5L, 3);
+        reconciler.reconcile();
+
+        state(4L, 3);
+        reconciler.reconcile();
+        verify(redisRepository, never()).reconcileStockGate(anyLong(), anyLong(), anyLong());
+
+        reconciler.reconcile();
+        verify(redisRepository).reconcileStockGate(PRODUCT_ID, 4, 3);
+    }
+
+    @Test
+    void nonEmptyQueueResetsThePendingMismatch() {
+        state(5L, 3);
+        reconciler.reconcile();
+
+        when(redisRepository.queueDepth(PRODUCT_ID)).thenReturn(1L);
+        reconciler.reconcile();
+
+        when(redisRepository.queueDepth(PRODUCT_ID)).thenReturn(0L);
+        reconciler.reconcile();
+        verify(redisRepository, never()).reconcileStockGate(anyLong(), anyLong(), anyLong());
+    }
+
+    @Test
+    void matchingGateIsLeftAlone() {
+        state(3L, 3);
+
+        reconciler.reconcile();
+        reconciler.reconcile();
+
+        verify(redisRepository, never()).reconcileStockGate(anyLong(), anyLong(), anyLong());
+    }
+
+    private void state(Long gate, int stock) {
+        when(redisRepository.queueDepth(PRODUCT_ID)).thenReturn(0L);
+        when(redisRepository.getStockGate(PRODUCT_ID)).thenReturn(gate);
+        when(productClient.getProductInfo(PRODUCT_ID))
+                .thenReturn(new ProductClient.ProductInfo(PRODUCT_ID, "flash", BigDecimal.TEN, stock, "FLASH_SALE"));
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.ecommerce.order.flashsale;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * drain loop 數量受 max-threads（Semaphore）限制，結束後歸還 permit
+ */
+class FlashSaleWorkerEngineTest {
+
+    @Test
+    void drainLoopsAcrossProductsNeverExceedMaxThreads() throws Exception {
+        FlashSaleRedisRepository repository = mock(FlashSaleRedisRepository.class);
+        FlashSaleQueueWorker worker = mock(FlashSaleQueueWorker.class);
+        when(repository.findActiveProducts()).thenReturn(Set.of(1L, 2L));
+        when(repository.queueDepth(anyLong())).thenReturn(1_000L);
+
+        CountDownLatch release = new CountDownLatch(1);
+        when(worker.drainOnce(anyLong())).thenAnswer(inv -> {
+            release.await();
+            return FlashSaleQueueWorker.DrainResult.EMPTY;
+        });
+
+        // 每個商品最多 4 個 drain loop，但全域只有 3 條執行緒
+        FlashSaleWorkerEngine engine = new FlashSaleWorkerEngine(repository, worker, new SimpleMeterRegistry(),
+                new MockEnvironment(), 3, 4, 50, 5);
+        try {
+            engine.discover();
+            engine.discover();
+            assertThat(totalDrainers(engine)).isEqualTo(3);
+
+            release.countDown();
+            awaitDrainers(engine, 0, Duration.ofSeconds(5));
+
+            // permit 已歸還：下一輪可以再開滿
+            CountDownLatch block = new CountDownLatch(1);
+            when(worker.drainOnce(anyLong())).thenAnswer(inv -> {
+                block.await();
+                return FlashSaleQueueWorker.DrainResult.EMPTY;
+            });
+            engine.discover();
+            assertThat(totalDrainers(engine)).isEqualTo(3);
+            block.countDown();
+        } finally {
+            release.countDown();
+            engine.shutdown();
+        }
+    }
+
+    private int totalDrainers(FlashSaleWorkerEngine engine) {
+        return engine.snapshot().stream().mapToInt(FlashSaleWorkerEngine.DrainStats::drainers).sum();
+    }
+
+    private void awaitDrainers(FlashSaleWorkerEngine engine, int expected, Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (totalDrainers(engine) != expected && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertThat(totalDrainers(engine)).isEqualTo(expected);
+    }
+}
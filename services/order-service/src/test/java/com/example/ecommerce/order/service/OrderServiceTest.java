@@ -0,0 +1,85 @@
+package com.example.ecommerce.order.service;
+
+import com.example.ecommerce.order.client.ProductClient;
+import com.example.ecommerce.order.client.ProductInfoCache;
+import com.example.ecommerce.order.domain.OrderOutboxEntity;
+import com.example.ecommerce.order.redis.OrderHistoryCache;
+import com.example.ecommerce.order.repo.OrderOutboxRepository;
+import com.example.ecommerce.order.repo.OrderRepository;
+import com.example.ecommerce.order.repo.OrderUserEventVersionRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 建單時 outbox 事件的 userVersion 分配（repository 皆為 mock）
+ */
+class OrderServiceTest {
+
+    private static final long PRODUCT_ID = 7L;
+
+    private OrderOutboxRepository outboxRepository;
+    private OrderUserEventVersionRepository userEventVersionRepository;
+    private OrderService orderService;
+
+    @BeforeEach
+    void setUp() {
+        OrderRepository orderRepository = mock(OrderRepository.class);
+        ProductInfoCache productInfoCache = mock(ProductInfoCache.class);
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        outboxRepository = mock(OrderOutboxRepository.class);
+        userEventVersionRepository = mock(OrderUserEventVersionRepository.class);
+        orderService = new OrderService(orderRepository, mock(ProductClient.class), productInfoCache, transactionTemplate,
+                mock(OrderHistoryCache.class), outboxRepository, userEventVersionRepository,
+                new ObjectMapper().findAndRegisterModules());
+
+        when(productInfoCache.requireType(PRODUCT_ID, "FLASH_SALE"))
+                .thenReturn(new ProductClient.ProductInfo(PRODUCT_ID, "flash", BigDecimal.TEN, 10, "FLASH_SALE"));
+        when(orderRepository.saveAll(anyList())).thenAnswer(inv -> inv.getArgument(0));
+        when(transactionTemplate.execute(any()))
+                .thenAnswer(inv -> inv.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @AfterEach
+    void tearDown() {
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void eventsOfTheSameUserGetConsecutiveVersionsInListOrder() {
+        // 101 原本是 3、這批 +2 → 5；102 是新使用者 → 1
+        when(userEventVersionRepository.allocate("[{\"user_id\":101,\"count\":2},{\"user_id\":102,\"count\":1}]"))
+                .thenReturn(List.of(version(101L, 5L), version(102L, 1L)));
+
+        orderService.createFlashSaleOrders(PRODUCT_ID, List.of(101L, 102L, 101L));
+
+        ArgumentCaptor<List<OrderOutboxEntity>> events = ArgumentCaptor.forClass(List.class);
+        verify(outboxRepository).saveAll(events.capture());
+        assertThat(events.getValue()).extracting(OrderOutboxEntity::getUserId).containsExactly(101L, 102L, 101L);
+        assertThat(events.getValue()).extracting(OrderOutboxEntity::getUserVersion).containsExactly(4L, 1L, 5L);
+    }
+
+    private OrderUserEventVersionRepository.UserVersionView version(Long userId, Long version) {
+        return new OrderUserEventVersionRepository.UserVersionView() {
+            @Override public Long getUserId() { return userId; }
+            @Override public Long getVersion() { return version; }
+        };
+    }
+}
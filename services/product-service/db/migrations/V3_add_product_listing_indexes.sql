@@ -0,0 +1,7 @@
+-- 公開商品列表 keyset 分頁（GET /products?type=&sort=&cursor=）用的複合索引：
+-- 依 product_type 篩選後以 (排序欄位, id) 範圍掃描 + LIMIT，翻到第幾頁成本都相同，不需要 OFFSET
+-- CONCURRENTLY 建立索引不鎖寫入（不可包在交易內執行）
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_product_type_id ON product (product_type, id);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_product_type_price_id ON product (product_type, price, id);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_product_type_name_id ON product (product_type, name, id);
@@ -2,19 +2,28 @@ package com.example.ecommerce.product.api;
 
 import com.example.ecommerce.product.api.dto.ProductDtos;
 import com.example.ecommerce.product.domain.ProductType;
+import com.example.ecommerce.product.service.ProductCatalogCache;
 import com.example.ecommerce.product.service.ProductService;
+import com.example.ecommerce.product.service.ProductStockMirror;
+import com.example.ecommerce.product.service.ReservationCoalescer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * API 設計：
- * - /products：公開
+ * - /products、/products/catalog、/products/stock：公開
+ *   （/products 不帶分頁參數時回傳該類型全部商品；帶 sort / size / cursor 任一個才改為 keyset 分頁，
+ *   下一頁 cursor 放在 X-Next-Cursor header）
  * - /admin/products：管理（ADMIN）
  * - /internal/products：內部呼叫（給 order-service）
  */
@@ -22,23 +31,122 @@ import java.util.List;
 public class ProductController {
 
     private static final Logger log = LoggerFactory.getLogger(ProductController.class);
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final int MAX_STOCK_IDS = 500;
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
 
     private final ProductService service;
+    private final ProductCatalogCache catalogCache;
+    private final ProductStockMirror stockMirror;
+    private final ReservationCoalescer reservationCoalescer;
 
-    public ProductController(ProductService service) {
+    public ProductController(ProductService service, ProductCatalogCache catalogCache, ProductStockMirror stockMirror,
+                             ReservationCoalescer reservationCoalescer) {
         this.service = service;
+        this.catalogCache = catalogCache;
+        this.stockMirror = stockMirror;
+        this.reservationCoalescer = reservationCoalescer;
     }
 
     /**
-     * 公開商品查詢 API
-     * 前端分區會用：
-     * - /products?type=NORMAL
-     * - /products?type=FLASH_SALE
+     * 公開商品查詢 API（含庫存）
+     * - /products?type=FLASH_SALE：該類型全部商品（目錄快取 + 庫存鏡像，不查 DB）；
+     *   回應帶 ETag，帶 If-None-Match 且目錄與庫存都沒變時回 304，庫存沒變時重用上次序列化的 bytes
+     * - /products?type=NORMAL&sort=price&size=50：keyset 分頁，只要帶 sort / size / cursor 任一個就啟用
+     * - 下一頁：帶上一頁回應的 X-Next-Cursor（cursor 綁定 sort），沒有此 header 代表已是最後一頁
+     * 分頁的每一頁以 (product_type, 排序欄位, id) 索引範圍掃描取得，不論翻到第幾頁成本都相同；庫存由鏡像補上
      */
-
     @GetMapping("/products")
-    public ResponseEntity<List<ProductDtos.ProductResponse>> list(@RequestParam(name = "type", required = false) ProductType type) {
-        return ResponseEntity.ok(service.listByType(type));
+    public ResponseEntity<?> list(@RequestParam(name = "type", required = false) ProductType type,
+                                  @RequestParam(name = "sort", required = false) String sort,
+                                  @RequestParam(name = "size", required = false) Integer size,
+                                  @RequestParam(name = "cursor", required = false) String cursor,
+                                  WebRequest webRequest) {
+        ProductType resolved = type == null ? ProductType.NORMAL : type;
+        if (sort == null && size == null && cursor == null) {
+            return listAll(resolved, webRequest);
+        }
+
+        int pageSize = Math.max(1, Math.min(size == null ? DEFAULT_PAGE_SIZE : size, MAX_PAGE_SIZE));
+        ProductDtos.CatalogPage page;
+        try {
+            ProductDtos.ListingSort listingSort = sort == null
+                    ? ProductDtos.ListingSort.ID
+                    : ProductDtos.ListingSort.valueOf(sort.trim().toUpperCase());
+            page = service.listPage(resolved, listingSort, pageSize, cursor);
+        } catch (IllegalArgumentException e) {
+            log.warn("[products.list] 排序或 cursor 不合法 sort={}, cursor={}", sort, cursor);
+            return ResponseEntity.badRequest().build();
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.nextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.nextCursor());
+        }
+        return response.body(withStock(page.items()));
+    }
+
+    private ResponseEntity<byte[]> listAll(ProductType type, WebRequest webRequest) {
+        ProductCatalogCache.Snapshot snapshot = catalogCache.get(type);
+        Map<Long, Integer> stocks = stockMirror.read(snapshot.items().stream().map(ProductDtos.CatalogItem::id).toList());
+        String etag = ProductCatalogCache.listingEtag(snapshot, stocks);
+        if (webRequest.checkNotModified(etag)) {
+            // 已寫入 304 與 ETag；目錄與庫存都沒變，不回 body
+            return null;
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .cacheControl(CacheControl.noCache())
+                .eTag(etag)
+                .body(catalogCache.listingBody(type, etag, () -> withStock(snapshot.items(), stocks)));
+    }
+
+    private List<ProductDtos.ProductResponse> withStock(List<ProductDtos.CatalogItem> items) {
+        return withStock(items, stockMirror.read(items.stream().map(ProductDtos.CatalogItem::id).toList()));
+    }
+
+    private List<ProductDtos.ProductResponse> withStock(List<ProductDtos.CatalogItem> items, Map<Long, Integer> stocks) {
+        return items.stream()
+                .map(p -> new ProductDtos.ProductResponse(p.id(), p.name(), p.price(), stocks.getOrDefault(p.id(), 0), p.productType()))
+                .toList();
+    }
+
+    /**
+     * 公開商品目錄（不含庫存）
+     * 回應為 ProductCatalogCache 中已序列化的 JSON；帶 If-None-Match 且內容未變時回 304
+     */
+    @GetMapping("/products/catalog")
+    public ResponseEntity<byte[]> catalog(@RequestParam(name = "type", required = false) ProductType type,
+                                          WebRequest webRequest) {
+        ProductCatalogCache.Snapshot snapshot = catalogCache.get(type == null ? ProductType.NORMAL : type);
+        if (webRequest.checkNotModified(snapshot.etag())) {
+            // 已寫入 304 與 ETag；內容未變，不回 body
+            return null;
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .cacheControl(CacheControl.noCache())
+                .eTag(snapshot.etag())
+                .body(snapshot.body());
+    }
+
+    /**
+     * 即時庫存：/products/stock?ids=1,2,3（Redis 鏡像；不存在的 id 不會出現在結果中）
+     */
+    @GetMapping("/products/stock")
+    public ResponseEntity<List<ProductDtos.StockLevel>> stock(@RequestParam("ids") List<Long> ids) {
+        if (ids.isEmpty() || ids.size() > MAX_STOCK_IDS) {
+            log.warn("[products.stock] ids 數量不合法 size={}", ids.size());
+            return ResponseEntity.badRequest().build();
+        }
+        Map<Long, Integer> stocks = stockMirror.read(ids);
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noStore())
+                .body(ids.stream().distinct()
+                        .filter(stocks::containsKey)
+                        .map(id -> new ProductDtos.StockLevel(id, stocks.get(id)))
+                        .toList());
     }
 
     // ===== 管理 API（ADMIN）=====
@@ -63,6 +171,15 @@ public class ProductController {
         return ResponseEntity.ok(result);
     }
 
+    @PreAuthorize("hasRole('ADMIN')")
+    @PostMapping("/admin/products/{id}/stock-shards")
+    public ResponseEntity<ProductDtos.StockShardsResponse> reshardStock(@PathVariable("id") long id,
+                                                                       @RequestBody ProductDtos.StockShardsRequest req) {
+        int shards = req.shards() == null ? 0 : req.shards();
+        log.info("[admin.products.reshard] 重新分片庫存 id={}, shards={}", id, shards);
+        return ResponseEntity.ok(service.reshardStock(id, shards));
+    }
+
     // ===== internal API（給 order-service）=====
 
     @PostMapping("/internal/products/{id}/reserve")
@@ -77,6 +194,33 @@ public class ProductController {
         return ResponseEntity.ok(result);
     }
 
+    @PostMapping("/internal/products/{id}/release")
+    public ResponseEntity<ProductDtos.ReleaseResponse> release(@PathVariable("id") long id,
+                                                               @RequestBody ProductDtos.ReleaseRequest req) {
+        int amount = req.amount() == null ? 0 : req.amount();
+        ProductDtos.ReleaseResponse result = service.release(id, amount);
+        if (!result.success()) {
+            log.warn("[internal.products.release] 歸還庫存失敗 id={}, amount={}, reason={}", id, amount, result.message());
+        }
+        return ResponseEntity.ok(result);
+    }
+
+    @PostMapping("/internal/products/reserve-items")
+    public ResponseEntity<ProductDtos.ReserveResponse> reserveItems(@RequestBody ProductDtos.StockItemsRequest req) {
+        return ResponseEntity.ok(service.reserveItems(req.items()));
+    }
+
+    @PostMapping("/internal/products/release-items")
+    public ResponseEntity<ProductDtos.ReleaseResponse> releaseItems(@RequestBody ProductDtos.StockItemsRequest req) {
+        return ResponseEntity.ok(service.releaseItems(req.items()));
+    }
+
+    // 批次商品資訊：/internal/products?ids=1,2,3（不存在的 id 不會出現在結果中）
+    @GetMapping("/internal/products")
+    public ResponseEntity<List<ProductDtos.ProductResponse>> getProductInfos(@RequestParam("ids") List<Long> ids) {
+        return ResponseEntity.ok(service.getProductInfos(ids));
+    }
+
     @GetMapping("/internal/products/{id}")
     public ResponseEntity<ProductDtos.ProductResponse> getProductInfo(@PathVariable("id") long id) {
         return ResponseEntity.ok(service.getProductInfo(id));
@@ -84,7 +228,8 @@ public class ProductController {
 
     @PostMapping("/internal/products/{id}/reserve-flash-sale")
     public ResponseEntity<ProductDtos.ReserveResponse> reserveFlashSale(@PathVariable("id") long id, @RequestBody ProductDtos.ReserveRequest req) {
-        ProductDtos.ReserveResponse result = service.reserveFlashSaleStock(id, req.amount());
+        // reserve-coalescer.enabled=true 時同商品的並發請求合併成一個交易；關閉時等同 service.reserveFlashSaleStock
+        ProductDtos.ReserveResponse result = reservationCoalescer.reserveFlashSaleStock(id, req.amount());
         if (!result.success()) {
             log.warn("[internal.products.reserve-flash-sale] 搶購扣庫存失敗 id={}, reason={}", id, result.message());
         } else {
@@ -92,4 +237,11 @@ public class ProductController {
         }
         return ResponseEntity.ok(result);
     }
+
+    @PostMapping("/internal/products/{id}/reserve-flash-sale-batch")
+    public ResponseEntity<ProductDtos.BatchReserveResponse> reserveFlashSaleBatch(@PathVariable("id") long id,
+                                                                                 @RequestBody ProductDtos.BatchReserveRequest req) {
+        int count = req.count() == null ? 0 : req.count();
+        return ResponseEntity.ok(service.reserveFlashSaleBatch(id, count));
+    }
 }
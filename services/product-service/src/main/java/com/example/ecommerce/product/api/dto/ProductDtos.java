@@ -3,6 +3,7 @@ package com.example.ecommerce.product.api.dto;
 import com.example.ecommerce.product.domain.ProductType;
 
 import java.math.BigDecimal;
+import java.util.List;
 
 /**
  * DTO 集合（示範用集中在同檔案）
@@ -11,11 +12,64 @@ public class ProductDtos {
 
     public record ProductResponse(Long id, String name, BigDecimal price, Integer stock, ProductType productType) {}
 
+    /**
+     * 公開商品目錄（不含庫存）：只在商品新增 / 修改時變動，可長時間快取
+     */
+    public record CatalogItem(Long id, String name, BigDecimal price, ProductType productType) {}
+
+    /**
+     * 公開列表排序（GET /products?sort=id|price|name）；皆為遞增，同值再以 id 排序
+     */
+    public enum ListingSort { ID, PRICE, NAME }
+
+    /**
+     * 公開列表一頁；nextCursor 為 null 代表最後一頁（controller 放在 X-Next-Cursor header）
+     */
+    public record CatalogPage(List<CatalogItem> items, String nextCursor) {}
+
+    /**
+     * 即時庫存：GET /products/stock?ids=
+     */
+    public record StockLevel(Long productId, Integer stock) {}
+
     public record CreateProductRequest(String name, BigDecimal price, Integer stock, ProductType productType) {}
 
     public record RestockRequest(Integer amount) {}
 
+    /**
+     * 庫存分片（ADMIN）：shards >= 2 啟用，0 / 1 關閉
+     */
+    public record StockShardsRequest(Integer shards) {}
+
+    public record StockShardsResponse(Long productId, int shards, int stock) {}
+
     public record ReserveRequest(Integer amount) {}
 
     public record ReserveResponse(boolean success, String message) {}
+
+    /**
+     * 補償：order-service 扣庫存成功但寫訂單失敗時歸還 amount
+     */
+    public record ReleaseRequest(Integer amount) {}
+
+    public record ReleaseResponse(boolean success, String message) {}
+
+    /**
+     * 多品項扣庫存 / 歸還：整張購物車一次呼叫（同一商品出現多次會合併數量）
+     */
+    public record StockItem(Long productId, Integer quantity) {}
+
+    public record StockItemsRequest(List<StockItem> items) {}
+
+    public record BatchReserveRequest(Integer count) {}
+
+    /**
+     * granted：實際授予的名額（0..requested），呼叫端依 FIFO 順序分給前 granted 張票
+     * granted 為 0 時 message 帶原因：NOT_FOUND / NOT_FLASH_SALE / OUT_OF_STOCK
+     */
+    public record BatchReserveResponse(int requested, int granted, String message) {
+        public static final String NOT_FOUND = "NOT_FOUND";
+        public static final String NOT_FLASH_SALE = "NOT_FLASH_SALE";
+        public static final String OUT_OF_STOCK = "OUT_OF_STOCK";
+    }
 }
@@ -1,6 +1,7 @@
 package com.example.ecommerce.product.domain;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.Formula;
 
 import java.math.BigDecimal;
 import java.time.Instant;
@@ -8,11 +9,17 @@ import java.time.Instant;
 /**
  * 商品資料表：
  * - price 使用 BigDecimal，避免浮點誤差（金融/金額必備）
- * - stock：庫存數量（整數）
+ * - stock：庫存數量（整數）；啟用庫存分片後歸 0，庫存改放在 product_stock_shard
+ * - availableStock：對外看到的庫存總量（stock + 各分片加總），唯讀
  * - productType 用來區分一般/搶購邏輯
  */
 @Entity
-@Table(name = "product")
+@Table(name = "product", indexes = {
+        // 公開列表 keyset 分頁：依類型篩選後以 (排序欄位, id) 範圍掃描 + LIMIT
+        @Index(name = "idx_product_type_id", columnList = "product_type, id"),
+        @Index(name = "idx_product_type_price_id", columnList = "product_type, price, id"),
+        @Index(name = "idx_product_type_name_id", columnList = "product_type, name, id")
+})
 public class ProductEntity {
 
     @Id
@@ -28,6 +35,9 @@ public class ProductEntity {
     @Column(nullable=false)
     private Integer stock;
 
+    @Formula("stock + coalesce((select sum(s.stock) from product_stock_shard s where s.product_id = id), 0)")
+    private Integer availableStock;
+
     @Column(nullable=false)
     private Instant createdAt = Instant.now();
 
@@ -48,6 +58,7 @@ public class ProductEntity {
     public String getName() { return name; }
     public BigDecimal getPrice() { return price; }
     public Integer getStock() { return stock; }
+    public Integer getAvailableStock() { return availableStock; }
     public Instant getCreatedAt() { return createdAt; }
     public ProductType getProductType() { return productType; }
 
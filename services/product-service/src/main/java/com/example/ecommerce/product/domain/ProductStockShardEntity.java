@@ -0,0 +1,46 @@
+package com.example.ecommerce.product.domain;
+
+import jakarta.persistence.*;
+
+/**
+ * 搶購商品的庫存分片（熱門商品把庫存拆到 K 列，扣庫存分散到不同列鎖）：
+ * - 啟用分片後 product.stock 歸 0，庫存總量 = 各分片 stock 加總
+ * - shardCount 冗餘存在每一列，扣庫存 SQL 不必另查 K 就能以隨機起點輪詢分片
+ */
+@Entity
+@Table(name = "product_stock_shard", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_product_stock_shard", columnNames = {"product_id", "shard_no"})
+})
+public class ProductStockShardEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "product_id", nullable = false)
+    private Long productId;
+
+    @Column(name = "shard_no", nullable = false)
+    private Integer shardNo;
+
+    @Column(name = "shard_count", nullable = false)
+    private Integer shardCount;
+
+    @Column(nullable = false)
+    private Integer stock;
+
+    public ProductStockShardEntity() {}
+
+    public ProductStockShardEntity(Long productId, Integer shardNo, Integer shardCount, Integer stock) {
+        this.productId = productId;
+        this.shardNo = shardNo;
+        this.shardCount = shardCount;
+        this.stock = stock;
+    }
+
+    public Long getId() { return id; }
+    public Long getProductId() { return productId; }
+    public Integer getShardNo() { return shardNo; }
+    public Integer getShardCount() { return shardCount; }
+    public Integer getStock() { return stock; }
+}
@@ -3,6 +3,7 @@ package com.example.ecommerce.product.repo;
 import com.example.ecommerce.product.domain.ProductEntity;
 import com.example.ecommerce.product.domain.ProductType;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -10,40 +11,274 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.math.BigDecimal;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * 商品 Repository：
- * - reserveStockAtomic：用「單句 SQL」原子扣庫存，避免超賣
+ * - reserveFlashSaleReturning：用「單句 SQL」原子扣搶購庫存，避免超賣；類型檢查併入同一句
+ * - reserveNormalStockAtomic：一般商品原子扣庫存（商品類型以 DB 為準，不信任呼叫端快取）
+ * - reserveItemsAtomic / releaseItemsAtomic：整張購物車一句 SQL 扣 / 還庫存（全有或全無）
+ * - reserveFlashSaleBatchAtomic：搶購批次扣庫存，一句 SQL 給出「最多到剩餘庫存」的數量
+ * - lockFlashSaleStock / setStock：重新分片時鎖住商品列並搬移庫存
+ * - restockReturning：補貨 / 歸還一句 SQL，RETURNING 帶回商品資料（不必再 findById）
+ * - findPageBy* / findPageBy*After：公開列表 keyset 分頁（id / price / name 排序），
+ *   走 (product_type, 排序欄位, id) 複合索引，只投影目錄欄位，不載入 entity
  */
 public interface ProductRepository extends JpaRepository<ProductEntity, Long> {
 
     /**
-     * 原子扣庫存（最關鍵展示點）
-     * UPDATE product SET stock = stock - :qty WHERE id=:id AND stock >= :qty
-     * - 回傳值：受影響筆數（1=成功；0=庫存不足或商品不存在）
+     * 一般商品原子扣庫存：WHERE 多帶 product_type = 'NORMAL'
+     * - 回傳值：1=成功；0=庫存不足、商品不存在或非 NORMAL
      */
-    @Modifying
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
     @Transactional
     @Query(value = """
             UPDATE product
             SET stock = stock - :qty
             WHERE id = :id
+              AND product_type = 'NORMAL'
               AND stock >= :qty
             """, nativeQuery = true)
-    int reserveStockAtomic(@Param("id") long id, @Param("qty") int qty);
+    int reserveNormalStockAtomic(@Param("id") long id, @Param("qty") int qty);
 
     /**
-     * 補貨（原子加庫存）
+     * 多品項原子扣庫存（一般商品）：items 為 JSON 陣列 [{"id":1,"qty":2}, ...]
+     * - 同一商品的數量先加總，依 id 順序 FOR UPDATE 鎖列（並發購物車不互相死鎖）
+     * - 只有「每個商品都存在、為 NORMAL 且庫存足夠」才會 UPDATE，否則一列都不動
+     * - 回傳值：實際扣減的商品 id；筆數不等於相異商品數即代表失敗（此時為空）
      */
-    @Modifying
     @Transactional
     @Query(value = """
-            UPDATE product
-            SET stock = stock + :qty
+            WITH req AS (
+                SELECT r.id, SUM(r.qty) AS qty
+                FROM jsonb_to_recordset(CAST(:items AS jsonb)) AS r(id bigint, qty int)
+                GROUP BY r.id
+            ),
+            locked AS (
+                SELECT p.id, p.stock, req.qty
+                FROM product p
+                JOIN req ON req.id = p.id
+                WHERE p.product_type = 'NORMAL'
+                ORDER BY p.id
+                FOR UPDATE OF p
+            ),
+            verdict AS (
+                SELECT COUNT(*) = (SELECT COUNT(*) FROM req) AND COALESCE(BOOL_AND(stock >= qty), false) AS ok
+                FROM locked
+            )
+            UPDATE product p
+            SET stock = p.stock - locked.qty
+            FROM locked, verdict
+            WHERE p.id = locked.id
+              AND verdict.ok
+            RETURNING p.id
+            """, nativeQuery = true)
+    List<Long> reserveItemsAtomic(@Param("items") String itemsJson);
+
+    /**
+     * 多品項歸還庫存（補償）：items 格式同 reserveItemsAtomic
+     * - 回傳值：實際歸還的商品 id
+     */
+    @Transactional
+    @Query(value = """
+            WITH req AS (
+                SELECT r.id, SUM(r.qty) AS qty
+                FROM jsonb_to_recordset(CAST(:items AS jsonb)) AS r(id bigint, qty int)
+                GROUP BY r.id
+            )
+            UPDATE product p
+            SET stock = p.stock + req.qty
+            FROM req
+            WHERE p.id = req.id
+            RETURNING p.id
+            """, nativeQuery = true)
+    List<Long> releaseItemsAtomic(@Param("items") String itemsJson);
+
+    /**
+     * 搶購批次扣庫存：一次授予 min(count, stock) 個名額
+     * - FOR UPDATE 鎖住該列後計算 granted，再在同一句 UPDATE 扣掉，並發批次不會超賣
+     * - 回傳值：授予數量；商品不存在 / 非 FLASH_SALE / 已售完時沒有資料列（回傳 null）
+     */
+    @Transactional
+    @Query(value = """
+            WITH target AS (
+                SELECT id, LEAST(stock, :count) AS granted
+                FROM product
+                WHERE id = :id
+                  AND product_type = 'FLASH_SALE'
+                  AND stock > 0
+                FOR UPDATE
+            )
+            UPDATE product p
+            SET stock = p.stock - t.granted
+            FROM target t
+            WHERE p.id = t.id
+            RETURNING t.granted
+            """, nativeQuery = true)
+    Integer reserveFlashSaleBatchAtomic(@Param("id") long id, @Param("count") int count);
+
+    /**
+     * 只取商品類型（批次扣庫存失敗時判斷原因用）；商品不存在時為 empty
+     */
+    @Query("SELECT p.productType FROM ProductEntity p WHERE p.id = :id")
+    Optional<ProductType> findProductTypeById(@Param("id") long id);
+
+    /**
+     * 鎖住搶購商品列並取得 product.stock；商品不存在或非 FLASH_SALE 時回傳 null
+     */
+    @Query(value = """
+            SELECT stock
+            FROM product
             WHERE id = :id
+              AND product_type = 'FLASH_SALE'
+            FOR UPDATE
             """, nativeQuery = true)
-    int restockAtomic(@Param("id") long id, @Param("qty") int qty);
+    Integer lockFlashSaleStock(@Param("id") long id);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(value = "UPDATE product SET stock = :stock WHERE id = :id", nativeQuery = true)
+    int setStock(@Param("id") long id, @Param("stock") int stock);
+
+    /**
+     * 搶購單張扣庫存（最關鍵展示點，一句 SQL）：商品類型條件併入 UPDATE，外層帶回類型與扣完後的庫存
+     * - 沒有資料列：商品不存在
+     * - productType 不是 FLASH_SALE：類型不符（未扣）
+     * - newStock 為 null：庫存不足（未扣；已分片商品的 product.stock 為 0，也會落在這裡）
+     * UPDATE 的 stock >= :qty 在拿到列鎖後以最新版本重新判斷，並發扣庫存不會超賣
+     */
+    @Transactional
+    @Query(value = """
+            WITH target AS (
+                SELECT id, product_type
+                FROM product
+                WHERE id = :id
+            ), reserved AS (
+                UPDATE product p
+                SET stock = p.stock - :qty
+                FROM target t
+                WHERE p.id = t.id
+                  AND t.product_type = 'FLASH_SALE'
+                  AND p.stock >= :qty
+                RETURNING p.id, p.stock
+            )
+            SELECT t.product_type AS productType, r.stock AS newStock
+            FROM target t
+            LEFT JOIN reserved r ON r.id = t.id
+            """, nativeQuery = true)
+    Optional<FlashReserveView> reserveFlashSaleReturning(@Param("id") long id, @Param("qty") int qty);
+
+    /**
+     * 補貨 / 歸還（一句 SQL）：
+     * - 已分片：平均加到各分片（餘數給前幾個分片），product.stock 不變
+     * - 未分片：加到 product.stock
+     * - RETURNING 帶回商品資料與加總後的庫存；沒有資料列代表商品不存在
+     */
+    @Transactional
+    @Query(value = """
+            WITH shards AS (
+                UPDATE product_stock_shard
+                SET stock = stock + :qty / shard_count
+                          + CASE WHEN shard_no < :qty % shard_count THEN 1 ELSE 0 END
+                WHERE product_id = :id
+                RETURNING stock
+            ), updated AS (
+                UPDATE product p
+                SET stock = p.stock + CASE WHEN EXISTS (SELECT 1 FROM shards) THEN 0 ELSE :qty END
+                WHERE p.id = :id
+                RETURNING p.id, p.name, p.price, p.stock, p.product_type
+            )
+            SELECT u.id AS id,
+                   u.name AS name,
+                   u.price AS price,
+                   (u.stock + COALESCE((SELECT SUM(stock) FROM shards), 0))::int AS stock,
+                   u.product_type AS productType
+            FROM updated u
+            """, nativeQuery = true)
+    Optional<ProductStockView> restockReturning(@Param("id") long id, @Param("qty") int qty);
+
+    @Query("""
+            SELECT p.id AS id, p.name AS name, p.price AS price, p.productType AS productType
+            FROM ProductEntity p
+            WHERE p.productType = :type
+            ORDER BY p.id
+            """)
+    List<ProductListView> findPageById(@Param("type") ProductType type, Limit limit);
+
+    @Query("""
+            SELECT p.id AS id, p.name AS name, p.price AS price, p.productType AS productType
+            FROM ProductEntity p
+            WHERE p.productType = :type
+              AND p.id > :id
+            ORDER BY p.id
+            """)
+    List<ProductListView> findPageByIdAfter(@Param("type") ProductType type, @Param("id") Long id, Limit limit);
+
+    @Query("""
+            SELECT p.id AS id, p.name AS name, p.price AS price, p.productType AS productType
+            FROM ProductEntity p
+            WHERE p.productType = :type
+            ORDER BY p.price, p.id
+            """)
+    List<ProductListView> findPageByPrice(@Param("type") ProductType type, Limit limit);
+
+    /**
+     * price >= :price 讓索引掃描直接從 cursor 位置開始，OR 條件只處理同價格的 id 排序
+     */
+    @Query("""
+            SELECT p.id AS id, p.name AS name, p.price AS price, p.productType AS productType
+            FROM ProductEntity p
+            WHERE p.productType = :type
+              AND p.price >= :price
+              AND (p.price > :price OR p.id > :id)
+            ORDER BY p.price, p.id
+            """)
+    List<ProductListView> findPageByPriceAfter(@Param("type") ProductType type,
+                                               @Param("price") BigDecimal price,
+                                               @Param("id") Long id,
+                                               Limit limit);
+
+    @Query("""
+            SELECT p.id AS id, p.name AS name, p.price AS price, p.productType AS productType
+            FROM ProductEntity p
+            WHERE p.productType = :type
+            ORDER BY p.name, p.id
+            """)
+    List<ProductListView> findPageByName(@Param("type") ProductType type, Limit limit);
+
+    @Query("""
+            SELECT p.id AS id, p.name AS name, p.price AS price, p.productType AS productType
+            FROM ProductEntity p
+            WHERE p.productType = :type
+              AND p.name >= :name
+              AND (p.name > :name OR p.id > :id)
+            ORDER BY p.name, p.id
+            """)
+    List<ProductListView> findPageByNameAfter(@Param("type") ProductType type,
+                                              @Param("name") String name,
+                                              @Param("id") Long id,
+                                              Limit limit);
+
+    interface ProductListView {
+        Long getId();
+        String getName();
+        BigDecimal getPrice();
+        ProductType getProductType();
+    }
+
+    interface FlashReserveView {
+        String getProductType();
+        Integer getNewStock();
+    }
+
+    interface ProductStockView {
+        Long getId();
+        String getName();
+        BigDecimal getPrice();
+        Integer getStock();
+        String getProductType();
+    }
 
     List<ProductEntity> findByProductTypeOrderByIdAsc(ProductType productType);
 }
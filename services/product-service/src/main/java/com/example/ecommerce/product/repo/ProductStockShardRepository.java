@@ -0,0 +1,73 @@
+package com.example.ecommerce.product.repo;
+
+import com.example.ecommerce.product.domain.ProductStockShardEntity;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+/**
+ * 庫存分片 Repository：
+ * - takeSkipLocked：從一個沒被鎖住的分片扣最多 count 個（每句只鎖一列；不等別的交易持有的分片）
+ * - sumStock：分片庫存加總（判斷是真的賣完還是分片都被鎖住）
+ * - lockByProductId / deleteByProductId：重新分片前鎖住並清掉舊分片
+ */
+public interface ProductStockShardRepository extends JpaRepository<ProductStockShardEntity, Long> {
+
+    /**
+     * 從隨機起點依序挑第一個有庫存的分片，扣 min(stock, count)
+     * - (shard_no + :salt) % shard_count：salt 隨機，起點分散、其餘分片依序當備援
+     * - LIMIT 1 FOR UPDATE：一次只鎖一個分片
+     */
+    String TAKE_PREFIX = """
+            WITH pick AS (
+                SELECT id, LEAST(stock, :count) AS take
+                FROM product_stock_shard
+                WHERE product_id = :id
+                  AND stock > 0
+                ORDER BY (shard_no + :salt) % shard_count
+                LIMIT 1
+            """;
+
+    String TAKE_SUFFIX = """
+            )
+            UPDATE product_stock_shard s
+            SET stock = s.stock - p.take
+            FROM pick p
+            WHERE s.id = p.id
+            RETURNING p.take
+            """;
+
+    /**
+     * 跳過其他交易正鎖住的分片；回傳扣到的數量，沒有可用分片時回傳 null
+     * 不提供會排隊等鎖的版本：交易持有已扣過的分片時再等別人的分片，會與對方互等成死鎖
+     */
+    @Query(value = TAKE_PREFIX + "    FOR UPDATE SKIP LOCKED\n" + TAKE_SUFFIX, nativeQuery = true)
+    Integer takeSkipLocked(@Param("id") long productId, @Param("count") int count, @Param("salt") int salt);
+
+    @Query(value = """
+            SELECT COALESCE(SUM(stock), 0)
+            FROM product_stock_shard
+            WHERE product_id = :id
+            """, nativeQuery = true)
+    int sumStock(@Param("id") long productId);
+
+    /**
+     * 鎖住該商品所有分片（等進行中的扣庫存完成），回傳目前各分片
+     */
+    @Query(value = """
+            SELECT *
+            FROM product_stock_shard
+            WHERE product_id = :id
+            ORDER BY shard_no
+            FOR UPDATE
+            """, nativeQuery = true)
+    List<ProductStockShardEntity> lockByProductId(@Param("id") long productId);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query(value = "DELETE FROM product_stock_shard WHERE product_id = :id", nativeQuery = true)
+    int deleteByProductId(@Param("id") long productId);
+}
@@ -0,0 +1,9 @@
+package com.example.ecommerce.product.service;
+
+import com.example.ecommerce.product.domain.ProductType;
+
+/**
+ * 公開商品目錄異動（新增 / 修改；目錄不含庫存，扣 / 還 / 補貨改發 StockChangedEvent）
+ * type 為 null 表示無法確定類型，所有類型的列表快取都失效
+ */
+public record CatalogChangedEvent(ProductType type) {}
@@ -0,0 +1,190 @@
+package com.example.ecommerce.product.service;
+
+import com.example.ecommerce.product.api.dto.ProductDtos;
+import com.example.ecommerce.product.domain.ProductType;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * 公開商品目錄快取（GET /products/catalog?type=，不含庫存）：
+ * - 每個 ProductType 一份已序列化的 JSON bytes + 內容雜湊（ETag），命中時不查 DB、不重新序列化
+ * - 未命中時同一類型只有一個請求查 DB（其他請求等它完成後直接用結果）
+ * - 只有商品新增 / 修改 commit 後才失效（先清本地，再發佈 product:catalog-changed 讓其他 pod 一起清）；
+ *   庫存由 ProductStockMirror 另外提供，搶購期間扣庫存不會讓目錄快取失效
+ * - 每類型一個世代號：查詢途中發生失效，查出的舊結果不會被放回快取
+ * - GET /products（不分頁）的含庫存列表：ETag 由目錄 ETag + 各商品庫存算出，不必序列化就能判斷 304；
+ *   每類型保留最後一次序列化的 bytes，庫存沒變的請求直接重用
+ * - ttl-seconds 為 pub/sub 訊息遺失時的兜底
+ */
+@Component
+public class ProductCatalogCache implements MessageListener {
+
+    public static final String CATALOG_CHANGED_CHANNEL = "product:catalog-changed";
+    private static final String ALL_TYPES = "ALL";
+
+    private static final Logger log = LoggerFactory.getLogger(ProductCatalogCache.class);
+
+    public record Snapshot(List<ProductDtos.CatalogItem> items, byte[] body, String etag, long loadedAtNanos) {}
+
+    public record Listing(String etag, byte[] body) {}
+
+    private final ProductService productService;
+    private final ObjectMapper objectMapper;
+    private final StringRedisTemplate redisTemplate;
+    private final long ttlNanos;
+
+    private final Map<ProductType, Entry> entries = new EnumMap<>(ProductType.class);
+
+    private static final class Entry {
+        final AtomicLong generation = new AtomicLong();
+        final ReentrantLock loadLock = new ReentrantLock();
+        volatile Snapshot snapshot;
+        volatile Listing listing;
+    }
+
+    public ProductCatalogCache(
+            ProductService productService,
+            ObjectMapper objectMapper,
+            StringRedisTemplate redisTemplate,
+            RedisMessageListenerContainer listenerContainer,
+            @Value("${product-catalog-cache.ttl-seconds:3600}") long ttlSeconds
+    ) {
+        this.productService = productService;
+        this.objectMapper = objectMapper;
+        this.redisTemplate = redisTemplate;
+        this.ttlNanos = Duration.ofSeconds(ttlSeconds).toNanos();
+        for (ProductType type : ProductType.values()) {
+            entries.put(type, new Entry());
+        }
+        listenerContainer.addMessageListener(this, new ChannelTopic(CATALOG_CHANGED_CHANNEL));
+    }
+
+    public Snapshot get(ProductType type) {
+        Entry entry = entries.get(type);
+        Snapshot snapshot = entry.snapshot;
+        if (isFresh(snapshot)) return snapshot;
+
+        entry.loadLock.lock();
+        try {
+            snapshot = entry.snapshot;
+            if (isFresh(snapshot)) return snapshot;
+
+            long generation = entry.generation.get();
+            Snapshot loaded = load(type);
+            // 失效會先遞增世代號再清快取；查詢途中有失效就只回給這次請求，不放進快取
+            if (entry.generation.get() == generation) {
+                entry.snapshot = loaded;
+            }
+            return loaded;
+        } finally {
+            entry.loadLock.unlock();
+        }
+    }
+
+    private boolean isFresh(Snapshot snapshot) {
+        return snapshot != null && System.nanoTime() - snapshot.loadedAtNanos() < ttlNanos;
+    }
+
+    private Snapshot load(ProductType type) {
+        try {
+            List<ProductDtos.CatalogItem> items = productService.listCatalogByType(type);
+            byte[] body = objectMapper.writeValueAsBytes(items);
+            return new Snapshot(items, body, "\"" + DigestUtils.md5DigestAsHex(body) + "\"", System.nanoTime());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("商品列表序列化失敗 type=" + type, e);
+        }
+    }
+
+    /**
+     * 含庫存列表的 ETag：目錄內容（snapshot.etag）+ 依目錄順序的每個庫存值；鏡像沒有的商品以 0 計
+     */
+    public static String listingEtag(Snapshot snapshot, Map<Long, Integer> stocks) {
+        StringBuilder key = new StringBuilder(snapshot.etag());
+        for (ProductDtos.CatalogItem item : snapshot.items()) {
+            key.append(',').append(stocks.getOrDefault(item.id(), 0));
+        }
+        return "\"" + DigestUtils.md5DigestAsHex(key.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+
+    /**
+     * 含庫存列表的 JSON bytes：etag 與上一次相同就重用上次的 bytes，否則序列化 listing 並記下
+     */
+    public byte[] listingBody(ProductType type, String etag, Supplier<List<ProductDtos.ProductResponse>> listing) {
+        Entry entry = entries.get(type);
+        Listing cached = entry.listing;
+        if (cached != null && cached.etag().equals(etag)) return cached.body();
+
+        try {
+            byte[] body = objectMapper.writeValueAsBytes(listing.get());
+            entry.listing = new Listing(etag, body);
+            return body;
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("商品列表序列化失敗 type=" + type, e);
+        }
+    }
+
+    /**
+     * @param type null 表示所有類型
+     */
+    public void invalidate(ProductType type) {
+        if (type == null) {
+            for (Entry entry : entries.values()) clear(entry);
+        } else {
+            clear(entries.get(type));
+        }
+    }
+
+    private void clear(Entry entry) {
+        entry.generation.incrementAndGet();
+        entry.snapshot = null;
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        invalidate(event.type());
+        try {
+            redisTemplate.convertAndSend(CATALOG_CHANGED_CHANNEL, event.type() == null ? ALL_TYPES : event.type().name());
+        } catch (RuntimeException e) {
+            log.warn("[products.catalog-cache] 發佈列表失效事件失敗（其他 pod 最多 {} 秒後過期）type={}, error={}",
+                    Duration.ofNanos(ttlNanos).toSeconds(), event.type(), e.getMessage());
+        }
+    }
+
+    /**
+     * product:catalog-changed（訊息內容為 ProductType 名稱或 ALL）
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8).trim();
+        if (ALL_TYPES.equals(body)) {
+            invalidate(null);
+            return;
+        }
+        try {
+            invalidate(ProductType.valueOf(body));
+        } catch (IllegalArgumentException e) {
+            log.warn("[products.catalog-cache] 無法解析列表失效事件 body={}", body);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.ecommerce.product.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * 商品異動 → Redis pub/sub（product:changed，訊息內容為 productId）
+ * - AFTER_COMMIT：order-service 收到失效通知時重新讀取，一定讀到已提交的資料
+ * - 發佈失敗只記錄 warn，不影響管理 API；order-service 端仍有 TTL 兜底
+ */
+@Component
+public class ProductChangePublisher {
+
+    public static final String PRODUCT_CHANGED_CHANNEL = "product:changed";
+
+    private static final Logger log = LoggerFactory.getLogger(ProductChangePublisher.class);
+
+    private final StringRedisTemplate redisTemplate;
+
+    public ProductChangePublisher(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void onProductChanged(ProductChangedEvent event) {
+        try {
+            redisTemplate.convertAndSend(PRODUCT_CHANGED_CHANNEL, String.valueOf(event.productId()));
+            log.info("[products.changed] 已發佈商品異動事件 id={}", event.productId());
+        } catch (RuntimeException e) {
+            log.warn("[products.changed] 發佈商品異動事件失敗 id={}, error={}", event.productId(), e.getMessage());
+        }
+    }
+}
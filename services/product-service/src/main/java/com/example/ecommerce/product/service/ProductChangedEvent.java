@@ -0,0 +1,7 @@
+package com.example.ecommerce.product.service;
+
+/**
+ * 商品異動事件（新增 / 修改 / 補貨）
+ * 由 ProductService 在交易內發出，ProductChangePublisher 於 commit 後轉發到 Redis pub/sub
+ */
+public record ProductChangedEvent(long productId) {}
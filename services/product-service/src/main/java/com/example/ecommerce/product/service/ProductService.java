@@ -3,50 +3,140 @@ package com.example.ecommerce.product.service;
 import com.example.ecommerce.product.api.dto.ProductDtos;
 import com.example.ecommerce.product.domain.ProductEntity;
 import com.example.ecommerce.product.domain.ProductType;
+import com.example.ecommerce.product.domain.ProductStockShardEntity;
 import com.example.ecommerce.product.repo.ProductRepository;
+import com.example.ecommerce.product.repo.ProductStockShardRepository;
 
+import jakarta.persistence.EntityManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
 
 /**
  * 商品業務邏輯：
- * - listByType：取得不同商品類型的列表
- * - list：公開商品列表
+ * - listPage：公開商品列表 keyset 分頁（不含庫存，依 id / price / name 排序）
+ * - listCatalogByType：不含庫存的商品目錄（給 ProductCatalogCache）
  * - create：新增商品（ADMIN）
  * - restock：補貨（ADMIN）
  * - reserve：原子扣庫存（internal，給 order-service）
  * - getProductInfo：取得商品資訊（internal，給 order-service）
+ * - getProductInfos：批次取得商品資訊（internal，一次 findAllById，購物車一次往返）
+ * - reserveFlashSaleBatch：搶購批次扣庫存（internal，worker 一批票一次呼叫）
+ * - release：歸還已扣的庫存（internal，order-service 寫訂單失敗時的補償）
+ * - reserveItems / releaseItems：整張購物車一次扣 / 還（internal，一般下單）
+ * - reshardStock：搶購商品庫存分片（ADMIN），熱門商品的扣庫存分散到 K 列
+ * 新增 / 補貨會發出 ProductChangedEvent，commit 後通知 order-service 失效本地快取
+ * 新增會發出 CatalogChangedEvent，commit 後失效 ProductCatalogCache（目錄不含庫存，扣 / 還 / 補貨不影響）
+ * 扣 / 還 / 補貨發出 StockChangedEvent，commit 後把增減量套用到 ProductStockMirror
  */
 @Service
 public class ProductService {
 
     private static final Logger log = LoggerFactory.getLogger(ProductService.class);
 
+    static final int MAX_STOCK_SHARDS = 256;
+    private static final int SHARD_SALT_BOUND = 1_000_000;
+    private static final int SHARD_LOCK_RETRIES = 5;
+    private static final long SHARD_LOCK_BACKOFF_MILLIS = 2;
+
     private final ProductRepository repo;
+    private final ProductStockShardRepository shardRepo;
+    private final ApplicationEventPublisher eventPublisher;
+    private final EntityManager entityManager;
 
-    public ProductService(ProductRepository repo) {
+    public ProductService(ProductRepository repo, ProductStockShardRepository shardRepo,
+                          ApplicationEventPublisher eventPublisher, EntityManager entityManager) {
         this.repo = repo;
+        this.shardRepo = shardRepo;
+        this.eventPublisher = eventPublisher;
+        this.entityManager = entityManager;
     }
 
+    /**
+     * 多查一筆判斷是否還有下一頁；cursor 綁定排序方式，換排序要從第一頁重新開始
+     */
     @Transactional(readOnly = true)
-    public List<ProductDtos.ProductResponse> listByType(ProductType type) {
-        ProductType resolved = (type == null) ? ProductType.NORMAL : type;
-        return repo.findByProductTypeOrderByIdAsc(resolved)
-                .stream()
-                .map(p -> new ProductDtos.ProductResponse(p.getId(), p.getName(), p.getPrice(), p.getStock(), p.getProductType()))
+    public ProductDtos.CatalogPage listPage(ProductType type, ProductDtos.ListingSort sort, int size, String cursor) {
+        Limit limit = Limit.of(size + 1);
+        List<ProductRepository.ProductListView> rows;
+        if (cursor == null) {
+            rows = switch (sort) {
+                case ID -> repo.findPageById(type, limit);
+                case PRICE -> repo.findPageByPrice(type, limit);
+                case NAME -> repo.findPageByName(type, limit);
+            };
+        } else {
+            ListingCursor after = decodeCursor(cursor, sort);
+            rows = switch (sort) {
+                case ID -> repo.findPageByIdAfter(type, after.id(), limit);
+                case PRICE -> repo.findPageByPriceAfter(type, new BigDecimal(after.value()), after.id(), limit);
+                case NAME -> repo.findPageByNameAfter(type, after.value(), after.id(), limit);
+            };
+        }
+
+        boolean hasNext = rows.size() > size;
+        if (hasNext) rows = rows.subList(0, size);
+
+        List<ProductDtos.CatalogItem> items = rows.stream()
+                .map(p -> new ProductDtos.CatalogItem(p.getId(), p.getName(), p.getPrice(), p.getProductType()))
                 .toList();
+        String nextCursor = hasNext ? encodeCursor(sort, rows.get(rows.size() - 1)) : null;
+        return new ProductDtos.CatalogPage(items, nextCursor);
     }
 
+    /**
+     * cursor = base64url("sort|排序值|id")，對前端是不透明字串；商品名稱可能含 '|'，id 以最後一個 '|' 切出
+     */
+    private String encodeCursor(ProductDtos.ListingSort sort, ProductRepository.ProductListView last) {
+        String value = switch (sort) {
+            case ID -> "";
+            case PRICE -> last.getPrice().toPlainString();
+            case NAME -> last.getName();
+        };
+        String raw = sort.name() + "|" + value + "|" + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private ListingCursor decodeCursor(String cursor, ProductDtos.ListingSort sort) {
+        ListingCursor decoded;
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int first = raw.indexOf('|');
+            int last = raw.lastIndexOf('|');
+            decoded = new ListingCursor(ProductDtos.ListingSort.valueOf(raw.substring(0, first)),
+                    raw.substring(first + 1, last), Long.parseLong(raw.substring(last + 1)));
+            if (decoded.sort() == ProductDtos.ListingSort.PRICE) new BigDecimal(decoded.value());
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("cursor 格式錯誤");
+        }
+        if (decoded.sort() != sort) {
+            throw new IllegalArgumentException("cursor 與排序方式不符");
+        }
+        return decoded;
+    }
+
+    private record ListingCursor(ProductDtos.ListingSort sort, String value, Long id) {}
+
     @Transactional(readOnly = true)
-    public List<ProductDtos.ProductResponse> list() {
-        return repo.findAll().stream()
-                .map(p -> new ProductDtos.ProductResponse(p.getId(), p.getName(), p.getPrice(), p.getStock(), p.getProductType()))
+    public List<ProductDtos.CatalogItem> listCatalogByType(ProductType type) {
+        return repo.findByProductTypeOrderByIdAsc(type)
+                .stream()
+                .map(p -> new ProductDtos.CatalogItem(p.getId(), p.getName(), p.getPrice(), p.getProductType()))
                 .toList();
     }
 
@@ -67,6 +157,8 @@ public class ProductService {
 
         ProductEntity saved = repo.save(new ProductEntity(req.name(), req.price(), req.stock()));
         log.info("[products.create] 商品已建立 id={}, name={}", saved.getId(), saved.getName());
+        eventPublisher.publishEvent(new ProductChangedEvent(saved.getId()));
+        eventPublisher.publishEvent(new CatalogChangedEvent(saved.getProductType()));
         return new ProductDtos.ProductResponse(saved.getId(), saved.getName(), saved.getPrice(), saved.getStock(), saved.getProductType());
     }
 
@@ -77,15 +169,17 @@ public class ProductService {
             throw new IllegalArgumentException("補貨數量需 > 0");
         }
 
-        int updated = repo.restockAtomic(id, amount);
-        if (updated != 1) {
-            log.warn("[products.restock] 商品不存在 id={}", id);
-            throw new IllegalArgumentException("商品不存在");
-        }
+        // 一句 SQL：加庫存（已分片則加到各分片）並帶回商品資料與加總後的庫存
+        ProductRepository.ProductStockView p = returning(() -> repo.restockReturning(id, amount))
+                .orElseThrow(() -> {
+                    log.warn("[products.restock] 商品不存在 id={}", id);
+                    return new IllegalArgumentException("商品不存在");
+                });
 
-        ProductEntity p = repo.findById(id).orElseThrow();
         log.info("[products.restock] 補貨完成 id={}, amount={}, 新庫存={}", id, amount, p.getStock());
-        return new ProductDtos.ProductResponse(p.getId(), p.getName(), p.getPrice(), p.getStock(), p.getProductType());
+        eventPublisher.publishEvent(new ProductChangedEvent(id));
+        eventPublisher.publishEvent(StockChangedEvent.of(id, amount));
+        return new ProductDtos.ProductResponse(p.getId(), p.getName(), p.getPrice(), p.getStock(), ProductType.valueOf(p.getProductType()));
     }
 
     @Transactional
@@ -95,14 +189,118 @@ public class ProductService {
             return new ProductDtos.ReserveResponse(false, "扣庫存數量需 > 0");
         }
 
-        int updated = repo.reserveStockAtomic(id, amount);
-        if (updated == 1) return new ProductDtos.ReserveResponse(true, "OK");
+        // 只扣 NORMAL：order-service 以本地快取判斷類型，最終仍以這句 UPDATE 為準
+        int updated = repo.reserveNormalStockAtomic(id, amount);
+        if (updated == 1) {
+            eventPublisher.publishEvent(StockChangedEvent.of(id, -amount));
+            return new ProductDtos.ReserveResponse(true, "OK");
+        }
 
-        // updated=0 表示庫存不足或商品不存在（demo 階段先用簡單訊息）
-        log.warn("[products.reserve] 庫存不足或商品不存在 id={}, amount={}", id, amount);
+        // updated=0 表示庫存不足、商品不存在或非 NORMAL（demo 階段先用簡單訊息）
+        log.warn("[products.reserve] 庫存不足、商品不存在或非一般商品 id={}, amount={}", id, amount);
         return new ProductDtos.ReserveResponse(false, "OUT_OF_STOCK_OR_NOT_FOUND");
     }
 
+    /**
+     * 整張購物車原子扣庫存：一句多列條件式 UPDATE，任一品項不足 / 不存在 / 非 NORMAL 則全部不扣
+     */
+    @Transactional
+    public ProductDtos.ReserveResponse reserveItems(List<ProductDtos.StockItem> items) {
+        String invalid = validateItems(items);
+        if (invalid != null) {
+            log.warn("[products.reserve-items] 請求不合法 reason={}", invalid);
+            return new ProductDtos.ReserveResponse(false, invalid);
+        }
+
+        long distinct = items.stream().map(ProductDtos.StockItem::productId).distinct().count();
+        List<Long> updated = returning(() -> repo.reserveItemsAtomic(toItemsJson(items)));
+        if (updated.size() == distinct) {
+            log.info("[products.reserve-items] 扣庫存成功 items={}", items.size());
+            eventPublisher.publishEvent(new StockChangedEvent(toDeltas(items, updated, -1)));
+            return new ProductDtos.ReserveResponse(true, "OK");
+        }
+
+        log.warn("[products.reserve-items] 庫存不足、商品不存在或非一般商品 items={}", items.size());
+        return new ProductDtos.ReserveResponse(false, "OUT_OF_STOCK_OR_NOT_FOUND");
+    }
+
+    /**
+     * 整張購物車歸還庫存（補償）
+     */
+    @Transactional
+    public ProductDtos.ReleaseResponse releaseItems(List<ProductDtos.StockItem> items) {
+        String invalid = validateItems(items);
+        if (invalid != null) {
+            log.warn("[products.release-items] 請求不合法 reason={}", invalid);
+            return new ProductDtos.ReleaseResponse(false, invalid);
+        }
+
+        long distinct = items.stream().map(ProductDtos.StockItem::productId).distinct().count();
+        List<Long> updated = returning(() -> repo.releaseItemsAtomic(toItemsJson(items)));
+        if (!updated.isEmpty()) eventPublisher.publishEvent(new StockChangedEvent(toDeltas(items, updated, 1)));
+        if (updated.size() != distinct) {
+            log.warn("[products.release-items] 部分商品不存在 requested={}, released={}", distinct, updated.size());
+            return new ProductDtos.ReleaseResponse(false, "NOT_FOUND");
+        }
+
+        log.info("[products.release-items] 已歸還庫存 items={}", items.size());
+        return new ProductDtos.ReleaseResponse(true, "OK");
+    }
+
+    private String validateItems(List<ProductDtos.StockItem> items) {
+        if (items == null || items.isEmpty()) return "BAD_REQUEST";
+        for (ProductDtos.StockItem item : items) {
+            if (item == null || item.productId() == null) return "BAD_REQUEST";
+            if (item.quantity() == null || item.quantity() <= 0) return "QTY_MUST_BE_POSITIVE";
+        }
+        return null;
+    }
+
+    /**
+     * 實際更新到的商品 → 合計數量 × sign（同一商品可能出現多次）
+     */
+    private Map<Long, Integer> toDeltas(List<ProductDtos.StockItem> items, List<Long> updatedIds, int sign) {
+        Set<Long> updated = Set.copyOf(updatedIds);
+        Map<Long, Integer> deltas = new HashMap<>();
+        for (ProductDtos.StockItem item : items) {
+            if (updated.contains(item.productId())) deltas.merge(item.productId(), sign * item.quantity(), Integer::sum);
+        }
+        return deltas;
+    }
+
+    /**
+     * [{"id":1,"qty":2}, ...]，給 jsonb_to_recordset 展開（欄位皆為數字，直接組字串）
+     */
+    private String toItemsJson(List<ProductDtos.StockItem> items) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < items.size(); i++) {
+            ProductDtos.StockItem item = items.get(i);
+            if (i > 0) json.append(',');
+            json.append("{\"id\":").append(item.productId()).append(",\"qty\":").append(item.quantity()).append('}');
+        }
+        return json.append(']').toString();
+    }
+
+    /**
+     * 補償歸還庫存：與補貨同一句原子 UPDATE，但不發商品異動事件（只動 stock，order-service 快取不含庫存）
+     */
+    @Transactional
+    public ProductDtos.ReleaseResponse release(long id, int amount) {
+        if (amount <= 0) {
+            log.warn("[products.release] 歸還數量不合法 id={}, amount={}", id, amount);
+            return new ProductDtos.ReleaseResponse(false, "歸還數量需 > 0");
+        }
+
+        if (returning(() -> repo.restockReturning(id, amount)).isEmpty()) {
+            log.warn("[products.release] 商品不存在 id={}, amount={}", id, amount);
+            return new ProductDtos.ReleaseResponse(false, "NOT_FOUND");
+        }
+
+        log.info("[products.release] 已歸還庫存 id={}, amount={}", id, amount);
+        eventPublisher.publishEvent(StockChangedEvent.of(id, amount));
+        return new ProductDtos.ReleaseResponse(true, "OK");
+    }
+
     @Transactional(readOnly = true)
     public ProductDtos.ProductResponse getProductInfo(long id) {
         ProductEntity p = repo.findById(id)
@@ -110,7 +308,18 @@ public class ProductService {
                     log.warn("[products.info] 商品不存在 id={}", id);
                     return new IllegalArgumentException("商品不存在: " + id);
                 });
-        return new ProductDtos.ProductResponse(p.getId(), p.getName(), p.getPrice(), p.getStock(), p.getProductType());
+        return new ProductDtos.ProductResponse(p.getId(), p.getName(), p.getPrice(), p.getAvailableStock(), p.getProductType());
+    }
+
+    /**
+     * 批次取得商品資訊：一句 WHERE id IN (...)；不存在的 id 直接略過，由呼叫端判斷缺漏
+     */
+    @Transactional(readOnly = true)
+    public List<ProductDtos.ProductResponse> getProductInfos(List<Long> ids) {
+        if (ids == null || ids.isEmpty()) return List.of();
+        return repo.findAllById(ids.stream().distinct().toList()).stream()
+                .map(p -> new ProductDtos.ProductResponse(p.getId(), p.getName(), p.getPrice(), p.getAvailableStock(), p.getProductType()))
+                .toList();
     }
 
     /**
@@ -123,25 +332,162 @@ public class ProductService {
             return new ProductDtos.ReserveResponse(false, "搶購商品數量需為1");
         }
 
-        Optional<ProductEntity> productEntity = repo.findById(id);
-        if (productEntity.isEmpty()) {
+        // 一句 SQL：類型檢查 + 條件式扣庫存，依回傳結果區分不存在 / 類型不符 / 庫存不足
+        Optional<ProductRepository.FlashReserveView> result = returning(() -> repo.reserveFlashSaleReturning(id, amount));
+        if (result.isEmpty()) {
             log.warn("[products.reserve-flash-sale] 商品不存在 id={}", id);
-            return new ProductDtos.ReserveResponse(false, "商品不存在: " + id);
+            return flashSaleRejection(id, ProductDtos.BatchReserveResponse.NOT_FOUND);
         }
 
-        ProductEntity product = productEntity.get();
-        if (product.getProductType() != ProductType.FLASH_SALE) {
-            log.warn("[products.reserve-flash-sale] 商品類型非 FLASH_SALE id={}, type={}", id, product.getProductType());
-            return new ProductDtos.ReserveResponse(false, "搶購功能僅限搶購類型商品");
+        ProductRepository.FlashReserveView reserved = result.get();
+        if (!ProductType.FLASH_SALE.name().equals(reserved.getProductType())) {
+            log.warn("[products.reserve-flash-sale] 商品類型非 FLASH_SALE id={}, type={}", id, reserved.getProductType());
+            return flashSaleRejection(id, ProductDtos.BatchReserveResponse.NOT_FLASH_SALE);
         }
 
-        int updated = repo.reserveStockAtomic(id, amount);
+        // 未分片時已扣 product 列；已分片時 product.stock 為 0，改從分片扣
+        int updated = reserved.getNewStock() != null ? 1 : takeFromShards(id, amount);
         if (updated == 1) {
             log.info("[products.reserve-flash-sale] 搶購扣庫存成功 id={}", id);
-           return new ProductDtos.ReserveResponse(true, "OK");
+            eventPublisher.publishEvent(StockChangedEvent.of(id, -amount));
+            return new ProductDtos.ReserveResponse(true, "OK");
         } else {
             log.warn("[products.reserve-flash-sale] 搶購庫存不足 id={}", id);
-            return new ProductDtos.ReserveResponse(false, "庫存不足");
+            return flashSaleRejection(id, ProductDtos.BatchReserveResponse.OUT_OF_STOCK);
+        }
+    }
+
+    /**
+     * 搶購扣庫存失敗的回應：單張路徑與合併提交（ReservationCoalescer）共用，兩種模式回給呼叫端的訊息一致
+     */
+    static ProductDtos.ReserveResponse flashSaleRejection(long id, String reason) {
+        return switch (reason) {
+            case ProductDtos.BatchReserveResponse.NOT_FOUND -> new ProductDtos.ReserveResponse(false, "商品不存在: " + id);
+            case ProductDtos.BatchReserveResponse.NOT_FLASH_SALE -> new ProductDtos.ReserveResponse(false, "搶購功能僅限搶購類型商品");
+            default -> new ProductDtos.ReserveResponse(false, "庫存不足");
+        };
+    }
+
+    /**
+     * 搶購商品批次扣庫存：一句條件式 UPDATE 授予最多 count 個名額（不足時給剩餘庫存）
+     */
+    @Transactional
+    public ProductDtos.BatchReserveResponse reserveFlashSaleBatch(long id, int count) {
+        if (count <= 0) {
+            log.warn("[products.reserve-flash-sale-batch] 批次數量不合法 id={}, count={}", id, count);
+            return new ProductDtos.BatchReserveResponse(count, 0, "批次數量需 > 0");
+        }
+
+        Integer granted = returning(() -> repo.reserveFlashSaleBatchAtomic(id, count));
+        if (granted == null || granted == 0) granted = takeFromShards(id, count);
+        if (granted == 0) {
+            // 只在失敗時多查一次類型，區分不存在 / 非搶購 / 售完
+            String reason = repo.findProductTypeById(id)
+                    .map(type -> type == ProductType.FLASH_SALE
+                            ? ProductDtos.BatchReserveResponse.OUT_OF_STOCK
+                            : ProductDtos.BatchReserveResponse.NOT_FLASH_SALE)
+                    .orElse(ProductDtos.BatchReserveResponse.NOT_FOUND);
+            log.warn("[products.reserve-flash-sale-batch] 批次扣庫存失敗 id={}, count={}, reason={}", id, count, reason);
+            return new ProductDtos.BatchReserveResponse(count, 0, reason);
+        }
+
+        log.info("[products.reserve-flash-sale-batch] 批次扣庫存 id={}, requested={}, granted={}", id, count, granted);
+        eventPublisher.publishEvent(StockChangedEvent.of(id, -granted));
+        return new ProductDtos.BatchReserveResponse(count, granted, "OK");
+    }
+
+    /**
+     * 重新分片搶購商品的庫存（ADMIN）：
+     * - 鎖住商品列與所有舊分片（等進行中的扣庫存完成），庫存總量不變
+     * - shards >= 2：總量平均拆到 shards 個分片，product.stock 歸 0
+     * - shards <= 1：分片合併回 product.stock（關閉分片）
+     */
+    @Transactional
+    public ProductDtos.StockShardsResponse reshardStock(long id, int shards) {
+        if (shards < 0 || shards > MAX_STOCK_SHARDS) {
+            log.warn("[products.reshard] 分片數不合法 id={}, shards={}", id, shards);
+            throw new IllegalArgumentException("分片數需介於 0 ~ " + MAX_STOCK_SHARDS);
+        }
+
+        Integer rowStock = repo.lockFlashSaleStock(id);
+        if (rowStock == null) {
+            log.warn("[products.reshard] 商品不存在或非搶購商品 id={}", id);
+            throw new IllegalArgumentException("庫存分片僅限搶購類型商品");
+        }
+
+        int total = rowStock;
+        for (ProductStockShardEntity shard : shardRepo.lockByProductId(id)) {
+            total += shard.getStock();
+        }
+        shardRepo.deleteByProductId(id);
+
+        if (shards <= 1) {
+            repo.setStock(id, total);
+            log.info("[products.reshard] 已關閉庫存分片 id={}, stock={}", id, total);
+            return new ProductDtos.StockShardsResponse(id, 0, total);
+        }
+
+        List<ProductStockShardEntity> created = new ArrayList<>(shards);
+        for (int shardNo = 0; shardNo < shards; shardNo++) {
+            int stock = total / shards + (shardNo < total % shards ? 1 : 0);
+            created.add(new ProductStockShardEntity(id, shardNo, shards, stock));
+        }
+        shardRepo.saveAll(created);
+        repo.setStock(id, 0);
+        log.info("[products.reshard] 庫存已分片 id={}, shards={}, stock={}", id, shards, total);
+        return new ProductDtos.StockShardsResponse(id, shards, total);
+    }
+
+    /**
+     * 從分片扣最多 count 個（未分片的商品沒有分片列，直接回 0）：
+     * - 以隨機起點挑沒被鎖住的分片（SKIP LOCKED），買家分散在不同列鎖上；該分片不足時換下一片
+     * - 交易會一直持有已扣過的分片列鎖，所以絕不排隊等別人的分片（兩個交易各持一片互等就是死鎖）
+     * - 有庫存的分片都被鎖住時，短暫退避後重試 SKIP LOCKED，最多 SHARD_LOCK_RETRIES 次；
+     *   仍拿不到就回傳目前扣到的數量（部分授予 / 庫存不足），不讓呼叫端收到死鎖錯誤
+     */
+    private int takeFromShards(long id, int count) {
+        int salt = ThreadLocalRandom.current().nextInt(SHARD_SALT_BOUND);
+        int granted = 0;
+        int misses = 0;
+        while (granted < count) {
+            int remaining = count - granted;
+            Integer take = returning(() -> shardRepo.takeSkipLocked(id, remaining, salt));
+            if (take != null) {
+                granted += take;
+                continue;
+            }
+            // 沒有沒被鎖住的可用分片：真的賣完（或未分片）就停，否則等持鎖的交易 commit 後再挑
+            if (misses++ >= SHARD_LOCK_RETRIES || shardRepo.sumStock(id) == 0) break;
+            if (!backOff(misses)) break;
+        }
+        if (granted < count && misses > SHARD_LOCK_RETRIES) {
+            log.warn("[products.shard-take] 分片持續被鎖住，部分授予 id={}, requested={}, granted={}", id, count, granted);
+        }
+        return granted;
+    }
+
+    /**
+     * 重試前的退避（隨 misses 線性增加，加上抖動避免同時醒來）；被中斷時回傳 false 並保留中斷旗標
+     */
+    private boolean backOff(int misses) {
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(1, SHARD_LOCK_BACKOFF_MILLIS * misses + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * UPDATE ... RETURNING 的原生查詢不能標 @Modifying（只允許 int / void 回傳），等同 flushAutomatically + clearAutomatically 自己做：
+     * 先把尚未寫出的變更 flush，執行後清掉 persistence context，同一交易之後讀到的 ProductEntity / 分片會重新查庫
+     * 只在 @Transactional 的方法內呼叫（flush 需要交易）
+     */
+    private <T> T returning(Supplier<T> statement) {
+        entityManager.flush();
+        T result = statement.get();
+        entityManager.clear();
+        return result;
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.ecommerce.product.service;
+
+import com.example.ecommerce.product.api.dto.ProductDtos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 即時庫存的 Redis 鏡像（product:stock:{id}，給 GET /products/stock）：
+ * - 讀取：一次 MGET；未命中的 id 一次 findAllById 後回填
+ * - 寫入：扣 / 還 / 補貨 commit 後把增減量套用上去（INCRBY），不輪詢商品表
+ * - 增減量只套用在已存在的 key：不存在代表尚未回填，下次讀取會直接從 DB 取得最新值
+ * - 回填以 product:stock-seq:{id} 防護：每次套用增減量都會遞增序號，回填前讀 DB 時記下的序號若已變動
+ *   （讀 DB 之後有 commit，而那次增減量因 key 不存在被略過），就放棄回填，不把舊值寫進鏡像
+ * - 增減量不延長 TTL，鏡像最多 ttl-seconds 會以 DB 重新對齊一次（兜底 Redis 寫入失敗造成的漂移）
+ * - Redis 失敗時讀取退回 DB、寫入只記 warn，不影響扣庫存本身
+ */
+@Component
+public class ProductStockMirror {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductStockMirror.class);
+
+    private static final String STOCK_KEY_PREFIX = "product:stock:";
+    private static final String SEQ_KEY_PREFIX = "product:stock-seq:";
+
+    /**
+     * 序號只需要比一次回填（MGET → 讀 DB → 回填）活得久；每次遞增都重設
+     */
+    private static final long SEQ_TTL_SECONDS = 86_400;
+
+    /**
+     * 套用增減量（只動已存在的 key），並遞增每個商品的序號
+     * KEYS = 成對的 [庫存 key, 序號 key]
+     * ARGV[1..n] = 對應的增減量, ARGV[n+1] = 序號 TTL（秒）
+     */
+    private static final DefaultRedisScript<Long> APPLY_DELTAS_SCRIPT = new DefaultRedisScript<>(
+            """
+            local n = #KEYS / 2
+            local seqTtl = ARGV[n + 1]
+            for i = 1, n do
+              local stockKey = KEYS[2 * i - 1]
+              local seqKey = KEYS[2 * i]
+              redis.call('INCR', seqKey)
+              redis.call('EXPIRE', seqKey, seqTtl)
+              if redis.call('EXISTS', stockKey) == 1 then
+                redis.call('INCRBY', stockKey, ARGV[i])
+              end
+            end
+            return 0
+            """,
+            Long.class
+    );
+
+    /**
+     * 回填：key 不存在、且序號仍是讀 DB 前看到的值才寫入
+     * （已存在的 key 不覆蓋；序號變了代表讀 DB 之後有 commit，查到的值可能已過期）
+     * KEYS = 成對的 [庫存 key, 序號 key]
+     * ARGV = 成對的 [庫存, 讀 DB 前的序號（沒有序號為 0）]，最後一個為 TTL（秒）
+     * @return 實際回填的筆數
+     */
+    private static final DefaultRedisScript<Long> FILL_SCRIPT = new DefaultRedisScript<>(
+            """
+            local n = #KEYS / 2
+            local ttl = ARGV[2 * n + 1]
+            local filled = 0
+            for i = 1, n do
+              local seq = redis.call('GET', KEYS[2 * i]) or '0'
+              if seq == ARGV[2 * i] and redis.call('SET', KEYS[2 * i - 1], ARGV[2 * i - 1], 'NX', 'EX', ttl) then
+                filled = filled + 1
+              end
+            end
+            return filled
+            """,
+            Long.class
+    );
+
+    private final StringRedisTemplate redis;
+    private final ProductService productService;
+    private final long ttlSeconds;
+
+    public ProductStockMirror(StringRedisTemplate redis,
+                              ProductService productService,
+                              @Value("${product-stock-mirror.ttl-seconds:60}") long ttlSeconds) {
+        this.redis = redis;
+        this.productService = productService;
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    /**
+     * @return productId → 目前庫存；不存在的商品不會出現在結果中
+     */
+    public Map<Long, Integer> read(Collection<Long> productIds) {
+        List<Long> ids = productIds.stream().distinct().toList();
+        Map<Long, Integer> stocks = new HashMap<>();
+        if (ids.isEmpty()) return stocks;
+
+        // 庫存與序號一次 MGET：前半是庫存，後半是序號
+        Map<Long, String> missSeqs = new LinkedHashMap<>();
+        try {
+            List<String> keys = new ArrayList<>(ids.size() * 2);
+            ids.forEach(id -> keys.add(stockKey(id)));
+            ids.forEach(id -> keys.add(seqKey(id)));
+            List<String> values = redis.opsForValue().multiGet(keys);
+            for (int i = 0; i < ids.size(); i++) {
+                String value = values == null ? null : values.get(i);
+                if (value == null) {
+                    String seq = values == null ? null : values.get(ids.size() + i);
+                    missSeqs.put(ids.get(i), seq == null ? "0" : seq);
+                } else {
+                    stocks.put(ids.get(i), Integer.parseInt(value));
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("[products.stock-mirror] 讀取鏡像失敗，改查 DB ids={}, error={}", ids.size(), e.getMessage());
+            // 不回填：沒有序號就無法判斷查到的值是否過期
+            return loadFromDb(ids);
+        }
+        if (missSeqs.isEmpty()) return stocks;
+
+        Map<Long, Integer> loaded = loadFromDb(missSeqs.keySet());
+        stocks.putAll(loaded);
+        fill(loaded, missSeqs);
+        return stocks;
+    }
+
+    private Map<Long, Integer> loadFromDb(Collection<Long> ids) {
+        Map<Long, Integer> loaded = new HashMap<>();
+        for (ProductDtos.ProductResponse p : productService.getProductInfos(List.copyOf(ids))) {
+            loaded.put(p.id(), p.stock());
+        }
+        return loaded;
+    }
+
+    private void fill(Map<Long, Integer> loaded, Map<Long, String> seqs) {
+        if (loaded.isEmpty()) return;
+        List<String> keys = new ArrayList<>(loaded.size() * 2);
+        List<String> args = new ArrayList<>(loaded.size() * 2 + 1);
+        loaded.forEach((id, stock) -> {
+            keys.add(stockKey(id));
+            keys.add(seqKey(id));
+            args.add(String.valueOf(stock));
+            args.add(seqs.get(id));
+        });
+        args.add(String.valueOf(ttlSeconds));
+        try {
+            Long filled = redis.execute(FILL_SCRIPT, keys, args.toArray());
+            if (filled != null && filled < loaded.size()) {
+                log.debug("[products.stock-mirror] 讀 DB 期間庫存有異動，略過回填 skipped={}", loaded.size() - filled);
+            }
+        } catch (RuntimeException e) {
+            log.warn("[products.stock-mirror] 回填鏡像失敗 ids={}, error={}", loaded.size(), e.getMessage());
+        }
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void onStockChanged(StockChangedEvent event) {
+        if (event.deltas().isEmpty()) return;
+        List<String> keys = new ArrayList<>(event.deltas().size() * 2);
+        List<String> args = new ArrayList<>(event.deltas().size() + 1);
+        event.deltas().forEach((id, delta) -> {
+            keys.add(stockKey(id));
+            keys.add(seqKey(id));
+            args.add(String.valueOf(delta));
+        });
+        args.add(String.valueOf(SEQ_TTL_SECONDS));
+        try {
+            redis.execute(APPLY_DELTAS_SCRIPT, keys, args.toArray());
+        } catch (RuntimeException e) {
+            // 鏡像最多 ttl-seconds 後過期，重新以 DB 回填
+            log.warn("[products.stock-mirror] 套用庫存增減失敗 deltas={}, error={}", event.deltas(), e.getMessage());
+        }
+    }
+
+    private String stockKey(long productId) {
+        return STOCK_KEY_PREFIX + productId;
+    }
+
+    private String seqKey(long productId) {
+        return SEQ_KEY_PREFIX + productId;
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.ecommerce.product.service;
+
+import com.example.ecommerce.product.api.dto.ProductDtos;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 搶購單張扣庫存的合併提交（reserve-coalescer.enabled=true 時啟用，預設關閉）：
+ * - 同一商品在 window-micros 內到達的請求收成一批（滿 max-batch 立即送出）
+ * - 整批以一次 reserveFlashSaleBatch（一句條件式 UPDATE，授予 min(批次數, 庫存)）在同一個交易內完成，
+ *   一次 commit / fsync 取代每個請求各自一次
+ * - 依到達順序，前 granted 個請求成功；其餘依批次回傳的原因（NOT_FOUND / NOT_FLASH_SALE / OUT_OF_STOCK）
+ *   轉成與單張路徑相同的回應，開關 coalescer 不影響呼叫端看到的訊息
+ * - 交易失敗時整批都回失敗（沒有任何名額被扣），不會有「已扣但呼叫端以為失敗」的情況
+ * 關閉時直接走 ProductService.reserveFlashSaleStock（每個請求一個交易）
+ */
+@Component
+public class ReservationCoalescer {
+
+    private static final Logger log = LoggerFactory.getLogger(ReservationCoalescer.class);
+
+    private final ProductService productService;
+    private final boolean enabled;
+    private final long windowMicros;
+    private final int maxBatch;
+    private final DistributionSummary batchSize;
+
+    private final ConcurrentHashMap<Long, Batch> openBatches = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor flusher;
+
+    private static final class Batch {
+        final List<CompletableFuture<ProductDtos.ReserveResponse>> waiters = new ArrayList<>();
+        final AtomicBoolean flushed = new AtomicBoolean();
+    }
+
+    public ReservationCoalescer(
+            ProductService productService,
+            MeterRegistry meterRegistry,
+            @Value("${reserve-coalescer.enabled:false}") boolean enabled,
+            @Value("${reserve-coalescer.window-micros:2000}") long windowMicros,
+            @Value("${reserve-coalescer.max-batch:200}") int maxBatch,
+            @Value("${reserve-coalescer.flush-threads:4}") int flushThreads
+    ) {
+        this.productService = productService;
+        this.enabled = enabled;
+        this.windowMicros = Math.max(1, windowMicros);
+        this.maxBatch = Math.max(1, maxBatch);
+        this.batchSize = DistributionSummary.builder("products.reserve.coalesced.batch.size")
+                .description("Flash-sale reserve requests committed in one coalesced transaction")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        this.flusher = new ScheduledThreadPoolExecutor(Math.max(1, flushThreads),
+                new CustomizableThreadFactory("reserve-coalescer-"));
+        this.flusher.setRemoveOnCancelPolicy(true);
+
+        log.info("[products.reserve-coalescer] enabled={}, windowMicros={}, maxBatch={}", enabled, this.windowMicros, this.maxBatch);
+    }
+
+    public ProductDtos.ReserveResponse reserveFlashSaleStock(long id, int amount) {
+        // 數量不合法時沿用原本的檢查與錯誤訊息
+        if (!enabled || amount != 1) return productService.reserveFlashSaleStock(id, amount);
+
+        CompletableFuture<ProductDtos.ReserveResponse> response = new CompletableFuture<>();
+        Batch[] full = new Batch[1];
+        openBatches.compute(id, (productId, batch) -> {
+            if (batch == null) {
+                Batch opened = new Batch();
+                flusher.schedule(() -> flush(productId, opened), windowMicros, TimeUnit.MICROSECONDS);
+                batch = opened;
+            }
+            batch.waiters.add(response);
+            if (batch.waiters.size() >= maxBatch) {
+                full[0] = batch;
+                return null;
+            }
+            return batch;
+        });
+        // 批次已滿：由湊滿的這個請求直接送出，不等 window
+        if (full[0] != null) flush(id, full[0]);
+
+        try {
+            return response.join();
+        } catch (CompletionException e) {
+            return new ProductDtos.ReserveResponse(false, "RESERVE_FAILED");
+        }
+    }
+
+    /**
+     * 先從 map 移除（之後的請求會開新批次），再以 flushed 確保同一批只送一次（定時與湊滿可能同時觸發）
+     */
+    private void flush(long productId, Batch batch) {
+        openBatches.remove(productId, batch);
+        if (!batch.flushed.compareAndSet(false, true)) return;
+
+        List<CompletableFuture<ProductDtos.ReserveResponse>> waiters = batch.waiters;
+        batchSize.record(waiters.size());
+        try {
+            ProductDtos.BatchReserveResponse result = productService.reserveFlashSaleBatch(productId, waiters.size());
+            int granted = result.granted();
+            // 部分授予時後面的請求就是沒搶到（售完）；granted 為 0 才沿用批次回傳的原因
+            String reason = granted > 0 ? ProductDtos.BatchReserveResponse.OUT_OF_STOCK : result.message();
+            ProductDtos.ReserveResponse ok = new ProductDtos.ReserveResponse(true, "OK");
+            ProductDtos.ReserveResponse rejected = ProductService.flashSaleRejection(productId, reason);
+            for (int i = 0; i < waiters.size(); i++) {
+                waiters.get(i).complete(i < granted ? ok : rejected);
+            }
+        } catch (RuntimeException e) {
+            log.error("[products.reserve-coalescer] 合併扣庫存失敗 id={}, size={}, error={}", productId, waiters.size(), e.getMessage());
+            waiters.forEach(w -> w.completeExceptionally(e));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.ecommerce.product.service;
+
+import java.util.Map;
+
+/**
+ * 庫存異動（productId → 增減量，扣庫存為負）
+ * 由 ProductService 在交易內發出，ProductStockMirror 於 commit 後套用到 Redis 庫存鏡像
+ */
+public record StockChangedEvent(Map<Long, Integer> deltas) {
+
+    public static StockChangedEvent of(long productId, int delta) {
+        return new StockChangedEvent(Map.of(productId, delta));
+    }
+}
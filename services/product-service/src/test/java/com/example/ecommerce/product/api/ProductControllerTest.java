@@ -0,0 +1,137 @@
+package com.example.ecommerce.product.api;
+
+import com.example.ecommerce.product.api.dto.ProductDtos;
+import com.example.ecommerce.product.domain.ProductType;
+import com.example.ecommerce.product.service.ProductCatalogCache;
+import com.example.ecommerce.product.service.ProductService;
+import com.example.ecommerce.product.service.ProductStockMirror;
+import com.example.ecommerce.product.service.ReservationCoalescer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.LongStream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * GET /products：不帶分頁參數回傳整個類型（ETag / 304）；帶 sort / size / cursor 才分頁
+ * 目錄快取用真的 ProductCatalogCache（資料來源 ProductService 為 mock）
+ */
+@WebMvcTest(ProductController.class)
+@AutoConfigureMockMvc(addFilters = false)
+@Import(ProductControllerTest.CatalogCacheConfig.class)
+class ProductControllerTest {
+
+    @TestConfiguration(proxyBeanMethods = false)
+    static class CatalogCacheConfig {
+        @Bean
+        ProductCatalogCache productCatalogCache(ProductService service, ObjectMapper objectMapper) {
+            return new ProductCatalogCache(service, objectMapper, mock(StringRedisTemplate.class),
+                    mock(RedisMessageListenerContainer.class), 3600);
+        }
+    }
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private ProductService service;
+    @MockBean
+    private ProductStockMirror stockMirror;
+    @MockBean
+    private ReservationCoalescer reservationCoalescer;
+
+    @Test
+    void listWithoutPagingParamsReturnsTheWholeType() throws Exception {
+        List<ProductDtos.CatalogItem> items = LongStream.rangeClosed(1, 120)
+                .mapToObj(id -> new ProductDtos.CatalogItem(id, "p" + id, BigDecimal.TEN, ProductType.NORMAL))
+                .toList();
+        when(service.listCatalogByType(ProductType.NORMAL)).thenReturn(items);
+        when(stockMirror.read(anyList())).thenReturn(Map.of(1L, 7));
+
+        mockMvc.perform(get("/products"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(ProductController.NEXT_CURSOR_HEADER))
+                .andExpect(jsonPath("$.length()").value(120))
+                .andExpect(jsonPath("$[0].stock").value(7))
+                .andExpect(jsonPath("$[1].stock").value(0));
+        verify(service, never()).listPage(any(), any(), anyInt(), any());
+    }
+
+    @Test
+    void listWithoutPagingParamsRevalidatesOnCatalogAndStock() throws Exception {
+        when(service.listCatalogByType(ProductType.FLASH_SALE)).thenReturn(List.of(
+                new ProductDtos.CatalogItem(1L, "flash", BigDecimal.TEN, ProductType.FLASH_SALE)));
+        when(stockMirror.read(anyList())).thenReturn(Map.of(1L, 5));
+
+        MvcResult first = mockMvc.perform(get("/products").param("type", "FLASH_SALE"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists("ETag"))
+                .andReturn();
+        String etag = first.getResponse().getHeader("ETag");
+        byte[] body = first.getResponse().getContentAsByteArray();
+
+        mockMvc.perform(get("/products").param("type", "FLASH_SALE").header("If-None-Match", etag))
+                .andExpect(status().isNotModified());
+        // 庫存沒變：重用同一份 bytes
+        mockMvc.perform(get("/products").param("type", "FLASH_SALE"))
+                .andExpect(header().string("ETag", etag))
+                .andExpect(content().bytes(body));
+
+        // 庫存變動：ETag 跟著變，舊 ETag 不再 304
+        when(stockMirror.read(anyList())).thenReturn(Map.of(1L, 4));
+        mockMvc.perform(get("/products").param("type", "FLASH_SALE").header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].stock").value(4));
+    }
+
+    @Test
+    void anyPagingParamSwitchesToKeysetPages() throws Exception {
+        when(service.listPage(ProductType.NORMAL, ProductDtos.ListingSort.ID, 2, null))
+                .thenReturn(new ProductDtos.CatalogPage(List.of(
+                        new ProductDtos.CatalogItem(1L, "a", BigDecimal.ONE, ProductType.NORMAL),
+                        new ProductDtos.CatalogItem(2L, "b", BigDecimal.ONE, ProductType.NORMAL)), "next"));
+        when(stockMirror.read(anyList())).thenReturn(Map.of());
+
+        mockMvc.perform(get("/products").param("size", "2"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(ProductController.NEXT_CURSOR_HEADER, "next"))
+                .andExpect(jsonPath("$.length()").value(2));
+        verify(service, never()).listCatalogByType(any());
+    }
+
+    @Test
+    void badCursorOrSortIsBadRequest() throws Exception {
+        when(service.listPage(any(), any(), anyInt(), any())).thenThrow(new IllegalArgumentException("cursor 格式錯誤"));
+
+        mockMvc.perform(get("/products").param("sort", "price").param("cursor", "tampered"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/products").param("sort", "stock"))
+                .andExpect(status().isBadRequest());
+    }
+}
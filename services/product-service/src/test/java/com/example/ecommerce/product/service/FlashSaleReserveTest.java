@@ -0,0 +1,154 @@
+package com.example.ecommerce.product.service;
+
+import com.example.ecommerce.product.api.dto.ProductDtos;
+import com.example.ecommerce.product.domain.ProductEntity;
+import com.example.ecommerce.product.domain.ProductType;
+import com.example.ecommerce.product.repo.ProductRepository;
+import com.example.ecommerce.product.repo.ProductStockShardRepository;
+import com.example.ecommerce.product.support.EmbeddedPostgresSupport;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 搶購扣庫存在內嵌 PostgreSQL 上的行為：單張路徑與 ReservationCoalescer 回應一致、並發合併提交不超賣、
+ * 多分片商品被並發批次扣到 0 時不會死鎖
+ * 不包測試交易：每個扣庫存各自 commit（flush 在 coalescer 的執行緒上），結束時手動清表
+ */
+@DataJpaTest(properties = "spring.jpa.hibernate.ddl-auto=create-drop")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({EmbeddedPostgresSupport.class, ProductService.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class FlashSaleReserveTest {
+
+    @Autowired
+    private ProductRepository repo;
+
+    @Autowired
+    private ProductStockShardRepository shardRepo;
+
+    @Autowired
+    private ProductService service;
+
+    private ReservationCoalescer coalescer;
+
+    @AfterEach
+    void tearDown() {
+        if (coalescer != null) coalescer.shutdown();
+        shardRepo.deleteAll();
+        repo.deleteAll();
+    }
+
+    @Test
+    void directAndCoalescedReservationsAnswerTheSame() {
+        coalescer = new ReservationCoalescer(service, new SimpleMeterRegistry(), true, 1_000, 1, 1);
+        long direct = product(ProductType.FLASH_SALE, 1);
+        long coalesced = product(ProductType.FLASH_SALE, 1);
+        long normal = product(ProductType.NORMAL, 10);
+        long missing = normal + 1_000;
+
+        // 有庫存 → OK；第二次 → 庫存不足
+        for (int round = 0; round < 2; round++) {
+            ProductDtos.ReserveResponse expected = service.reserveFlashSaleStock(direct, 1);
+            ProductDtos.ReserveResponse actual = coalescer.reserveFlashSaleStock(coalesced, 1);
+            assertThat(actual).isEqualTo(expected);
+        }
+        assertThat(coalescer.reserveFlashSaleStock(normal, 1)).isEqualTo(service.reserveFlashSaleStock(normal, 1));
+        assertThat(coalescer.reserveFlashSaleStock(missing, 1)).isEqualTo(service.reserveFlashSaleStock(missing, 1));
+        assertThat(repo.findById(normal).orElseThrow().getAvailableStock()).isEqualTo(10);
+    }
+
+    @Test
+    void concurrentCoalescedReservationsGrantExactlyTheStock() throws Exception {
+        coalescer = new ReservationCoalescer(service, new SimpleMeterRegistry(), true, 2_000, 8, 2);
+        long id = product(ProductType.FLASH_SALE, 5);
+
+        List<ProductDtos.ReserveResponse> responses = reserveConcurrently(id, 20);
+
+        assertThat(responses).filteredOn(ProductDtos.ReserveResponse::success).hasSize(5);
+        assertThat(responses).filteredOn(r -> !r.success())
+                .extracting(ProductDtos.ReserveResponse::message).containsOnly("庫存不足");
+        assertThat(repo.findById(id).orElseThrow().getAvailableStock()).isZero();
+    }
+
+    @Test
+    void concurrentBatchesDrainAShardedProductWithoutFailing() throws Exception {
+        // 每片 15 個、每批要 20 個：快賣完時每筆交易都得跨片扣，持有一片再去拿另一片
+        long id = product(ProductType.FLASH_SALE, 120);
+        service.reshardStock(id, 8);
+
+        int workers = 16;
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    int granted = 0;
+                    // 分片忙碌時可能只拿到部分或 0：直到 commit 後的庫存歸 0 才停
+                    while (repo.findById(id).orElseThrow().getAvailableStock() > 0) {
+                        granted += service.reserveFlashSaleBatch(id, 20).granted();
+                    }
+                    return granted;
+                }));
+            }
+            start.countDown();
+
+            int total = 0;
+            for (Future<Integer> future : futures) {
+                total += future.get(30, TimeUnit.SECONDS);
+            }
+            assertThat(total).isEqualTo(120);
+        } finally {
+            pool.shutdownNow();
+        }
+        assertThat(shardRepo.sumStock(id)).isZero();
+    }
+
+    private List<ProductDtos.ReserveResponse> reserveConcurrently(long id, int requests) throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(requests);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<ProductDtos.ReserveResponse>> futures = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                futures.add(callers.submit(() -> {
+                    start.await();
+                    return coalescer.reserveFlashSaleStock(id, 1);
+                }));
+            }
+            start.countDown();
+
+            List<ProductDtos.ReserveResponse> responses = new ArrayList<>();
+            for (Future<ProductDtos.ReserveResponse> future : futures) {
+                responses.add(future.get(10, TimeUnit.SECONDS));
+            }
+            return responses;
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    private long product(ProductType type, int stock) {
+        ProductEntity product = new ProductEntity("p-" + type, new BigDecimal("10.00"), stock);
+        product.setProductType(type);
+        return repo.save(product).getId();
+    }
+}
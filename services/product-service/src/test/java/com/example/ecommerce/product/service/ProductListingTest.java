@@ -0,0 +1,144 @@
+package com.example.ecommerce.product.service;
+
+import com.example.ecommerce.product.api.dto.ProductDtos;
+import com.example.ecommerce.product.domain.ProductEntity;
+import com.example.ecommerce.product.domain.ProductType;
+import com.example.ecommerce.product.repo.ProductRepository;
+import com.example.ecommerce.product.support.EmbeddedPostgresSupport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Limit;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * GET /products keyset 分頁（ProductService.listPage + ProductRepository.findPageBy*）在內嵌 PostgreSQL 上的行為
+ */
+@DataJpaTest(properties = "spring.jpa.hibernate.ddl-auto=create-drop")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({EmbeddedPostgresSupport.class, ProductService.class})
+class ProductListingTest {
+
+    @Autowired
+    private ProductRepository repo;
+
+    @Autowired
+    private ProductService service;
+
+    private List<ProductEntity> normal;
+
+    @BeforeEach
+    void setUp() {
+        // 價格與名稱都有重複值；名稱含 '|'（cursor 的分隔字元）
+        normal = List.of(
+                product("A", "10.00", ProductType.NORMAL),
+                product("B", "20.00", ProductType.NORMAL),
+                product("A", "10.00", ProductType.NORMAL),
+                product("A|x", "30.00", ProductType.NORMAL),
+                product("B", "10.00", ProductType.NORMAL),
+                product("C", "20.00", ProductType.NORMAL));
+        product("A", "10.00", ProductType.FLASH_SALE);
+    }
+
+    @Test
+    void idPagesWalkTheWholeTypeInIdOrder() {
+        assertThat(walk(ProductDtos.ListingSort.ID, 4))
+                .containsExactlyElementsOf(normal.stream().map(ProductEntity::getId).sorted().toList());
+    }
+
+    @Test
+    void pricePagesBreakTiesById() {
+        List<Long> expected = normal.stream()
+                .sorted(Comparator.comparing(ProductEntity::getPrice).thenComparing(ProductEntity::getId))
+                .map(ProductEntity::getId)
+                .toList();
+
+        // size 2：第一頁停在三個 10.00 的中間，下一頁要接著拿同價格 id 較大的那筆
+        assertThat(walk(ProductDtos.ListingSort.PRICE, 2)).containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    void namePagesBreakTiesByIdAndSurviveSeparatorsInNames() {
+        // 名稱排序依資料庫 collation：以單次查詢的順序為準，逐頁翻完必須一致且不重複
+        List<Long> expected = repo.findPageByName(ProductType.NORMAL, Limit.of(100)).stream()
+                .map(ProductRepository.ProductListView::getId)
+                .toList();
+
+        for (int size = 1; size <= 3; size++) {
+            assertThat(walk(ProductDtos.ListingSort.NAME, size)).containsExactlyElementsOf(expected);
+        }
+    }
+
+    @Test
+    void finalPageExactlySizeLongHasNoNextCursor() {
+        ProductDtos.CatalogPage first = service.listPage(ProductType.NORMAL, ProductDtos.ListingSort.ID, 3, null);
+        assertThat(first.items()).hasSize(3);
+        assertThat(first.nextCursor()).isNotNull();
+
+        ProductDtos.CatalogPage last = service.listPage(ProductType.NORMAL, ProductDtos.ListingSort.ID, 3, first.nextCursor());
+        assertThat(last.items()).hasSize(3);
+        assertThat(last.nextCursor()).isNull();
+
+        ProductDtos.CatalogPage whole = service.listPage(ProductType.NORMAL, ProductDtos.ListingSort.PRICE, normal.size(), null);
+        assertThat(whole.items()).hasSize(normal.size());
+        assertThat(whole.nextCursor()).isNull();
+    }
+
+    @Test
+    void malformedOrTamperedCursorIsRejected() {
+        for (String cursor : List.of(
+                "!!not-base64!!",
+                encode("garbage"),
+                encode("UNKNOWN|x|1"),
+                encode("ID||not-a-number"),
+                encode("PRICE|ten|1"))) {
+            assertThatThrownBy(() -> service.listPage(ProductType.NORMAL, ProductDtos.ListingSort.PRICE, 2, cursor))
+                    .as("cursor %s", cursor)
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    void cursorFromAnotherSortIsRejected() {
+        String priceCursor = service.listPage(ProductType.NORMAL, ProductDtos.ListingSort.PRICE, 2, null).nextCursor();
+
+        assertThatThrownBy(() -> service.listPage(ProductType.NORMAL, ProductDtos.ListingSort.NAME, 2, priceCursor))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.listPage(ProductType.NORMAL, ProductDtos.ListingSort.ID, 2, priceCursor))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private List<Long> walk(ProductDtos.ListingSort sort, int size) {
+        List<Long> ids = new ArrayList<>();
+        String cursor = null;
+        do {
+            ProductDtos.CatalogPage page = service.listPage(ProductType.NORMAL, sort, size, cursor);
+            assertThat(page.items()).hasSizeLessThanOrEqualTo(size).isNotEmpty();
+            page.items().forEach(item -> ids.add(item.id()));
+            cursor = page.nextCursor();
+        } while (cursor != null);
+        return ids;
+    }
+
+    private String encode(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private ProductEntity product(String name, String price, ProductType type) {
+        ProductEntity product = new ProductEntity(name, new BigDecimal(price), 10);
+        product.setProductType(type);
+        return repo.save(product);
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.ecommerce.product.service;
+
+import com.example.ecommerce.product.api.dto.ProductDtos;
+import com.example.ecommerce.product.domain.ProductType;
+import com.example.ecommerce.product.support.EmbeddedRedisSupport;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 庫存鏡像的回填與增減量交錯（內嵌 Redis；DB 由 mock 的 ProductService 代替）
+ */
+class ProductStockMirrorTest {
+
+    private static final long PRODUCT_ID = 1L;
+
+    private static StringRedisTemplate redis;
+    private ProductService productService;
+    private ProductStockMirror mirror;
+    private final AtomicInteger dbStock = new AtomicInteger();
+    private final AtomicBoolean commitDuringNextDbRead = new AtomicBoolean();
+
+    @BeforeAll
+    static void startRedis() {
+        redis = EmbeddedRedisSupport.template();
+    }
+
+    @BeforeEach
+    void setUp() {
+        EmbeddedRedisSupport.flushAll(redis);
+        productService = mock(ProductService.class);
+        mirror = new ProductStockMirror(redis, productService, 60);
+        dbStock.set(10);
+        when(productService.getProductInfos(anyList())).thenAnswer(inv -> {
+            ProductDtos.ProductResponse read = product(dbStock.get());
+            if (commitDuringNextDbRead.compareAndSet(true, false)) {
+                // 讀 DB 之後、回填之前另一筆扣庫存 commit（key 還不存在，增減量被略過）
+                dbStock.decrementAndGet();
+                mirror.onStockChanged(StockChangedEvent.of(PRODUCT_ID, -1));
+            }
+            return List.of(read);
+        });
+    }
+
+    @Test
+    void missIsFilledOnceThenServedFromRedis() {
+        assertThat(mirror.read(List.of(PRODUCT_ID))).containsEntry(PRODUCT_ID, 10);
+        assertThat(mirror.read(List.of(PRODUCT_ID))).containsEntry(PRODUCT_ID, 10);
+
+        verify(productService, times(1)).getProductInfos(anyList());
+        assertThat(redis.opsForValue().get("product:stock:" + PRODUCT_ID)).isEqualTo("10");
+    }
+
+    @Test
+    void commitBetweenDbReadAndFillDoesNotCacheTheStaleValue() {
+        commitDuringNextDbRead.set(true);
+        assertThat(mirror.read(List.of(PRODUCT_ID))).containsEntry(PRODUCT_ID, 10);
+        assertThat(redis.hasKey("product:stock:" + PRODUCT_ID)).isFalse();
+
+        assertThat(mirror.read(List.of(PRODUCT_ID))).containsEntry(PRODUCT_ID, 9);
+        assertThat(redis.opsForValue().get("product:stock:" + PRODUCT_ID)).isEqualTo("9");
+    }
+
+    @Test
+    void deltaAfterFillIsApplied() {
+        mirror.read(List.of(PRODUCT_ID));
+
+        mirror.onStockChanged(StockChangedEvent.of(PRODUCT_ID, -3));
+
+        assertThat(mirror.read(List.of(PRODUCT_ID))).containsEntry(PRODUCT_ID, 7);
+    }
+
+    @Test
+    void deltaOnMissingKeyDoesNotCreateIt() {
+        mirror.onStockChanged(StockChangedEvent.of(PRODUCT_ID, -1));
+
+        assertThat(redis.hasKey("product:stock:" + PRODUCT_ID)).isFalse();
+        // 序號遞增不影響之後的正常回填
+        assertThat(mirror.read(List.of(PRODUCT_ID))).containsEntry(PRODUCT_ID, 10);
+        assertThat(redis.opsForValue().get("product:stock:" + PRODUCT_ID)).isEqualTo("10");
+    }
+
+    private ProductDtos.ProductResponse product(int stock) {
+        return new ProductDtos.ProductResponse(PRODUCT_ID, "p", BigDecimal.TEN, stock, ProductType.NORMAL);
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.ecommerce.product.service;
+
+import com.example.ecommerce.product.api.dto.ProductDtos;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * ReservationCoalescer 的送出時機（湊滿 / window 到期）與每個請求的回應（ProductService 為 mock）
+ */
+class ReservationCoalescerTest {
+
+    private static final long PRODUCT_ID = 7L;
+
+    private ProductService productService;
+    private ReservationCoalescer coalescer;
+    private ExecutorService callers;
+
+    @BeforeEach
+    void setUp() {
+        productService = mock(ProductService.class);
+        callers = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    void tearDown() {
+        callers.shutdownNow();
+        if (coalescer != null) coalescer.shutdown();
+    }
+
+    @Test
+    void fullBatchIsFlushedWithoutWaitingForTheWindow() throws Exception {
+        // window 10 秒：只有湊滿才可能在 2 秒內拿到回應
+        coalescer = newCoalescer(10_000_000, 3);
+        when(productService.reserveFlashSaleBatch(PRODUCT_ID, 3))
+                .thenReturn(new ProductDtos.BatchReserveResponse(3, 3, "OK"));
+
+        List<ProductDtos.ReserveResponse> responses = reserveConcurrently(3, 2);
+
+        assertThat(responses).extracting(ProductDtos.ReserveResponse::success).containsOnly(true);
+        verify(productService, times(1)).reserveFlashSaleBatch(anyLong(), anyInt());
+    }
+
+    @Test
+    void requestsArrivingWithinTheWindowShareOneTransaction() throws Exception {
+        coalescer = newCoalescer(500_000, 100);
+        when(productService.reserveFlashSaleBatch(PRODUCT_ID, 2))
+                .thenReturn(new ProductDtos.BatchReserveResponse(2, 2, "OK"));
+
+        List<ProductDtos.ReserveResponse> responses = reserveConcurrently(2, 5);
+
+        assertThat(responses).extracting(ProductDtos.ReserveResponse::message).containsOnly("OK");
+        verify(productService, times(1)).reserveFlashSaleBatch(PRODUCT_ID, 2);
+    }
+
+    @Test
+    void partiallyGrantedBatchTellsTheRestTheyAreOutOfStock() throws Exception {
+        coalescer = newCoalescer(10_000_000, 3);
+        when(productService.reserveFlashSaleBatch(PRODUCT_ID, 3))
+                .thenReturn(new ProductDtos.BatchReserveResponse(3, 1, "OK"));
+
+        List<ProductDtos.ReserveResponse> responses = reserveConcurrently(3, 2);
+
+        assertThat(responses).extracting(ProductDtos.ReserveResponse::message)
+                .containsExactlyInAnyOrder("OK", "庫存不足", "庫存不足");
+    }
+
+    @Test
+    void rejectedBatchCarriesTheSameReasonAsTheDirectPath() {
+        // max-batch 1：每個請求自己湊滿，在呼叫端執行緒直接送出
+        coalescer = newCoalescer(10_000_000, 1);
+
+        for (String reason : List.of(ProductDtos.BatchReserveResponse.NOT_FOUND,
+                ProductDtos.BatchReserveResponse.NOT_FLASH_SALE,
+                ProductDtos.BatchReserveResponse.OUT_OF_STOCK)) {
+            when(productService.reserveFlashSaleBatch(PRODUCT_ID, 1))
+                    .thenReturn(new ProductDtos.BatchReserveResponse(1, 0, reason));
+
+            assertThat(coalescer.reserveFlashSaleStock(PRODUCT_ID, 1))
+                    .as("reason %s", reason)
+                    .isEqualTo(ProductService.flashSaleRejection(PRODUCT_ID, reason));
+        }
+        assertThat(ProductService.flashSaleRejection(PRODUCT_ID, ProductDtos.BatchReserveResponse.NOT_FOUND).message())
+                .isEqualTo("商品不存在: " + PRODUCT_ID);
+    }
+
+    @Test
+    void failedTransactionFailsTheWholeBatch() throws Exception {
+        coalescer = newCoalescer(10_000_000, 2);
+        when(productService.reserveFlashSaleBatch(PRODUCT_ID, 2)).thenThrow(new IllegalStateException("db down"));
+
+        List<ProductDtos.ReserveResponse> responses = reserveConcurrently(2, 2);
+
+        assertThat(responses).containsOnly(new ProductDtos.ReserveResponse(false, "RESERVE_FAILED"));
+    }
+
+    private ReservationCoalescer newCoalescer(long windowMicros, int maxBatch) {
+        return new ReservationCoalescer(productService, new SimpleMeterRegistry(), true, windowMicros, maxBatch, 2);
+    }
+
+    private List<ProductDtos.ReserveResponse> reserveConcurrently(int requests, long timeoutSeconds) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<ProductDtos.ReserveResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            futures.add(callers.submit(() -> {
+                start.await();
+                return coalescer.reserveFlashSaleStock(PRODUCT_ID, 1);
+            }));
+        }
+        start.countDown();
+
+        List<ProductDtos.ReserveResponse> responses = new ArrayList<>();
+        for (Future<ProductDtos.ReserveResponse> future : futures) {
+            responses.add(future.get(timeoutSeconds, TimeUnit.SECONDS));
+        }
+        return responses;
+    }
+}
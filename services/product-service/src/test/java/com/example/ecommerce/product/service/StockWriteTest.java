@@ -0,0 +1,178 @@
+package com.example.ecommerce.product.service;
+
+import com.example.ecommerce.product.api.dto.ProductDtos;
+import com.example.ecommerce.product.domain.ProductEntity;
+import com.example.ecommerce.product.domain.ProductStockShardEntity;
+import com.example.ecommerce.product.domain.ProductType;
+import com.example.ecommerce.product.repo.ProductRepository;
+import com.example.ecommerce.product.repo.ProductStockShardRepository;
+import com.example.ecommerce.product.support.EmbeddedPostgresSupport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 一句 SQL 的庫存寫入（reserveItemsAtomic / restockReturning）在內嵌 PostgreSQL 上的行為：
+ * 並發購物車全有或全無、分片補貨的餘數分配、寫入後同一交易不會讀到舊的 entity
+ * 不包測試交易（並發的購物車各自 commit），結束時手動清表
+ */
+@DataJpaTest(properties = "spring.jpa.hibernate.ddl-auto=create-drop")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({EmbeddedPostgresSupport.class, ProductService.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class StockWriteTest {
+
+    @Autowired
+    private ProductRepository repo;
+
+    @Autowired
+    private ProductStockShardRepository shardRepo;
+
+    @Autowired
+    private ProductService service;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @AfterEach
+    void tearDown() {
+        shardRepo.deleteAll();
+        repo.deleteAll();
+    }
+
+    @Test
+    void concurrentCartsReserveAllItemsOrNothing() throws Exception {
+        long plenty = product(ProductType.NORMAL, 10);
+        long scarce = product(ProductType.NORMAL, 3);
+
+        // 一半的購物車把品項倒過來放：鎖列順序由 SQL 決定，不會互相死鎖
+        List<ProductDtos.StockItem> forward = List.of(new ProductDtos.StockItem(plenty, 1), new ProductDtos.StockItem(scarce, 1));
+        List<ProductDtos.StockItem> reversed = List.of(new ProductDtos.StockItem(scarce, 1), new ProductDtos.StockItem(plenty, 1));
+        List<ProductDtos.ReserveResponse> responses = concurrently(20, i -> service.reserveItems(i % 2 == 0 ? forward : reversed));
+
+        assertThat(responses).filteredOn(ProductDtos.ReserveResponse::success).hasSize(3);
+        assertThat(responses).filteredOn(r -> !r.success())
+                .extracting(ProductDtos.ReserveResponse::message).containsOnly("OUT_OF_STOCK_OR_NOT_FOUND");
+        // 失敗的購物車一個品項都沒扣
+        assertThat(stockOf(plenty)).isEqualTo(7);
+        assertThat(stockOf(scarce)).isZero();
+    }
+
+    @Test
+    void cartWithAFlashSaleItemReservesNothing() {
+        long normal = product(ProductType.NORMAL, 10);
+        long flash = product(ProductType.FLASH_SALE, 10);
+
+        ProductDtos.ReserveResponse response = service.reserveItems(
+                List.of(new ProductDtos.StockItem(normal, 2), new ProductDtos.StockItem(flash, 1)));
+
+        assertThat(response.success()).isFalse();
+        assertThat(stockOf(normal)).isEqualTo(10);
+        assertThat(stockOf(flash)).isEqualTo(10);
+    }
+
+    @Test
+    void restockSplitsTheRemainderAcrossTheFirstShards() {
+        long id = product(ProductType.FLASH_SALE, 10);
+        service.reshardStock(id, 4);
+        assertThat(shardStocks(id)).containsExactly(3, 3, 2, 2);
+
+        // 7 = 4 × 1 + 3：每片 +1，前 3 片再 +1
+        ProductDtos.ProductResponse restocked = service.restock(id, 7);
+
+        assertThat(shardStocks(id)).containsExactly(5, 5, 4, 3);
+        assertThat(restocked.stock()).isEqualTo(17);
+        assertThat(repo.findById(id).orElseThrow().getStock()).isZero();
+
+        // 歸還走同一句 SQL：2 < 4，只有前 2 片各 +1
+        assertThat(service.release(id, 2).success()).isTrue();
+        assertThat(shardStocks(id)).containsExactly(6, 6, 4, 3);
+        assertThat(stockOf(id)).isEqualTo(19);
+    }
+
+    @Test
+    void entitiesLoadedBeforeAReturningWriteAreReadFresh() {
+        long normal = product(ProductType.NORMAL, 10);
+        long flash = product(ProductType.FLASH_SALE, 10);
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(tx -> {
+            // 先把兩個商品載入同一交易的 persistence context
+            assertThat(repo.findById(normal).orElseThrow().getStock()).isEqualTo(10);
+            assertThat(repo.findById(flash).orElseThrow().getStock()).isEqualTo(10);
+
+            service.reserveItems(List.of(new ProductDtos.StockItem(normal, 4)));
+            assertThat(repo.findById(normal).orElseThrow().getStock()).isEqualTo(6);
+
+            service.reserveFlashSaleStock(flash, 1);
+            assertThat(repo.findById(flash).orElseThrow().getStock()).isEqualTo(9);
+
+            service.restock(normal, 5);
+            assertThat(repo.findById(normal).orElseThrow().getStock()).isEqualTo(11);
+        });
+    }
+
+    private interface Call<T> {
+        T run(int i) throws Exception;
+    }
+
+    private <T> List<T> concurrently(int calls, Call<T> call) throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(calls);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<T>> futures = new ArrayList<>();
+            for (int i = 0; i < calls; i++) {
+                int index = i;
+                futures.add(callers.submit(() -> {
+                    start.await();
+                    return call.run(index);
+                }));
+            }
+            start.countDown();
+
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                results.add(future.get(10, TimeUnit.SECONDS));
+            }
+            return results;
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    private int stockOf(long id) {
+        return repo.findById(id).orElseThrow().getAvailableStock();
+    }
+
+    private List<Integer> shardStocks(long id) {
+        return shardRepo.findAll().stream()
+                .filter(shard -> shard.getProductId() == id)
+                .sorted(Comparator.comparing(ProductStockShardEntity::getShardNo))
+                .map(ProductStockShardEntity::getStock)
+                .toList();
+    }
+
+    private long product(ProductType type, int stock) {
+        ProductEntity product = new ProductEntity("p-" + type, new BigDecimal("10.00"), stock);
+        product.setProductType(type);
+        return repo.save(product).getId();
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.ecommerce.product.support;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * 測試用內嵌 PostgreSQL：整個測試 JVM 共用一個 server（第一次使用時啟動，JVM 結束時關閉）
+ * - 原生 SQL（CTE、FOR UPDATE、jsonb_to_recordset）在真的 PostgreSQL 上執行，H2 無法模擬
+ * - 搭配 @DataJpaTest + @AutoConfigureTestDatabase(replace = NONE) 使用；表由 ddl-auto 建立
+ */
+@TestConfiguration(proxyBeanMethods = false)
+public class EmbeddedPostgresSupport {
+
+    private static EmbeddedPostgres postgres;
+
+    @Bean
+    public DataSource dataSource() {
+        return server().getPostgresDatabase();
+    }
+
+    private static synchronized EmbeddedPostgres server() {
+        if (postgres == null) {
+            try {
+                postgres = EmbeddedPostgres.start();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    postgres.close();
+                } catch (IOException ignored) {
+                    // JVM 結束中，忽略
+                }
+            }));
+        }
+        return postgres;
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.ecommerce.product.support;
+
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+
+/**
+ * 測試用內嵌 Redis：整個測試 JVM 共用一個 server（第一次使用時啟動，JVM 結束時關閉）
+ * - 每個測試自行 flushAll，避免 key 互相影響
+ * - 使用真的 Redis，Lua 腳本的原子性與正式環境一致
+ */
+public final class EmbeddedRedisSupport {
+
+    private static RedisServer server;
+    private static int port;
+
+    private EmbeddedRedisSupport() {}
+
+    public static synchronized StringRedisTemplate template() {
+        if (server == null) start();
+
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("localhost", port));
+        factory.afterPropertiesSet();
+        StringRedisTemplate template = new StringRedisTemplate(factory);
+        template.afterPropertiesSet();
+        return template;
+    }
+
+    public static void flushAll(StringRedisTemplate template) {
+        template.execute((RedisCallback<Object>) connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        });
+    }
+
+    private static void start() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            server = new RedisServer(port);
+            server.start();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.stop();
+            } catch (IOException ignored) {
+                // JVM 結束中，忽略
+            }
+        }));
+    }
+}